@@ -0,0 +1,93 @@
+package org.xbib.groovy.ldap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for single-entry operations: read, exists, add, modify and delete.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntryBenchmark {
+
+    @Param({ "1", "10" })
+    public int attributeCount;
+
+    @Param({ "true", "false" })
+    public boolean pooled;
+
+    private InMemoryDirectory directory;
+
+    private LDAP ldap;
+
+    private Map<String, Object> attributes;
+
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = new InMemoryDirectory();
+        directory.addPersons(1, attributeCount);
+        ldap = LDAP.newInstance(directory.getUrl(), InMemoryDirectory.BIND_DN, InMemoryDirectory.BIND_PASSWORD,
+                pooled ? new PoolSettings() : PoolSettings.disabled());
+        attributes = new LinkedHashMap<>();
+        attributes.put("objectClass", List.of("top", "person"));
+        attributes.put("sn", "Added");
+        List<String> descriptions = new ArrayList<>();
+        for (int j = 0; j < attributeCount; j++) {
+            descriptions.add("description " + j);
+        }
+        attributes.put("description", descriptions);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ldap.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public Object read() throws Exception {
+        return ldap.read(InMemoryDirectory.dn(0));
+    }
+
+    @Benchmark
+    public Boolean exists() throws Exception {
+        return ldap.exists(InMemoryDirectory.dn(0));
+    }
+
+    @Benchmark
+    public void modify() throws Exception {
+        ldap.modify(InMemoryDirectory.dn(0), ModificationType.REPLACE,
+                Collections.singletonMap("sn", "Person " + counter++));
+    }
+
+    @Benchmark
+    public void addAndDelete() throws Exception {
+        String dn = "cn=added-" + counter++ + "," + InMemoryDirectory.BASE;
+        ldap.add(dn, attributes);
+        ldap.delete(dn);
+    }
+}
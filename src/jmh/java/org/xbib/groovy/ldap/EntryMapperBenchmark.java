@@ -0,0 +1,71 @@
+package org.xbib.groovy.ldap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for mapping entries, without a server. Run with {@code -prof gc} to compare the allocation
+ * per entry of the mappers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntryMapperBenchmark {
+
+    private static final String DN = "cn=person 0,ou=people,dc=example,dc=com";
+
+    @Param({ "DEFAULT", "CASE_INSENSITIVE", "FLYWEIGHT" })
+    public String mapper;
+
+    @Param({ "5", "20" })
+    public int attributeCount;
+
+    private EntryMapper entryMapper;
+
+    private Attributes attributes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entryMapper = EntryMapper.valueOf(mapper);
+        attributes = new BasicAttributes(true);
+        for (int i = 0; i < attributeCount; i++) {
+            BasicAttribute attr = new BasicAttribute("attr" + i);
+            attr.add("value " + i);
+            if (i % 4 == 0) {
+                attr.add("other value " + i);
+            }
+            attributes.put(attr);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> map() throws NamingException {
+        return entryMapper.map(DN, attributes);
+    }
+
+    @Benchmark
+    public void mapAndReadOne(Blackhole blackhole) throws NamingException {
+        blackhole.consume(entryMapper.map(DN, attributes).get("attr1"));
+    }
+}
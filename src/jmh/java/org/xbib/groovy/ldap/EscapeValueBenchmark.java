@@ -0,0 +1,46 @@
+package org.xbib.groovy.ldap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for escaping filter values and rendering filters, with and without characters which need escaping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscapeValueBenchmark {
+
+    private static final Filter FILTER = Filter.and(Filter.eq("objectClass", "person"), Filter.eq("uid", Filter.arg(0)));
+
+    @Param({ "jdoe", "Doe, John (Sales)", "a-rather-long-user-name-without-special-characters@example.com" })
+    public String value;
+
+    @Benchmark
+    public String escapeValue() {
+        return LDAP.escapeValue(value);
+    }
+
+    @Benchmark
+    public String renderFilter() {
+        return FILTER.render(value);
+    }
+
+    @Benchmark
+    public String concatenateFilter() {
+        return "(&(objectClass=person)(uid=" + LDAP.escapeValue(value) + "))";
+    }
+}
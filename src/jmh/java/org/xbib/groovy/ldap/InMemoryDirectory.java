@@ -0,0 +1,66 @@
+package org.xbib.groovy.ldap;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+
+/**
+ * An in-memory directory server for the benchmarks, listening on a free port of the loopback interface.
+ * The directory holds a base entry and a number of person entries below it.
+ */
+final class InMemoryDirectory implements AutoCloseable {
+
+    static final String BASE = "dc=example,dc=com";
+
+    static final String BIND_DN = "cn=Directory Manager";
+
+    static final String BIND_PASSWORD = "secret";
+
+    private final InMemoryDirectoryServer server;
+
+    InMemoryDirectory() throws LDAPException {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE);
+        config.addAdditionalBindCredentials(BIND_DN, BIND_PASSWORD);
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+        config.setSchema(null);
+        server = new InMemoryDirectoryServer(config);
+        server.startListening();
+        server.add("dn: " + BASE, "objectClass: top", "objectClass: domain", "dc: example");
+    }
+
+    String getUrl() {
+        return "ldap://localhost:" + server.getListenPort() + "/";
+    }
+
+    /**
+     * Add person entries named cn=person-0 up to cn=person-(count-1), each with the given number of
+     * description values besides its naming attributes.
+     *
+     * @param count the number of entries
+     * @param attributeCount the number of extra attribute values per entry
+     * @throws LDAPException if an entry can not be added
+     */
+    void addPersons(int count, int attributeCount) throws LDAPException {
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry(dn(i));
+            entry.addAttribute("objectClass", "top", "person");
+            entry.addAttribute("cn", "person-" + i);
+            entry.addAttribute("sn", "Person " + i);
+            for (int j = 0; j < attributeCount; j++) {
+                entry.addAttribute("description", "description " + j + " of person " + i);
+            }
+            server.add(entry);
+        }
+    }
+
+    static String dn(int i) {
+        return "cn=person-" + i + "," + BASE;
+    }
+
+    @Override
+    public void close() {
+        server.shutDown(true);
+    }
+}
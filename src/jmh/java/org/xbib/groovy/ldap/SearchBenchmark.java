@@ -0,0 +1,88 @@
+package org.xbib.groovy.ldap;
+
+import groovy.lang.Closure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks for searches of varying result size and entry size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    public int resultSize;
+
+    @Param({ "1", "10" })
+    public int attributeCount;
+
+    @Param({ "true", "false" })
+    public boolean pooled;
+
+    private InMemoryDirectory directory;
+
+    private LDAP ldap;
+
+    private Search search;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = new InMemoryDirectory();
+        directory.addPersons(resultSize, attributeCount);
+        ldap = LDAP.newInstance(directory.getUrl(), InMemoryDirectory.BIND_DN, InMemoryDirectory.BIND_PASSWORD,
+                pooled ? new PoolSettings() : PoolSettings.disabled());
+        search = new Search(InMemoryDirectory.BASE, SearchScope.ONE, "(objectClass=person)");
+        search.setPageSize(100);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ldap.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> search() throws Exception {
+        return ldap.search(search);
+    }
+
+    @Benchmark
+    public void eachEntry(Blackhole blackhole) throws Exception {
+        ldap.eachEntry(search, new Closure<Object>(this) {
+            @Override
+            public Object call(Object... args) {
+                blackhole.consume(args[0]);
+                return null;
+            }
+        });
+    }
+
+    @Benchmark
+    public void stream(Blackhole blackhole) {
+        try (Stream<Map<String, Object>> entries = ldap.stream(search)) {
+            entries.forEach(blackhole::consume);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous variants of the {@link LDAP} operations. Each operation runs on an executor and returns a
+ * {@link CompletableFuture}.
+ *
+ * Cancelling a future, or exceeding the timeout, interrupts the thread performing the operation. The
+ * interrupted context is closed instead of being pooled, which makes the server abandon the request.
+ */
+public class AsyncLDAP {
+
+    private static final Logger logger = Logger.getLogger(AsyncLDAP.class.getName());
+
+    private static final ScheduledThreadPoolExecutor timer = createTimer();
+
+    private final LDAP ldap;
+
+    private final Executor executor;
+
+    private final long timeoutMillis;
+
+    AsyncLDAP(LDAP ldap, Executor executor, long timeoutMillis) {
+        this.ldap = ldap;
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Create a facade which fails every operation with a {@link TimeoutException} if it does not complete in time.
+     *
+     * @param timeout the timeout, zero for no timeout
+     * @param unit the unit of the timeout
+     * @return an asynchronous facade sharing the executor of this one
+     */
+    public AsyncLDAP withTimeout(long timeout, TimeUnit unit) {
+        return new AsyncLDAP(ldap, executor, unit.toMillis(timeout));
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public CompletableFuture<Void> addAsync(String dn, Map<String, Object> attributes) {
+        return submit(() -> {
+            ldap.add(dn, attributes);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteAsync(String dn) {
+        return submit(() -> {
+            ldap.delete(dn);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Map<String, Object>> readAsync(String dn) {
+        return submit(() -> ldap.read(dn));
+    }
+
+    public CompletableFuture<Boolean> existsAsync(String dn) {
+        return submit(() -> ldap.exists(dn));
+    }
+
+    public CompletableFuture<Boolean> compareAsync(String dn, Map<String, Object> assertion) {
+        return submit(() -> ldap.compare(dn, assertion));
+    }
+
+    public CompletableFuture<Void> modifyDnAsync(String dn, String newRDN, boolean deleteOldRDN, String newSuperior) {
+        return submit(() -> {
+            ldap.modifyDn(dn, newRDN, deleteOldRDN, newSuperior);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> modifyAsync(String dn, String modType, Map<String, Object> attributes) {
+        return submit(() -> {
+            ldap.modify(dn, modType, attributes);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> modifyAsync(String dn, ModificationType modType, Map<String, Object> attributes) {
+        return submit(() -> {
+            ldap.modify(dn, modType, attributes);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> modifyAsync(String dn, List<List> modificationItem) {
+        return submit(() -> {
+            ldap.modify(dn, modificationItem);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> searchAsync(String filter) {
+        return submit(() -> ldap.search(filter));
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> searchAsync(String base, SearchScope scope, String filter,
+                                                                    String... attrs) {
+        return submit(() -> ldap.search(base, scope, filter, attrs));
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> searchAsync(Map<String, Object> searchParams) {
+        return submit(() -> ldap.search(searchParams));
+    }
+
+    public CompletableFuture<List<Map<String, Object>>> searchAsync(Search search) {
+        return submit(() -> ldap.search(search));
+    }
+
+    public CompletableFuture<Void> bindAsync(String bindUser, String bindPassword) {
+        return submit(() -> {
+            ldap.bind(bindUser, bindPassword);
+            return null;
+        });
+    }
+
+    /**
+     * Run a call on the executor of this facade, with the timeout and cancellation semantics of the
+     * LDAP operations.
+     *
+     * @param call the call
+     * @param <T> the result type
+     * @return the future result
+     */
+    public <T> CompletableFuture<T> submit(Call<T> call) {
+        Task<T> task = new Task<>(call);
+        if (timeoutMillis > 0L) {
+            ScheduledFuture<?> timeout = timer.schedule(task::timeout, timeoutMillis, TimeUnit.MILLISECONDS);
+            task.whenComplete((result, throwable) -> timeout.cancel(false));
+        }
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            task.completeExceptionally(e);
+        }
+        return task;
+    }
+
+    /**
+     * Create the default executor. On Java 21 and later, each operation runs on its own virtual thread.
+     * Otherwise, a fixed number of daemon threads is used.
+     *
+     * @param threads the number of platform threads
+     * @return the executor
+     */
+    static ExecutorService createDefaultExecutor(int threads) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            logger.log(Level.FINEST, "virtual threads not available");
+        } catch (ReflectiveOperationException e) {
+            logger.log(Level.FINEST, e.getMessage(), e);
+        }
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                daemonThreadFactory("groovy-ldap-async-"));
+    }
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                daemonThreadFactory("groovy-ldap-timeout-"));
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A blocking call to be run asynchronously.
+     *
+     * @param <T> the result type
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T call() throws NamingException;
+    }
+
+    /**
+     * A future which interrupts the thread running its call when it is cancelled or timed out.
+     */
+    private static final class Task<T> extends CompletableFuture<T> implements Runnable {
+
+        private final Call<T> call;
+
+        private Thread runner;
+
+        private Task(Call<T> call) {
+            this.call = call;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (isDone()) {
+                    return;
+                }
+                runner = Thread.currentThread();
+            }
+            try {
+                complete(call.call());
+            } catch (NamingException | RuntimeException e) {
+                completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    // clear an interrupt which arrived after the call returned
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                interrupt();
+            }
+            return cancelled;
+        }
+
+        private void timeout() {
+            if (completeExceptionally(new TimeoutException("LDAP operation timed out"))) {
+                interrupt();
+            }
+        }
+
+        private synchronized void interrupt() {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only map view of the DN and the JNDI attributes of an entry, see {@link EntryMapper#FLYWEIGHT}.
+ * Nothing is copied; multi-valued attributes are list views of the JNDI attribute. Failures reading the
+ * attributes are thrown as {@link UncheckedNamingException}.
+ */
+final class AttributesEntry extends AbstractMap<String, Object> {
+
+    private final String dn;
+
+    private final Attributes attributes;
+
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    AttributesEntry(String dn, Attributes attributes) {
+        this.dn = dn;
+        this.attributes = attributes;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if ("dn".equals(key)) {
+            return dn;
+        }
+        if (!(key instanceof String)) {
+            return null;
+        }
+        Attribute attr = attributes.get((String) key);
+        return attr != null ? value(attr) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return "dn".equals(key) || (key instanceof String && attributes.get((String) key) != null);
+    }
+
+    @Override
+    public int size() {
+        return attributes.size() + 1;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private static Object value(Attribute attr) {
+        try {
+            return attr.size() == 1 ? attr.get() : new Values(attr);
+        } catch (NamingException e) {
+            throw new UncheckedNamingException(e);
+        }
+    }
+
+    /**
+     * The entries of the map, the DN first.
+     */
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            NamingEnumeration<? extends Attribute> en = attributes.getAll();
+            return new Iterator<Map.Entry<String, Object>>() {
+
+                private boolean dnReturned;
+
+                @Override
+                public boolean hasNext() {
+                    return !dnReturned || en.hasMoreElements();
+                }
+
+                @Override
+                public Map.Entry<String, Object> next() {
+                    if (!dnReturned) {
+                        dnReturned = true;
+                        return new SimpleImmutableEntry<>("dn", dn);
+                    }
+                    if (!en.hasMoreElements()) {
+                        throw new NoSuchElementException();
+                    }
+                    Attribute attr = en.nextElement();
+                    return new SimpleImmutableEntry<>(attr.getID(), value(attr));
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return AttributesEntry.this.size();
+        }
+    }
+
+    /**
+     * The values of a multi-valued attribute.
+     */
+    private static final class Values extends AbstractList<Object> {
+
+        private final Attribute attr;
+
+        private Values(Attribute attr) {
+            this.attr = attr;
+        }
+
+        @Override
+        public Object get(int index) {
+            try {
+                return attr.get(index);
+            } catch (NamingException e) {
+                throw new UncheckedNamingException(e);
+            }
+        }
+
+        @Override
+        public int size() {
+            return attr.size();
+        }
+    }
+}
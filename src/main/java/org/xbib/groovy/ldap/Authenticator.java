@@ -0,0 +1,319 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.LimitExceededException;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks user credentials by binding to the directory, like {@link LDAP#bind(String, String)}, but without a new
+ * connection for each check.
+ *
+ * The connections are kept in a pool and authenticated again for each check, so a check takes one bind round
+ * trip instead of connect, TLS handshake and bind. Successful checks may be remembered for a short time, as a
+ * salted SHA-256 hash of the password and never the password itself. After too many failed checks of a user
+ * within a time window, further checks of that user are refused without contacting the directory.
+ *
+ * <pre>
+ * def auth = ldap.authenticator(4, 30000)
+ * if (auth.authenticate('uid=jdoe,ou=people,dc=example,dc=com', password)) { ... }
+ * </pre>
+ */
+public class Authenticator implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(Authenticator.class.getName());
+
+    public static final int DEFAULT_MAX_FAILURES = 5;
+
+    public static final long DEFAULT_FAILURE_WINDOW_MILLIS = 60000L;
+
+    private static final int MAX_USERS = 10000;
+
+    private static final int SALT_LENGTH = 16;
+
+    private final LDAP ldap;
+
+    private final ContextPool pool;
+
+    private final LruCache<String, Verified> verified;
+
+    private final SecureRandom random;
+
+    private final LatencyHistogram latency;
+
+    private final AtomicLong successes;
+
+    private final AtomicLong rejections;
+
+    private final AtomicLong cacheHits;
+
+    private final AtomicLong throttled;
+
+    private final AtomicLong errors;
+
+    private volatile int maxFailures = DEFAULT_MAX_FAILURES;
+
+    private volatile LruCache<String, AtomicInteger> failures =
+            new LruCache<>(MAX_USERS, DEFAULT_FAILURE_WINDOW_MILLIS);
+
+    /**
+     * Create an authenticator.
+     *
+     * @param ldap the LDAP instance whose servers are used
+     * @param poolSize the maximum number of connections
+     * @param cacheTtlMillis how long a successful check is remembered in milliseconds, 0 for no cache
+     */
+    public Authenticator(LDAP ldap, int poolSize, long cacheTtlMillis) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+        }
+        if (cacheTtlMillis < 0L) {
+            throw new IllegalArgumentException("cacheTtlMillis must not be negative: " + cacheTtlMillis);
+        }
+        this.ldap = ldap;
+        PoolSettings settings = new PoolSettings();
+        settings.setMaxSize(poolSize);
+        this.pool = new ContextPool(() -> ldap.connect(null, null), settings);
+        this.verified = cacheTtlMillis > 0L ? new LruCache<>(MAX_USERS, cacheTtlMillis) : null;
+        this.random = new SecureRandom();
+        this.latency = new LatencyHistogram();
+        this.successes = new AtomicLong();
+        this.rejections = new AtomicLong();
+        this.cacheHits = new AtomicLong();
+        this.throttled = new AtomicLong();
+        this.errors = new AtomicLong();
+    }
+
+    /**
+     * Set how many failed checks of a user are allowed within the time window, 0 for no limit.
+     *
+     * @param maxFailures the number of failed checks
+     */
+    public void setMaxFailures(int maxFailures) {
+        if (maxFailures < 0) {
+            throw new IllegalArgumentException("maxFailures must not be negative: " + maxFailures);
+        }
+        this.maxFailures = maxFailures;
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    /**
+     * Set the time window for counting failed checks, which starts with the first failed check of a user.
+     * Counted failures are dropped.
+     *
+     * @param failureWindowMillis the time window in milliseconds
+     */
+    public void setFailureWindowMillis(long failureWindowMillis) {
+        if (failureWindowMillis < 1L) {
+            throw new IllegalArgumentException("failureWindowMillis must be positive: " + failureWindowMillis);
+        }
+        this.failures = new LruCache<>(MAX_USERS, failureWindowMillis);
+    }
+
+    /**
+     * Check the password of a user. An empty password is always rejected, because the directory would accept it
+     * as an unauthenticated bind.
+     *
+     * @param dn the DN of the user
+     * @param password the password
+     * @return true if the password is valid, false if it is not
+     * @throws LimitExceededException if the user had too many failed checks within the time window
+     * @throws NamingException if the directory can not be reached
+     */
+    public boolean authenticate(String dn, String password) throws NamingException {
+        long start = System.nanoTime();
+        if (dn == null || dn.isEmpty() || password == null || password.isEmpty()) {
+            rejections.incrementAndGet();
+            return false;
+        }
+        String key = DistinguishedNames.normalize(dn);
+        LruCache<String, AtomicInteger> failureCache = failures;
+        int limit = maxFailures;
+        AtomicInteger failed = failureCache.get(key);
+        if (limit > 0 && failed != null && failed.get() >= limit) {
+            throttled.incrementAndGet();
+            throw new LimitExceededException("too many failed authentications for " + dn);
+        }
+        if (verified != null) {
+            Verified entry = verified.get(key);
+            if (entry != null && entry.matches(password)) {
+                cacheHits.incrementAndGet();
+                successes.incrementAndGet();
+                latency.record(System.nanoTime() - start);
+                return true;
+            }
+        }
+        Instrumentation instr = ldap.instrumentation();
+        AuthenticationException rejection;
+        try {
+            rejection = bind(dn, password);
+        } catch (NamingException e) {
+            errors.incrementAndGet();
+            if (instr != Instrumentation.NOOP) {
+                instr.failed(Operation.BIND, System.nanoTime() - start, e);
+            }
+            throw e;
+        }
+        long nanos = System.nanoTime() - start;
+        latency.record(nanos);
+        if (rejection == null) {
+            successes.incrementAndGet();
+            failureCache.remove(key);
+            if (verified != null) {
+                verified.put(key, new Verified(password, random));
+            }
+            if (instr != Instrumentation.NOOP) {
+                instr.completed(Operation.BIND, nanos, 0L, 0L);
+            }
+        } else {
+            rejections.incrementAndGet();
+            if (verified != null) {
+                verified.remove(key);
+            }
+            failureCache.computeIfAbsent(key, AtomicInteger::new).incrementAndGet();
+            if (instr != Instrumentation.NOOP) {
+                instr.failed(Operation.BIND, nanos, rejection);
+            }
+        }
+        return rejection == null;
+    }
+
+    /**
+     * Forget the successful checks and failed checks of a user, for example after a password change.
+     *
+     * @param dn the DN of the user
+     */
+    public void forget(String dn) {
+        String key = DistinguishedNames.normalize(dn);
+        if (verified != null) {
+            verified.remove(key);
+        }
+        failures.remove(key);
+    }
+
+    /**
+     * Forget all successful checks and failed checks.
+     */
+    public void clear() {
+        if (verified != null) {
+            verified.clear();
+        }
+        failures.clear();
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getSuccessCount() {
+        return successes.get();
+    }
+
+    public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    public int getIdleCount() {
+        return pool.getIdleCount();
+    }
+
+    @Override
+    public String toString() {
+        return "successes=" + getSuccessCount() + " rejections=" + getRejectionCount()
+                + " cacheHits=" + getCacheHitCount() + " throttled=" + getThrottledCount()
+                + " errors=" + getErrorCount() + " latency=[" + latency + "]";
+    }
+
+    /**
+     * Authenticate a pooled connection again with the given credentials. The connection stays authenticated as
+     * the last user until it is used for the next check.
+     *
+     * @return null if the credentials are valid, or the rejection
+     */
+    AuthenticationException bind(String dn, String password) throws NamingException {
+        LdapContext ctx = pool.borrow();
+        boolean reusable = false;
+        try {
+            ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+            ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+            ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+            try {
+                ctx.reconnect(null);
+                reusable = true;
+                return null;
+            } catch (AuthenticationException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+                reusable = true;
+                return e;
+            }
+        } catch (NamingException e) {
+            reusable = !ContextPool.isConnectionFailure(e);
+            throw e;
+        } finally {
+            if (reusable) {
+                pool.release(ctx);
+            } else {
+                pool.invalidate(ctx);
+            }
+        }
+    }
+
+    /**
+     * A successful check, as a salted hash of the password.
+     */
+    private static final class Verified {
+
+        private final byte[] salt;
+
+        private final byte[] hash;
+
+        private Verified(String password, SecureRandom random) {
+            this.salt = new byte[SALT_LENGTH];
+            random.nextBytes(salt);
+            this.hash = hash(salt, password);
+        }
+
+        private boolean matches(String password) {
+            return MessageDigest.isEqual(hash, hash(salt, password));
+        }
+
+        private static byte[] hash(byte[] salt, String password) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(salt);
+                return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingException;
+
+/**
+ * The outcome of a single operation of a batch.
+ */
+public class BatchItemResult {
+
+    private final long index;
+
+    private final BatchOperation operation;
+
+    private final NamingException failure;
+
+    private final long latencyNanos;
+
+    BatchItemResult(long index, BatchOperation operation, NamingException failure, long latencyNanos) {
+        this.index = index;
+        this.operation = operation;
+        this.failure = failure;
+        this.latencyNanos = latencyNanos;
+    }
+
+    /**
+     * The position of the operation in the batch, starting with zero.
+     * @return the index
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    public BatchOperation getOperation() {
+        return operation;
+    }
+
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    /**
+     * The exception the operation failed with.
+     * @return the exception, or null if the operation succeeded
+     */
+    public NamingException getFailure() {
+        return failure;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + index + " " + operation + (failure == null ? " ok" : " failed: " + failure);
+    }
+}
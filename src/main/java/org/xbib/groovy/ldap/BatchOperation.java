@@ -0,0 +1,111 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.directory.ModificationItem;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A write operation of a batch, see {@link LDAP#batch(Iterable, int)}.
+ */
+public class BatchOperation {
+
+    /**
+     * The kinds of batch operations.
+     */
+    public enum Type {
+
+        ADD(Operation.ADD), MODIFY(Operation.MODIFY), DELETE(Operation.DELETE), MODIFY_DN(Operation.MODIFY_DN);
+
+        private final Operation operation;
+
+        Type(Operation operation) {
+            this.operation = operation;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+    }
+
+    private final Type type;
+
+    private final String dn;
+
+    private final WithContext<Object> action;
+
+    private final String[] affectedDns;
+
+    private BatchOperation(Type type, String dn, WithContext<Object> action, String... affectedDns) {
+        this.type = type;
+        this.dn = dn;
+        this.action = action;
+        this.affectedDns = affectedDns.length > 0 ? affectedDns : new String[] { dn };
+    }
+
+    public static BatchOperation add(String dn, Map<String, Object> attributes) {
+        return new BatchOperation(Type.ADD, dn, LDAP.addAction(dn, attributes));
+    }
+
+    public static BatchOperation modify(String dn, ModificationType modType, Map<String, Object> attributes) {
+        return new BatchOperation(Type.MODIFY, dn, LDAP.modifyAction(dn, LDAP.modificationItems(modType, attributes)));
+    }
+
+    public static BatchOperation modify(String dn, List<List> modificationItem) {
+        return new BatchOperation(Type.MODIFY, dn, LDAP.modifyAction(dn, LDAP.modificationItems(modificationItem)));
+    }
+
+    public static BatchOperation modify(String dn, ModificationItem[] modificationItems) {
+        return new BatchOperation(Type.MODIFY, dn, LDAP.modifyAction(dn, modificationItems));
+    }
+
+    /**
+     * Delete an entry. A missing entry is reported by the server with a
+     * {@link javax.naming.NameNotFoundException}.
+     *
+     * @param dn the DN of the entry
+     * @return the operation
+     */
+    public static BatchOperation delete(String dn) {
+        return new BatchOperation(Type.DELETE, dn, LDAP.deleteAction(dn));
+    }
+
+    /**
+     * Rename or move an entry.
+     *
+     * @param dn the DN of the entry
+     * @param newRDN the new RDN
+     * @param deleteOldRDN true if the old RDN value should be removed from the entry
+     * @param newSuperior the DN of the new parent, or null to keep the parent
+     * @return the operation
+     */
+    public static BatchOperation modifyDn(String dn, String newRDN, boolean deleteOldRDN, String newSuperior) {
+        return new BatchOperation(Type.MODIFY_DN, dn, LDAP.modifyDnAction(dn, newRDN, deleteOldRDN, newSuperior),
+                dn, LDAP.renamedDn(dn, newRDN, newSuperior));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getDn() {
+        return dn;
+    }
+
+    WithContext<Object> getAction() {
+        return action;
+    }
+
+    /**
+     * The DNs whose cached data is invalid after the operation, the old and the new DN for a rename.
+     *
+     * @return the DNs
+     */
+    String[] getAffectedDns() {
+        return affectedDns;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + dn;
+    }
+}
@@ -0,0 +1,81 @@
+package org.xbib.groovy.ldap;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a batch: the per-item results, and throughput and latency statistics.
+ */
+public class BatchResult {
+
+    private final List<BatchItemResult> results;
+
+    private final List<BatchItemResult> failures;
+
+    private final long count;
+
+    private final long elapsedNanos;
+
+    private final LatencyHistogram latency;
+
+    BatchResult(List<BatchItemResult> results, List<BatchItemResult> failures, long count, long elapsedNanos,
+                LatencyHistogram latency) {
+        this.results = Collections.unmodifiableList(results);
+        this.failures = Collections.unmodifiableList(failures);
+        this.count = count;
+        this.elapsedNanos = elapsedNanos;
+        this.latency = latency;
+    }
+
+    /**
+     * The results of all operations, in the order of the operations. Empty if the results were passed to a
+     * listener instead.
+     * @return the results
+     */
+    public List<BatchItemResult> getResults() {
+        return results;
+    }
+
+    /**
+     * The results of the failed operations, in the order of the operations.
+     * @return the failed results
+     */
+    public List<BatchItemResult> getFailures() {
+        return failures;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSuccessCount() {
+        return count - failures.size();
+    }
+
+    public long getFailureCount() {
+        return failures.size();
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * The number of operations per second.
+     * @return the throughput
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0L ? 0.0d : count * (double) TimeUnit.SECONDS.toNanos(1L) / elapsedNanos;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d operations, %d failed, %.1f ops/s, latency %s", count, getFailureCount(),
+                getThroughput(), latency);
+    }
+}
@@ -0,0 +1,193 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * Runs the operations of a batch on a fixed number of worker threads. Each worker keeps one context for the
+ * whole batch, so there is no connect or bind per operation, and at most one request per worker is in flight.
+ * With a {@link ConcurrencyLimiter}, workers wait for the limit before they borrow a context, and return it to the
+ * pool after each operation, so workers waiting for the limit or a backoff hold no connection. Operations failing
+ * because of overload are retried after a backoff.
+ *
+ * A runtime exception thrown by the iterator of the operations or by the listener stops all workers after their
+ * current operation, and fails the batch.
+ */
+final class BatchWriter {
+
+    private static final ThreadFactory threadFactory = AsyncLDAP.daemonThreadFactory("groovy-ldap-batch-");
+
+    private final LDAP ldap;
+
+    private final int concurrency;
+
+    private final Consumer<BatchItemResult> listener;
+
+    private final List<BatchItemResult> results;
+
+    private final List<BatchItemResult> failures;
+
+    private final LatencyHistogram latency;
+
+    private Iterator<BatchOperation> operations;
+
+    private long count;
+
+    private volatile RuntimeException abort;
+
+    BatchWriter(LDAP ldap, int concurrency, Consumer<BatchItemResult> listener) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        }
+        this.ldap = ldap;
+        this.concurrency = concurrency;
+        this.listener = listener;
+        this.results = new ArrayList<>();
+        this.failures = new ArrayList<>();
+        this.latency = new LatencyHistogram();
+    }
+
+    BatchResult run(Iterator<BatchOperation> operations) throws NamingException {
+        this.operations = operations;
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            Thread worker = threadFactory.newThread(this::work);
+            workers.add(worker);
+            worker.start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedNamingException("interrupted while waiting for batch");
+        }
+        if (abort != null) {
+            NamingException e = new NamingException("batch aborted after " + count + " operations: " + abort);
+            e.setRootCause(abort);
+            throw e;
+        }
+        long elapsed = System.nanoTime() - start;
+        results.sort(Comparator.comparingLong(BatchItemResult::getIndex));
+        failures.sort(Comparator.comparingLong(BatchItemResult::getIndex));
+        return new BatchResult(results, failures, count, elapsed, latency);
+    }
+
+    private void work() {
+        Lease lease = null;
+        try {
+            BatchItemResult pending;
+            while ((pending = next()) != null) {
+                BatchOperation operation = pending.getOperation();
+                ConcurrencyLimiter limiter = ldap.getConcurrencyLimiter();
+                NamingException failure;
+                long start = System.nanoTime();
+                int retries = 0;
+                while (true) {
+                    failure = null;
+                    boolean permitted = false;
+                    long attemptStart = System.nanoTime();
+                    try {
+                        if (limiter != null) {
+                            limiter.acquire();
+                            permitted = true;
+                        }
+                        if (lease == null) {
+                            try {
+                                lease = ldap.acquire(true, 0L, true);
+                            } catch (NamingException e) {
+                                if (permitted) {
+                                    limiter.cancel();
+                                    permitted = false;
+                                }
+                                throw e;
+                            }
+                        }
+                        attemptStart = System.nanoTime();
+                        operation.getAction().perform(lease.ctx);
+                        lease.server.succeeded(System.nanoTime() - attemptStart);
+                    } catch (NamingException e) {
+                        failure = e;
+                        if (lease != null) {
+                            lease.server.failed(System.nanoTime() - attemptStart, e);
+                            if (ContextPool.isConnectionFailure(e)) {
+                                lease.release(false);
+                                lease = null;
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        failure = new NamingException(e.toString());
+                        failure.setRootCause(e);
+                    }
+                    if (permitted) {
+                        limiter.release(operation.getType().getOperation(), System.nanoTime() - attemptStart, failure);
+                        if (lease != null) {
+                            lease.release(true);
+                            lease = null;
+                        }
+                    }
+                    if (failure == null || !permitted || !limiter.shouldRetry(failure, retries)) {
+                        break;
+                    }
+                    try {
+                        limiter.backoff(retries++);
+                    } catch (InterruptedNamingException e) {
+                        break;
+                    }
+                }
+                long nanos = System.nanoTime() - start;
+                ldap.written(operation.getAffectedDns());
+                latency.record(nanos);
+                Instrumentation instrumentation = ldap.instrumentation();
+                if (failure == null) {
+                    instrumentation.completed(operation.getType().getOperation(), nanos, 0L, 0L);
+                } else {
+                    instrumentation.failed(operation.getType().getOperation(), nanos, failure);
+                }
+                complete(new BatchItemResult(pending.getIndex(), operation, failure, nanos));
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (abort == null) {
+                    abort = e;
+                }
+            }
+        } finally {
+            if (lease != null) {
+                lease.release(true);
+            }
+        }
+    }
+
+    private synchronized BatchItemResult next() {
+        if (abort != null || Thread.currentThread().isInterrupted() || !operations.hasNext()) {
+            return null;
+        }
+        return new BatchItemResult(count++, operations.next(), null, 0L);
+    }
+
+    private void complete(BatchItemResult result) {
+        synchronized (this) {
+            if (!result.isSuccess()) {
+                failures.add(result);
+            }
+            if (listener == null) {
+                results.add(result);
+            }
+        }
+        if (listener != null) {
+            listener.accept(result);
+        }
+    }
+}
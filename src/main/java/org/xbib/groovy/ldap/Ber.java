@@ -0,0 +1,157 @@
+package org.xbib.groovy.ldap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Minimal BER encoding and decoding, for the values of controls which JNDI does not provide.
+ */
+final class Ber {
+
+    static final int SEQUENCE = 0x30;
+
+    static final int INTEGER = 0x02;
+
+    static final int OCTET_STRING = 0x04;
+
+    static final int ENUMERATED = 0x0a;
+
+    private Ber() {
+    }
+
+    /**
+     * Encode a tag, length and contents.
+     *
+     * @param tag the tag
+     * @param contents the encoded contents, concatenated
+     * @return the encoding
+     */
+    static byte[] tlv(int tag, byte[]... contents) {
+        int length = 0;
+        for (byte[] content : contents) {
+            length += content.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.write(length >>> (8 * i));
+            }
+        }
+        for (byte[] content : contents) {
+            out.write(content, 0, content.length);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] integer(int tag, int value) {
+        int bytes = 4;
+        while (bytes > 1 && ((value >> (8 * (bytes - 1) - 1)) == 0 || (value >> (8 * (bytes - 1) - 1)) == -1)) {
+            bytes--;
+        }
+        byte[] content = new byte[bytes];
+        for (int i = 0; i < bytes; i++) {
+            content[i] = (byte) (value >>> (8 * (bytes - 1 - i)));
+        }
+        return tlv(tag, content);
+    }
+
+    /**
+     * Reads BER elements in sequence.
+     */
+    static final class Reader {
+
+        private final byte[] buffer;
+
+        private int pos;
+
+        private final int end;
+
+        Reader(byte[] buffer) {
+            this(buffer, 0, buffer.length);
+        }
+
+        private Reader(byte[] buffer, int pos, int end) {
+            this.buffer = buffer;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        boolean hasMore() {
+            return pos < end;
+        }
+
+        int peekTag() throws IOException {
+            check(1);
+            return buffer[pos] & 0xff;
+        }
+
+        /**
+         * Read a constructed element and return a reader over its contents.
+         *
+         * @param tag the expected tag
+         * @return the reader of the contents
+         * @throws IOException if the element is missing or malformed
+         */
+        Reader readConstructed(int tag) throws IOException {
+            int length = readHeader(tag);
+            Reader reader = new Reader(buffer, pos, pos + length);
+            pos += length;
+            return reader;
+        }
+
+        int readInteger(int tag) throws IOException {
+            int length = readHeader(tag);
+            if (length < 1 || length > 4) {
+                throw new IOException("invalid integer length " + length);
+            }
+            int value = buffer[pos];
+            for (int i = 1; i < length; i++) {
+                value = (value << 8) | (buffer[pos + i] & 0xff);
+            }
+            pos += length;
+            return value;
+        }
+
+        byte[] readOctetString(int tag) throws IOException {
+            int length = readHeader(tag);
+            byte[] value = new byte[length];
+            System.arraycopy(buffer, pos, value, 0, length);
+            pos += length;
+            return value;
+        }
+
+        private int readHeader(int tag) throws IOException {
+            int actual = peekTag();
+            if (actual != tag) {
+                throw new IOException(String.format("expected tag 0x%02x, found 0x%02x", tag, actual));
+            }
+            pos++;
+            check(1);
+            int length = buffer[pos++] & 0xff;
+            if (length >= 0x80) {
+                int bytes = length & 0x7f;
+                if (bytes < 1 || bytes > 3) {
+                    throw new IOException("unsupported length encoding");
+                }
+                check(bytes);
+                length = 0;
+                for (int i = 0; i < bytes; i++) {
+                    length = (length << 8) | (buffer[pos++] & 0xff);
+                }
+            }
+            check(length);
+            return length;
+        }
+
+        private void check(int length) throws IOException {
+            if (pos + length > end) {
+                throw new IOException("truncated BER element");
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.InterruptedNamingException;
+import javax.naming.LimitExceededException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.TimeLimitExceededException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An adaptive limit of the operations in flight, shared by all operations of an {@link LDAP} instance, see
+ * {@link LDAP#setConcurrencyLimiter(ConcurrencyLimiter)}.
+ *
+ * The limit follows additive increase, multiplicative decrease: every successful operation which found the
+ * limit in use raises it by 1/limit, that is, by one per limit operations. It is lowered by
+ * {@link #DECREASE_FACTOR} when the server reports overload by {@link ServiceUnavailableException} or
+ * {@link LimitExceededException}, or when the latency of an operation exceeds {@link #LATENCY_TOLERANCE} times the
+ * long-term average of its kind. Only operations on a single entry are sampled for latency, because the latency
+ * of searches and multi-entry reads depends on their size. The limit is lowered at most once per average
+ * latency, so a burst of failures of the operations in flight counts as one.
+ *
+ * Operations which failed because of overload are retried after a backoff with full jitter, unless a search
+ * already passed on entries.
+ */
+public class ConcurrencyLimiter {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 8;
+
+    public static final int DEFAULT_MIN_LIMIT = 1;
+
+    public static final int DEFAULT_MAX_LIMIT = 200;
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    public static final long DEFAULT_BASE_BACKOFF_MILLIS = 50L;
+
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 2000L;
+
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 30000L;
+
+    /**
+     * The factor by which the limit is lowered.
+     */
+    static final double DECREASE_FACTOR = 0.9d;
+
+    /**
+     * The ratio of latency to the long-term average latency which is taken as a sign of overload.
+     */
+    static final double LATENCY_TOLERANCE = 2.0d;
+
+    /**
+     * The weight of a new latency in the long-term average.
+     */
+    private static final double SMOOTHING = 0.01d;
+
+    /**
+     * The number of latencies before the average is trusted.
+     */
+    private static final int WARMUP = 20;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private double limit;
+
+    private int inFlight;
+
+    private final double[] averageNanos;
+
+    private final long[] samples;
+
+    private long lastDecrease;
+
+    private long successes;
+
+    private long overloads;
+
+    private long slowResponses;
+
+    private long rejections;
+
+    private long retries;
+
+    private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+
+    private volatile long baseBackoffMillis = DEFAULT_BASE_BACKOFF_MILLIS;
+
+    private volatile long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+
+    private volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+
+    public ConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * Create a limiter.
+     *
+     * @param initialLimit the limit to start with
+     * @param minLimit the lowest limit
+     * @param maxLimit the highest limit
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("limits must satisfy 1 <= min <= initial <= max: "
+                    + minLimit + " " + initialLimit + " " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.averageNanos = new double[Operation.values().length];
+        this.samples = new long[Operation.values().length];
+    }
+
+    /**
+     * Set how often an operation which failed because of overload is retried.
+     * @param maxRetries the number of retries, 0 for none
+     */
+    public void setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative: " + maxRetries);
+        }
+        this.maxRetries = maxRetries;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Set the backoff before retries. The n-th retry waits a random time up to base * 2^n, but not more than max.
+     * @param baseBackoffMillis the base in milliseconds
+     * @param maxBackoffMillis the maximum in milliseconds
+     */
+    public void setBackoffMillis(long baseBackoffMillis, long maxBackoffMillis) {
+        if (baseBackoffMillis < 1L || maxBackoffMillis < baseBackoffMillis) {
+            throw new IllegalArgumentException("backoff must satisfy 1 <= base <= max: "
+                    + baseBackoffMillis + " " + maxBackoffMillis);
+        }
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Set how long an operation waits for the limit before it fails with a {@link ResourceExhaustedException}.
+     * @param maxWaitMillis the time in milliseconds
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * The long-term average latency of an operation.
+     * @param operation the operation
+     * @return the latency in nanoseconds, 0 if there was no sample yet
+     */
+    public synchronized long getAverageLatencyNanos(Operation operation) {
+        return (long) averageNanos[operation.ordinal()];
+    }
+
+    public synchronized long getSuccessCount() {
+        return successes;
+    }
+
+    /**
+     * The number of operations which failed because the server reported overload.
+     * @return the number of operations
+     */
+    public synchronized long getOverloadCount() {
+        return overloads;
+    }
+
+    /**
+     * The number of operations whose latency exceeded the tolerance.
+     * @return the number of operations
+     */
+    public synchronized long getSlowResponseCount() {
+        return slowResponses;
+    }
+
+    /**
+     * The number of operations which did not get within the limit in time.
+     * @return the number of operations
+     */
+    public synchronized long getRejectionCount() {
+        return rejections;
+    }
+
+    public synchronized long getRetryCount() {
+        return retries;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("limit=%d inFlight=%d successes=%d overloads=%d slow=%d rejections=%d retries=%d",
+                (int) limit, inFlight, successes, overloads, slowResponses, rejections, retries);
+    }
+
+    /**
+     * Wait until an operation is within the limit.
+     *
+     * @throws ResourceExhaustedException if the limit is not reached in time
+     * @throws InterruptedNamingException if the thread is interrupted
+     */
+    synchronized void acquire() throws NamingException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        while (inFlight >= (int) limit) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) {
+                rejections++;
+                throw new ResourceExhaustedException("concurrency limit of " + (int) limit + " reached");
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedNamingException("interrupted while waiting for the concurrency limit");
+            }
+        }
+        inFlight++;
+    }
+
+    /**
+     * End an operation and adjust the limit.
+     *
+     * @param operation the operation on a single entry whose latency is sampled, or null for no sample
+     * @param nanos the latency of the operation
+     * @param failure the failure, or null if the operation succeeded
+     */
+    synchronized void release(Operation operation, long nanos, NamingException failure) {
+        boolean saturated = inFlight >= limit / 2.0d;
+        inFlight--;
+        if (failure == null) {
+            successes++;
+            boolean slow = false;
+            if (operation != null) {
+                int i = operation.ordinal();
+                slow = ++samples[i] > WARMUP && nanos > averageNanos[i] * LATENCY_TOLERANCE;
+                averageNanos[i] = averageNanos[i] == 0.0d ? nanos
+                        : averageNanos[i] + SMOOTHING * (nanos - averageNanos[i]);
+            }
+            if (slow) {
+                slowResponses++;
+                decrease();
+            } else if (saturated) {
+                limit = Math.min(maxLimit, limit + 1.0d / limit);
+            }
+        } else if (isOverload(failure)) {
+            overloads++;
+            decrease();
+        }
+        notifyAll();
+    }
+
+    /**
+     * End an operation which did not reach the server, without adjusting the limit.
+     */
+    synchronized void cancel() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Check if a failed operation should be retried after a {@link #backoff(int)}.
+     *
+     * @param failure the failure
+     * @param attempt the number of retries so far
+     * @return true if the operation should be retried
+     */
+    boolean shouldRetry(NamingException failure, int attempt) {
+        return isOverload(failure) && attempt < maxRetries;
+    }
+
+    /**
+     * Wait before a retry.
+     *
+     * @param attempt the number of retries so far
+     * @throws InterruptedNamingException if the thread is interrupted while waiting
+     */
+    void backoff(int attempt) throws InterruptedNamingException {
+        synchronized (this) {
+            retries++;
+        }
+        try {
+            Thread.sleep(backoffMillis(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedNamingException("interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * Get a random backoff with full jitter.
+     *
+     * @param attempt the number of retries so far
+     * @return the backoff in milliseconds
+     */
+    long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1L);
+    }
+
+    /**
+     * Check if a failure means that the server is overloaded. Size and time limits of a search, and exhausted
+     * resources of the client, are not overload.
+     *
+     * @param e the failure
+     * @return true for overload
+     */
+    static boolean isOverload(NamingException e) {
+        return e instanceof ServiceUnavailableException
+                || (e instanceof LimitExceededException && !(e instanceof SizeLimitExceededException)
+                && !(e instanceof TimeLimitExceededException) && !(e instanceof ResourceExhaustedException));
+    }
+
+    private void decrease() {
+        double spacing = 0.0d;
+        for (double average : averageNanos) {
+            spacing = Math.max(spacing, average);
+        }
+        long now = System.nanoTime();
+        if (lastDecrease == 0L || now - lastDecrease >= (long) spacing) {
+            limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+            lastDecrease = now;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.CommunicationException;
+import javax.naming.ConfigurationException;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of LDAP contexts sharing one environment, that is, one URL and one bind identity.
+ *
+ * Borrowed contexts are used by one thread at a time. Idle contexts are reused in LIFO order, so that rarely
+ * used surplus contexts age out and get evicted.
+ */
+final class ContextPool {
+
+    private static final Logger logger = Logger.getLogger(ContextPool.class.getName());
+
+    private static final String[] NO_ATTRIBUTES = { "1.1" };
+
+    private final Factory factory;
+
+    private final PoolSettings settings;
+
+    private final Semaphore permits;
+
+    private final Deque<IdleContext> idle;
+
+    private volatile boolean closed;
+
+    ContextPool(Factory factory, PoolSettings settings) {
+        this.factory = factory;
+        this.settings = settings;
+        this.permits = new Semaphore(settings.getMaxSize(), true);
+        this.idle = new ArrayDeque<>();
+    }
+
+    /**
+     * Borrow a context. The context must be given back by {@link #release(LdapContext)} or
+     * {@link #invalidate(LdapContext)}.
+     *
+     * @return a bound context
+     * @throws NamingException if a new context can not be created
+     * @throws ResourceExhaustedException if the pool is exhausted
+     * @throws ConfigurationException if the pool is closed
+     */
+    LdapContext borrow() throws NamingException {
+        if (closed) {
+            throw new ConfigurationException("context pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(settings.getMaxWaitMillis(), TimeUnit.MILLISECONDS)) {
+                throw new ResourceExhaustedException("context pool exhausted, max size is " + settings.getMaxSize());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedNamingException("interrupted while waiting for a context");
+        }
+        try {
+            IdleContext candidate;
+            while ((candidate = pollIdle()) != null) {
+                if (isUsable(candidate)) {
+                    return candidate.ctx;
+                }
+                closeQuietly(candidate.ctx);
+            }
+            return factory.create();
+        } catch (NamingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give a healthy context back to the pool.
+     *
+     * @param ctx the context
+     */
+    void release(LdapContext ctx) {
+        try {
+            ctx.setRequestControls(null);
+        } catch (NamingException e) {
+            logger.log(Level.FINEST, e.getMessage(), e);
+            invalidate(ctx);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean keep;
+        synchronized (idle) {
+            keep = !closed;
+            if (keep) {
+                idle.addFirst(new IdleContext(ctx, now));
+                evictIdle(now);
+            }
+        }
+        if (!keep) {
+            closeQuietly(ctx);
+        }
+        permits.release();
+    }
+
+    /**
+     * Close a broken context instead of giving it back to the pool.
+     *
+     * @param ctx the context
+     */
+    void invalidate(LdapContext ctx) {
+        closeQuietly(ctx);
+        permits.release();
+    }
+
+    /**
+     * Close all idle contexts. Contexts which are in use are closed when they are given back.
+     */
+    void close() {
+        closed = true;
+        clear();
+    }
+
+    /**
+     * Close all idle contexts but keep the pool open, for example after the server failed.
+     */
+    void clear() {
+        synchronized (idle) {
+            IdleContext candidate;
+            while ((candidate = idle.pollFirst()) != null) {
+                closeQuietly(candidate.ctx);
+            }
+        }
+    }
+
+    int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    int getActiveCount() {
+        return settings.getMaxSize() - permits.availablePermits();
+    }
+
+    /**
+     * Check if a failure means that the connection of a context can not be used any more. A busy server still
+     * has a usable connection, which is kept for the retry.
+     *
+     * @param e the failure
+     * @return true if the context must not be reused
+     */
+    static boolean isConnectionFailure(NamingException e) {
+        return e instanceof CommunicationException || e instanceof InterruptedNamingException;
+    }
+
+    private IdleContext pollIdle() {
+        synchronized (idle) {
+            evictIdle(System.currentTimeMillis());
+            return idle.pollFirst();
+        }
+    }
+
+    private void evictIdle(long now) {
+        while (idle.size() > settings.getMinSize()) {
+            IdleContext eldest = idle.peekLast();
+            if (eldest == null || now - eldest.since < settings.getMaxIdleMillis()) {
+                break;
+            }
+            idle.pollLast();
+            closeQuietly(eldest.ctx);
+        }
+    }
+
+    private boolean isUsable(IdleContext candidate) {
+        if (!settings.isValidateOnBorrow()
+                || System.currentTimeMillis() - candidate.since < settings.getValidationIntervalMillis()) {
+            return true;
+        }
+        try {
+            candidate.ctx.getAttributes("", NO_ATTRIBUTES);
+            return true;
+        } catch (NamingException e) {
+            logger.log(Level.FINEST, e.getMessage(), e);
+            return !isConnectionFailure(e);
+        }
+    }
+
+    private static void closeQuietly(LdapContext ctx) {
+        try {
+            ctx.close();
+        } catch (NamingException e) {
+            logger.log(Level.FINEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates the contexts of a pool.
+     */
+    @FunctionalInterface
+    interface Factory {
+        LdapContext create() throws NamingException;
+    }
+
+    private static final class IdleContext {
+
+        private final LdapContext ctx;
+
+        private final long since;
+
+        private IdleContext(LdapContext ctx, long since) {
+            this.ctx = ctx;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Copies entries into maps, see {@link EntryMapper#DEFAULT} and {@link EntryMapper#CASE_INSENSITIVE}.
+ */
+final class DefaultEntryMapper {
+
+    private DefaultEntryMapper() {
+    }
+
+    static Map<String, Object> copy(String dn, Attributes attributes, boolean ignoreCase) throws NamingException {
+        Map<String, Object> map = ignoreCase ? new TreeMap<>(String.CASE_INSENSITIVE_ORDER)
+                : new LinkedHashMap<>(capacity(attributes.size() + 1));
+        map.put("dn", dn);
+        NamingEnumeration<? extends Attribute> en = attributes.getAll();
+        while (en.hasMore()) {
+            Attribute attr = en.next();
+            map.put(attr.getID(), value(attr));
+        }
+        return map;
+    }
+
+    static Object value(Attribute attr) throws NamingException {
+        int size = attr.size();
+        if (size == 1) {
+            return attr.get();
+        }
+        List<Object> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(attr.get(i));
+        }
+        return values;
+    }
+
+    private static int capacity(int size) {
+        return size < 3 ? 4 : (int) (size / 0.75f) + 1;
+    }
+}
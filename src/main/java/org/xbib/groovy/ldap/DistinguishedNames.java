@@ -0,0 +1,160 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Locale;
+
+/**
+ * Helpers for comparing distinguished names.
+ */
+final class DistinguishedNames {
+
+    private DistinguishedNames() {
+    }
+
+    /**
+     * Normalize a DN for use as a key: parsed, without insignificant white space, and in lower case.
+     *
+     * @param dn the DN
+     * @return the normalized DN, or the lower case DN if it can not be parsed
+     */
+    static String normalize(String dn) {
+        if (dn == null || dn.isEmpty()) {
+            return "";
+        }
+        try {
+            LdapName name = new LdapName(dn);
+            StringBuilder sb = new StringBuilder(dn.length());
+            for (int i = name.size() - 1; i >= 0; i--) {
+                sb.append(name.getRdn(i).toString());
+                if (i > 0) {
+                    sb.append(',');
+                }
+            }
+            return sb.toString().toLowerCase(Locale.ROOT);
+        } catch (InvalidNameException e) {
+            return dn.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Get a key for sorting DNs in hierarchical order, with every entry before its subordinates and each
+     * subtree contiguous: the normalized RDNs from the root down, separated by a character which sorts
+     * before all others.
+     *
+     * @param dn the DN
+     * @return the sort key
+     */
+    static String sortKey(String dn) {
+        if (dn == null || dn.isEmpty()) {
+            return "";
+        }
+        try {
+            LdapName name = new LdapName(dn);
+            StringBuilder sb = new StringBuilder(dn.length());
+            for (int i = 0; i < name.size(); i++) {
+                if (i > 0) {
+                    sb.append('\u0000');
+                }
+                sb.append(name.getRdn(i).toString());
+            }
+            return sb.toString().toLowerCase(Locale.ROOT);
+        } catch (InvalidNameException e) {
+            return dn.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Check if a normalized DN is the same as, or below, another normalized DN.
+     *
+     * @param ancestor the normalized DN of the possible ancestor
+     * @param dn the normalized DN
+     * @return true if dn is in the subtree of ancestor
+     */
+    static boolean isInSubtree(String ancestor, String dn) {
+        return ancestor.isEmpty() || dn.equals(ancestor)
+                || (dn.length() > ancestor.length() && dn.endsWith(ancestor)
+                && dn.charAt(dn.length() - ancestor.length() - 1) == ',');
+    }
+
+    /**
+     * Get the base DN of an LDAP URL, for example dc=example,dc=com of ldap://host:389/dc=example,dc=com.
+     *
+     * @param url the URL
+     * @return the base DN, empty if the URL has none or can not be parsed
+     */
+    static LdapName baseName(String url) {
+        try {
+            String path = url != null ? new URI(url.trim()).getPath() : null;
+            if (path != null && path.startsWith("/")) {
+                return new LdapName(path.substring(1));
+            }
+        } catch (URISyntaxException | InvalidNameException e) {
+            // no base DN
+        }
+        return new LdapName(Collections.emptyList());
+    }
+
+    /**
+     * Remove the base DN from an LDAP URL, for contexts whose names are absolute, like the empty name of the root
+     * DSE.
+     *
+     * @param url the URL
+     * @return the URL without the base DN, or the URL unchanged if it can not be parsed
+     */
+    static String withoutBase(String url) {
+        try {
+            URI uri = new URI(url.trim());
+            return uri.getScheme() + "://" + (uri.getRawAuthority() != null ? uri.getRawAuthority() : "") + "/";
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+
+    /**
+     * Make a DN relative to a base DN, as names are given to the contexts of a URL with that base DN.
+     *
+     * @param base the base DN
+     * @param dn the full DN
+     * @return the DN without the base DN, or the DN unchanged if it is not below the base DN
+     */
+    static String relativize(LdapName base, String dn) {
+        if (base.isEmpty() || dn == null) {
+            return dn;
+        }
+        try {
+            LdapName name = new LdapName(dn);
+            return name.size() >= base.size() && normalize(name.getPrefix(base.size()).toString())
+                    .equals(normalize(base.toString())) ? name.getSuffix(base.size()).toString() : dn;
+        } catch (InvalidNameException e) {
+            return dn;
+        }
+    }
+
+    /**
+     * Make a DN relative to a base DN absolute, by appending the base DN. A DN which already ends with the base
+     * DN is taken as absolute.
+     *
+     * @param base the base DN
+     * @param dn the DN relative to the base DN
+     * @return the full DN
+     */
+    static String absolutize(LdapName base, String dn) {
+        if (base.isEmpty() || dn == null) {
+            return dn;
+        }
+        try {
+            LdapName name = new LdapName(dn);
+            if (name.size() >= base.size() && normalize(name.getPrefix(base.size()).toString())
+                    .equals(normalize(base.toString()))) {
+                return dn;
+            }
+            return ((LdapName) name.addAll(0, base)).toString();
+        } catch (InvalidNameException e) {
+            return dn;
+        }
+    }
+}
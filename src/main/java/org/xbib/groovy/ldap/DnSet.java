@@ -0,0 +1,91 @@
+package org.xbib.groovy.ldap;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set of DNs. DNs are compared in normalized form, so {@link #contains(Object)} ignores case and
+ * insignificant white space. The DNs are kept in two sorted arrays, the normalized ones for lookups and the
+ * original ones for iteration, which is much more compact than a hash set.
+ */
+public final class DnSet extends AbstractSet<String> {
+
+    static final DnSet EMPTY = new DnSet(new String[0], new String[0]);
+
+    private final String[] keys;
+
+    private final String[] dns;
+
+    private DnSet(String[] keys, String[] dns) {
+        this.keys = keys;
+        this.dns = dns;
+    }
+
+    /**
+     * Create a set of DNs. Duplicates are dropped.
+     *
+     * @param dns the DNs
+     * @return the set
+     */
+    public static DnSet of(Collection<String> dns) {
+        if (dns.isEmpty()) {
+            return EMPTY;
+        }
+        String[][] pairs = new String[dns.size()][];
+        int i = 0;
+        for (String dn : dns) {
+            pairs[i++] = new String[] { DistinguishedNames.normalize(dn), dn };
+        }
+        Arrays.sort(pairs, (a, b) -> a[0].compareTo(b[0]));
+        String[] keys = new String[pairs.length];
+        String[] values = new String[pairs.length];
+        int n = 0;
+        for (String[] pair : pairs) {
+            if (n == 0 || !keys[n - 1].equals(pair[0])) {
+                keys[n] = pair[0];
+                values[n] = pair[1];
+                n++;
+            }
+        }
+        return new DnSet(n < keys.length ? Arrays.copyOf(keys, n) : keys,
+                n < values.length ? Arrays.copyOf(values, n) : values);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof String && containsNormalized(DistinguishedNames.normalize((String) o));
+    }
+
+    boolean containsNormalized(String key) {
+        return Arrays.binarySearch(keys, key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return dns.length;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            private int i;
+
+            @Override
+            public boolean hasNext() {
+                return i < dns.length;
+            }
+
+            @Override
+            public String next() {
+                if (i >= dns.length) {
+                    throw new NoSuchElementException();
+                }
+                return dns[i++];
+            }
+        };
+    }
+}
@@ -0,0 +1,156 @@
+package org.xbib.groovy.ldap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-through cache for {@link LDAP#read(String)}, {@link LDAP#exists(String)} and
+ * {@link LDAP#search(Search)}, with a time to live and least-recently-used eviction.
+ *
+ * Entries are keyed by DN, search results by base, scope, filter, filter arguments, attributes and count limit.
+ * Writes performed by the owning {@link LDAP} instance invalidate the cached entries of the written DN and its
+ * subtree, and every cached search whose base is above or below the written DN. Changes made by other clients
+ * become visible when the time to live has passed. Cached entries and search results are read-only.
+ */
+public class EntryCache {
+
+    private final LruCache<Key, Object> cache;
+
+    private final AtomicLong invalidations;
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize the maximum number of cached entries and search results
+     * @param ttlMillis the time to live in milliseconds
+     */
+    public EntryCache(int maxSize, long ttlMillis) {
+        this.cache = new LruCache<>(maxSize, ttlMillis);
+        this.invalidations = new AtomicLong();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * The number of values removed because the cache was full or their time to live had passed.
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    /**
+     * The number of values removed because of writes of the owning {@link LDAP} instance.
+     * @return the invalidation count
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + " hits=" + getHitCount() + " misses=" + getMissCount()
+                + " evictions=" + getEvictionCount() + " invalidations=" + getInvalidationCount();
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> getEntry(String dn) {
+        return (Map<String, Object>) cache.get(new Key(Kind.READ, dn, null));
+    }
+
+    void putEntry(String dn, Map<String, Object> entry) {
+        cache.put(new Key(Kind.READ, dn, null), entry);
+    }
+
+    Boolean getExists(String dn) {
+        return (Boolean) cache.get(new Key(Kind.EXISTS, dn, null));
+    }
+
+    void putExists(String dn, Boolean exists) {
+        cache.put(new Key(Kind.EXISTS, dn, null), exists);
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> getSearch(Search search) {
+        return (List<Map<String, Object>>) cache.get(searchKey(search));
+    }
+
+    void putSearch(Search search, List<Map<String, Object>> result) {
+        cache.put(searchKey(search), result);
+    }
+
+    /**
+     * Invalidate everything a write to the given DN may have changed.
+     *
+     * @param dn the written DN
+     */
+    void invalidate(String dn) {
+        String normalized = DistinguishedNames.normalize(dn);
+        invalidations.addAndGet(cache.removeIf(key -> key.kind == Kind.SEARCH
+                ? DistinguishedNames.isInSubtree(key.dn, normalized) || DistinguishedNames.isInSubtree(normalized, key.dn)
+                : DistinguishedNames.isInSubtree(normalized, key.dn)));
+    }
+
+    private static Key searchKey(Search search) {
+        return new Key(Kind.SEARCH, search.getBase(), new Object[] {
+                search.getScope(), search.getFilter(), search.getFilterArgs(), search.getAttrs(), search.getCountLimit(),
+                search.getMapper(), search.getBinaryAttrs(), search.getSortKeys(), search.getWindow()
+        });
+    }
+
+    private enum Kind {
+        READ, EXISTS, SEARCH
+    }
+
+    private static final class Key {
+
+        private final Kind kind;
+
+        private final String dn;
+
+        private final Object[] params;
+
+        private final int hash;
+
+        private Key(Kind kind, String dn, Object[] params) {
+            this.kind = kind;
+            this.dn = DistinguishedNames.normalize(dn);
+            this.params = params;
+            this.hash = Objects.hash(kind, this.dn) * 31 + Arrays.deepHashCode(params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return kind == other.kind && dn.equals(other.dn) && Arrays.deepEquals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingException;
+import java.util.Map;
+
+/**
+ * A change of an entry, or of the connection, reported to an {@link EntryListener}.
+ */
+public class EntryEvent {
+
+    /**
+     * The kinds of events.
+     */
+    public enum Type {
+        /** An entry was added. */
+        ADDED,
+        /** The attributes of an entry were modified. */
+        MODIFIED,
+        /** An entry was renamed or moved, the old DN is given by {@link EntryEvent#getOldDn()}. */
+        RENAMED,
+        /** An entry was removed. */
+        REMOVED,
+        /** The connection was lost, events are missed until it is reconnected. */
+        DISCONNECTED,
+        /** The connection was reestablished. Changes made while disconnected were not reported. */
+        RECONNECTED
+    }
+
+    private final Type type;
+
+    private final String dn;
+
+    private final String oldDn;
+
+    private final Map<String, Object> entry;
+
+    private final NamingException failure;
+
+    EntryEvent(Type type, String dn, String oldDn, Map<String, Object> entry, NamingException failure) {
+        this.type = type;
+        this.dn = dn;
+        this.oldDn = oldDn;
+        this.entry = entry;
+        this.failure = failure;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * The DN of the changed entry, after the change.
+     * @return the DN, or null for connection events
+     */
+    public String getDn() {
+        return dn;
+    }
+
+    /**
+     * The DN of the changed entry, before the change.
+     * @return the DN, or null for added entries and connection events
+     */
+    public String getOldDn() {
+        return oldDn;
+    }
+
+    /**
+     * The attributes of the entry after the change, as far as the server reported them.
+     * @return the entry, or null for removed entries and connection events
+     */
+    public Map<String, Object> getEntry() {
+        return entry;
+    }
+
+    /**
+     * The exception which caused a {@link Type#DISCONNECTED} event.
+     * @return the exception, or null
+     */
+    public NamingException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return type + (dn != null ? " " + dn : "") + (oldDn != null ? " (was " + oldDn + ")" : "");
+    }
+}
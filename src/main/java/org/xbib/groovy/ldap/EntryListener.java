@@ -0,0 +1,11 @@
+package org.xbib.groovy.ldap;
+
+/**
+ * Receives the changes of the entries matched by a watched search, see {@link LDAP#watch(Search, EntryListener)}.
+ * A Groovy closure taking an {@link EntryEvent} can be used as a listener.
+ */
+@FunctionalInterface
+public interface EntryListener {
+
+    void entryChanged(EntryEvent event);
+}
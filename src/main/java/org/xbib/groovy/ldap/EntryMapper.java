@@ -0,0 +1,51 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import java.util.Map;
+
+/**
+ * Maps the DN and attributes of an entry to the map returned by searches. The DN is always given under the
+ * key "dn". A single-valued attribute is mapped to its value, a multi-valued attribute to a list of its values.
+ * Values of binary attributes are byte arrays, all other values are strings.
+ */
+@FunctionalInterface
+public interface EntryMapper {
+
+    /**
+     * Copies the entry into a {@link java.util.LinkedHashMap}, keeping the attribute order of the server.
+     */
+    EntryMapper DEFAULT = (dn, attributes) -> DefaultEntryMapper.copy(dn, attributes, false);
+
+    /**
+     * Copies the entry into a map which looks up attribute names ignoring case, as LDAP does.
+     */
+    EntryMapper CASE_INSENSITIVE = (dn, attributes) -> DefaultEntryMapper.copy(dn, attributes, true);
+
+    /**
+     * Wraps the JNDI attributes in a read-only map view without copying. Values are read from the attributes
+     * on access, and attribute names are looked up ignoring case. This allocates the least per entry.
+     */
+    EntryMapper FLYWEIGHT = AttributesEntry::new;
+
+    Map<String, Object> map(String dn, Attributes attributes) throws NamingException;
+
+    /**
+     * Look up a mapper by name.
+     *
+     * @param name DEFAULT, CASE_INSENSITIVE or FLYWEIGHT
+     * @return the mapper
+     */
+    static EntryMapper valueOf(String name) {
+        switch (name) {
+            case "DEFAULT":
+                return DEFAULT;
+            case "CASE_INSENSITIVE":
+                return CASE_INSENSITIVE;
+            case "FLYWEIGHT":
+                return FLYWEIGHT;
+            default:
+                throw new IllegalArgumentException("unknown entry mapper: " + name);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package org.xbib.groovy.ldap;
+
+import groovy.lang.Closure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compiled search filter. Filters are built from the static factory methods, or from a Groovy closure by
+ * {@link #build(Closure)}, and are immutable. Constant values are escaped when the filter is built; values
+ * given by {@link #arg(int)} are slots which are filled and escaped by {@link #render(Object...)}, so a filter
+ * of a frequently used shape can be built once and rendered with different values.
+ *
+ * Values are escaped as by {@link #escape(String)}, byte arrays are escaped byte by byte.
+ */
+public final class Filter {
+
+    private static final String[] ESCAPES = escapes();
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    /**
+     * Literal strings and argument slots, adjacent literals are merged.
+     */
+    private final Object[] parts;
+
+    private final int literalLength;
+
+    private final int argCount;
+
+    private Filter(List<Object> parts) {
+        List<Object> merged = new ArrayList<>(parts.size());
+        StringBuilder literal = new StringBuilder();
+        int length = 0;
+        int count = 0;
+        for (Object part : parts) {
+            if (part instanceof String) {
+                literal.append((String) part);
+            } else {
+                if (literal.length() > 0) {
+                    merged.add(literal.toString());
+                    literal.setLength(0);
+                }
+                merged.add(part);
+                count = Math.max(count, ((Arg) part).index + 1);
+            }
+        }
+        if (literal.length() > 0) {
+            merged.add(literal.toString());
+        }
+        for (Object part : merged) {
+            if (part instanceof String) {
+                length += ((String) part).length();
+            }
+        }
+        this.parts = merged.toArray();
+        this.literalLength = length;
+        this.argCount = count;
+    }
+
+    /**
+     * An argument slot, to be filled when the filter is rendered.
+     *
+     * @param index the index of the argument
+     * @return the slot
+     */
+    public static Arg arg(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("argument index must not be negative: " + index);
+        }
+        return new Arg(index);
+    }
+
+    public static Filter and(Filter... filters) {
+        return composite('&', Arrays.asList(filters));
+    }
+
+    public static Filter and(List<Filter> filters) {
+        return composite('&', filters);
+    }
+
+    public static Filter or(Filter... filters) {
+        return composite('|', Arrays.asList(filters));
+    }
+
+    public static Filter or(List<Filter> filters) {
+        return composite('|', filters);
+    }
+
+    public static Filter not(Filter filter) {
+        return composite('!', List.of(filter));
+    }
+
+    public static Filter eq(String attr, Object value) {
+        return item(attr, "=", value);
+    }
+
+    public static Filter ge(String attr, Object value) {
+        return item(attr, ">=", value);
+    }
+
+    public static Filter le(String attr, Object value) {
+        return item(attr, "<=", value);
+    }
+
+    public static Filter approx(String attr, Object value) {
+        return item(attr, "~=", value);
+    }
+
+    public static Filter present(String attr) {
+        List<Object> parts = new ArrayList<>(1);
+        parts.add("(" + checkAttr(attr) + "=*)");
+        return new Filter(parts);
+    }
+
+    /**
+     * A substring filter, like (cn=initial*any*final).
+     *
+     * @param attr the attribute
+     * @param initial the initial value, or null
+     * @param fin the final value, or null
+     * @param any the values in between
+     * @return the filter
+     */
+    public static Filter substring(String attr, Object initial, Object fin, Object... any) {
+        List<Object> parts = new ArrayList<>();
+        parts.add("(" + checkAttr(attr) + "=");
+        if (initial != null) {
+            addValue(parts, initial);
+        }
+        parts.add("*");
+        for (Object value : any) {
+            addValue(parts, value);
+            parts.add("*");
+        }
+        if (fin != null) {
+            addValue(parts, fin);
+        }
+        parts.add(")");
+        return new Filter(parts);
+    }
+
+    /**
+     * Build a filter from a closure which calls the methods of {@link FilterBuilder}, like
+     * <pre>
+     * Filter.build {
+     *     and {
+     *         eq 'objectClass', 'person'
+     *         eq 'uid', arg(0)
+     *     }
+     * }
+     * </pre>
+     * Several filters at the top level are combined with and.
+     *
+     * @param closure the closure
+     * @return the filter
+     */
+    public static Filter build(Closure<?> closure) {
+        List<Filter> filters = new FilterBuilder().collect(closure);
+        return filters.size() == 1 ? filters.get(0) : and(filters);
+    }
+
+    /**
+     * Get the number of arguments, one more than the highest argument index.
+     *
+     * @return the number of arguments
+     */
+    public int getArgCount() {
+        return argCount;
+    }
+
+    /**
+     * Render the filter with the given arguments.
+     *
+     * @param args the arguments, at least {@link #getArgCount()}
+     * @return the filter string
+     */
+    public String render(Object... args) {
+        Object[] values = args != null ? args : NO_ARGS;
+        if (values.length < argCount) {
+            throw new IllegalArgumentException("filter needs " + argCount + " arguments, got " + values.length);
+        }
+        if (parts.length == 1 && argCount == 0) {
+            return (String) parts[0];
+        }
+        StringBuilder sb = new StringBuilder(literalLength + 16 * argCount);
+        for (Object part : parts) {
+            if (part instanceof String) {
+                sb.append((String) part);
+            } else {
+                appendValue(sb, values[((Arg) part).index]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Render the filter, with {n} for the argument slots.
+     *
+     * @return the filter string
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(literalLength + 4 * argCount);
+        for (Object part : parts) {
+            if (part instanceof String) {
+                sb.append((String) part);
+            } else {
+                sb.append('{').append(((Arg) part).index).append('}');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Escape a value for a filter. The value is returned unchanged if nothing needs escaping. Braces are escaped,
+     * too, so a value can not be taken for a {n} argument of a JNDI filter expression.
+     *
+     * @param value the value
+     * @return the escaped value
+     */
+    public static String escape(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < ESCAPES.length && ESCAPES[c] != null) {
+                StringBuilder sb = new StringBuilder(length + 16);
+                sb.append(value, 0, i);
+                escape(sb, value, i);
+                return sb.toString();
+            }
+        }
+        return value;
+    }
+
+    private static void escape(StringBuilder sb, String value, int from) {
+        int length = value.length();
+        int start = from;
+        for (int i = from; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < ESCAPES.length && ESCAPES[c] != null) {
+                sb.append(value, start, i).append(ESCAPES[c]);
+                start = i + 1;
+            }
+        }
+        sb.append(value, start, length);
+    }
+
+    private static void appendValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("filter value must not be null");
+        }
+        if (value instanceof byte[]) {
+            for (byte b : (byte[]) value) {
+                sb.append('\\').append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+        } else {
+            escape(sb, value.toString(), 0);
+        }
+    }
+
+    private static void addValue(List<Object> parts, Object value) {
+        if (value instanceof Arg) {
+            parts.add(value);
+        } else {
+            StringBuilder sb = new StringBuilder();
+            appendValue(sb, value);
+            parts.add(sb.toString());
+        }
+    }
+
+    private static Filter item(String attr, String operator, Object value) {
+        List<Object> parts = new ArrayList<>(3);
+        parts.add("(" + checkAttr(attr) + operator);
+        addValue(parts, value);
+        parts.add(")");
+        return new Filter(parts);
+    }
+
+    private static Filter composite(char operator, List<Filter> filters) {
+        if (filters.isEmpty()) {
+            throw new IllegalArgumentException("no filters to combine");
+        }
+        List<Object> parts = new ArrayList<>();
+        parts.add("(" + operator);
+        for (Filter filter : filters) {
+            parts.addAll(Arrays.asList(filter.parts));
+        }
+        parts.add(")");
+        return new Filter(parts);
+    }
+
+    /**
+     * Check that an attribute description contains only the characters allowed by RFC 4512, including
+     * options and extensible match rules, so it can not change the structure of the filter.
+     */
+    private static String checkAttr(String attr) {
+        if (attr == null || attr.isEmpty()) {
+            throw new IllegalArgumentException("attribute must not be empty");
+        }
+        for (int i = 0; i < attr.length(); i++) {
+            char c = attr.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == ';' || c == '.' || c == ':')) {
+                throw new IllegalArgumentException("invalid attribute: " + attr);
+            }
+        }
+        return attr;
+    }
+
+    private static String[] escapes() {
+        String[] escapes = new String[128];
+        for (char c : new char[] { '\\', '!', '&', '*', ':', '(', ')', '|', '~', '{', '}', '\u0000' }) {
+            escapes[c] = String.format("\\%02x", (int) c);
+        }
+        return escapes;
+    }
+
+    /**
+     * An argument slot of a filter, created by {@link Filter#arg(int)}.
+     */
+    public static final class Arg {
+
+        private final int index;
+
+        private Arg(int index) {
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.xbib.groovy.ldap;
+
+import groovy.lang.Closure;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The delegate of the closures given to {@link Filter#build(Closure)}. Each method adds a filter to the
+ * enclosing and, or or not.
+ */
+public class FilterBuilder {
+
+    private List<Filter> filters;
+
+    FilterBuilder() {
+        this.filters = new ArrayList<>();
+    }
+
+    List<Filter> collect(Closure<?> closure) {
+        List<Filter> outer = filters;
+        List<Filter> inner = new ArrayList<>();
+        filters = inner;
+        try {
+            Closure<?> c = (Closure<?>) closure.clone();
+            c.setDelegate(this);
+            c.setResolveStrategy(Closure.DELEGATE_FIRST);
+            c.call();
+        } finally {
+            filters = outer;
+        }
+        return inner;
+    }
+
+    public Filter.Arg arg(int index) {
+        return Filter.arg(index);
+    }
+
+    public Filter and(Closure<?> closure) {
+        return add(Filter.and(collect(closure)));
+    }
+
+    public Filter or(Closure<?> closure) {
+        return add(Filter.or(collect(closure)));
+    }
+
+    public Filter not(Closure<?> closure) {
+        List<Filter> inner = collect(closure);
+        if (inner.size() != 1) {
+            throw new IllegalArgumentException("not takes exactly one filter, got " + inner.size());
+        }
+        return add(Filter.not(inner.get(0)));
+    }
+
+    public Filter eq(String attr, Object value) {
+        return add(Filter.eq(attr, value));
+    }
+
+    public Filter ge(String attr, Object value) {
+        return add(Filter.ge(attr, value));
+    }
+
+    public Filter le(String attr, Object value) {
+        return add(Filter.le(attr, value));
+    }
+
+    public Filter approx(String attr, Object value) {
+        return add(Filter.approx(attr, value));
+    }
+
+    public Filter present(String attr) {
+        return add(Filter.present(attr));
+    }
+
+    /**
+     * Add a substring filter, like {@code substring 'cn', initial: 'Jo', any: ['h'], final: 'n'}.
+     *
+     * @param parts the values, under the keys initial, any and final
+     * @param attr the attribute
+     * @return the filter
+     */
+    public Filter substring(Map<String, Object> parts, String attr) {
+        Object any = parts.get("any");
+        Object[] anyValues = any == null ? new Object[0]
+                : any instanceof Collection ? ((Collection<?>) any).toArray() : new Object[] { any };
+        return add(Filter.substring(attr, parts.get("initial"), parts.get("final"), anyValues));
+    }
+
+    /**
+     * Add a filter built elsewhere.
+     *
+     * @param filter the filter
+     * @return the filter
+     */
+    public Filter filter(Filter filter) {
+        return add(filter);
+    }
+
+    private Filter add(Filter filter) {
+        filters.add(filter);
+        return filter;
+    }
+}
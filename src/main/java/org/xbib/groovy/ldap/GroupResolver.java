@@ -0,0 +1,395 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Resolves nested group memberships.
+ *
+ * If the server supports the transitive matching rule 1.2.840.113556.1.4.1941 (LDAP_MATCHING_RULE_IN_CHAIN of
+ * Active Directory), a resolution takes one search. Otherwise the groups are traversed breadth first, one level
+ * at a time: the entries of a level are read by one {@link LDAP#readAll(Collection, String...)}. Cycles are
+ * detected. The direct members and groups of each entry, and the resolved sets, are cached with a time to live
+ * and least-recently-used eviction, and shared by all resolutions.
+ *
+ * DNs are given relative to the base DN of the URL, like to all methods of {@link LDAP}, or as full DNs. The
+ * resolved sets hold full DNs, as the server returns them in member attributes and search results.
+ */
+public class GroupResolver {
+
+    /**
+     * The OID of the transitive matching rule.
+     */
+    public static final String IN_CHAIN = "1.2.840.113556.1.4.1941";
+
+    private static final String ACTIVE_DIRECTORY_CAPABILITY = "1.2.840.113556.1.4.800";
+
+    private final LDAP ldap;
+
+    private final String groupBase;
+
+    private final LruCache<Key, Object> cache;
+
+    private volatile String memberBase = "";
+
+    private volatile String memberAttr = "member";
+
+    private volatile String memberOfAttr = "memberOf";
+
+    private volatile Set<String> groupClasses =
+            new HashSet<>(Arrays.asList("groupofnames", "groupofuniquenames", "group"));
+
+    private volatile Boolean inChain;
+
+    /**
+     * Create a resolver.
+     *
+     * @param ldap the LDAP instance
+     * @param groupBase the base DN below which groups are searched
+     * @param maxSize the maximum number of cached sets
+     * @param ttlMillis the time to live of cached sets in milliseconds
+     */
+    public GroupResolver(LDAP ldap, String groupBase, int maxSize, long ttlMillis) {
+        this.ldap = ldap;
+        this.groupBase = groupBase;
+        this.cache = new LruCache<>(maxSize, ttlMillis);
+    }
+
+    /**
+     * Set the attribute of groups listing their members, "member" by default.
+     *
+     * @param memberAttr the attribute name
+     */
+    public void setMemberAttr(String memberAttr) {
+        this.memberAttr = Objects.requireNonNull(memberAttr, "memberAttr");
+        cache.clear();
+    }
+
+    /**
+     * Set the attribute of entries listing the groups they are a direct member of, "memberOf" by default. If
+     * null, the groups of an entry are found by a search for its DN in the member attribute.
+     *
+     * @param memberOfAttr the attribute name, or null
+     */
+    public void setMemberOfAttr(String memberOfAttr) {
+        this.memberOfAttr = memberOfAttr;
+        cache.clear();
+    }
+
+    /**
+     * Set the base DN below which members are searched with the transitive matching rule, the root by default.
+     *
+     * @param memberBase the base DN
+     */
+    public void setMemberBase(String memberBase) {
+        this.memberBase = Objects.requireNonNull(memberBase, "memberBase");
+    }
+
+    /**
+     * Set the object classes which identify groups.
+     *
+     * @param groupClasses the object classes
+     */
+    public void setGroupClasses(String... groupClasses) {
+        Set<String> classes = new HashSet<>();
+        for (String groupClass : groupClasses) {
+            classes.add(groupClass.toLowerCase(Locale.ROOT));
+        }
+        this.groupClasses = classes;
+        cache.clear();
+    }
+
+    /**
+     * Set whether the transitive matching rule is used. By default, it is used if the server is Active Directory.
+     *
+     * @param inChain true to use the matching rule, false to traverse the groups, null to detect
+     */
+    public void setInChain(Boolean inChain) {
+        this.inChain = inChain;
+    }
+
+    /**
+     * Get the groups an entry is a member of, directly or through nested groups.
+     *
+     * @param dn the DN of the entry
+     * @return the groups
+     * @throws NamingException if the groups can not be read
+     */
+    public DnSet getGroups(String dn) throws NamingException {
+        String fullDn = ldap.absolutize(dn);
+        Key key = new Key(Kind.ALL_GROUPS, fullDn);
+        DnSet groups = (DnSet) cache.get(key);
+        if (groups == null) {
+            groups = isInChain() ? searchInChain(groupBase, memberAttr, fullDn) : traverse(fullDn, true);
+            cache.put(key, groups);
+        }
+        return groups;
+    }
+
+    /**
+     * Get the members of a group, directly or through nested groups. The nested groups are members, too.
+     *
+     * @param groupDn the DN of the group
+     * @return the members
+     * @throws NamingException if the members can not be read
+     */
+    public DnSet getMembers(String groupDn) throws NamingException {
+        String fullDn = ldap.absolutize(groupDn);
+        Key key = new Key(Kind.ALL_MEMBERS, fullDn);
+        DnSet members = (DnSet) cache.get(key);
+        if (members == null) {
+            members = isInChain() && memberOfAttr != null ? searchInChain(memberBase, memberOfAttr, fullDn)
+                    : traverse(fullDn, false);
+            cache.put(key, members);
+        }
+        return members;
+    }
+
+    /**
+     * Check if an entry is a member of a group, directly or through nested groups.
+     *
+     * @param dn the DN of the entry
+     * @param groupDn the DN of the group
+     * @return true if the entry is a member
+     * @throws NamingException if the groups can not be read
+     */
+    public boolean isMember(String dn, String groupDn) throws NamingException {
+        return getGroups(dn).contains(ldap.absolutize(groupDn));
+    }
+
+    /**
+     * Drop all cached sets, for example after group changes.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + " hits=" + getHitCount() + " misses=" + getMissCount();
+    }
+
+    private boolean isInChain() throws NamingException {
+        Boolean value = inChain;
+        if (value == null) {
+            Map<String, Object> rootDse = ldap.readRootDse("supportedCapabilities");
+            value = rootDse != null
+                    && values(rootDse.get("supportedCapabilities")).contains(ACTIVE_DIRECTORY_CAPABILITY);
+            inChain = value;
+        }
+        return value;
+    }
+
+    private DnSet searchInChain(String base, String attr, String dn) throws NamingException {
+        Map<String, Object> params = Map.of("base", base, "filter", inChainFilter(attr, dn),
+                "attrs", "1.1", "countLimit", 0);
+        List<String> dns = new ArrayList<>();
+        for (Map<String, Object> entry : ldap.search(params)) {
+            dns.add((String) entry.get("dn"));
+        }
+        return DnSet.of(dns);
+    }
+
+    static Filter inChainFilter(String attr, String dn) {
+        return Filter.eq(attr + ":" + IN_CHAIN + ":", dn);
+    }
+
+    /**
+     * Traverse the membership graph breadth first, upwards to the groups or downwards to the members. The levels
+     * hold full DNs, which are made relative to the base DN of the URL for reading.
+     */
+    private DnSet traverse(String start, boolean upwards) throws NamingException {
+        Set<String> visited = new HashSet<>();
+        visited.add(DistinguishedNames.normalize(start));
+        List<String> result = new ArrayList<>();
+        List<String> level = Collections.singletonList(start);
+        while (!level.isEmpty()) {
+            Map<String, DnSet> edges = upwards ? directGroups(level) : directMembers(level);
+            List<String> nextLevel = new ArrayList<>();
+            for (String dn : level) {
+                DnSet neighbours = edges.get(dn);
+                if (neighbours == null) {
+                    continue;
+                }
+                for (String neighbour : neighbours) {
+                    if (visited.add(DistinguishedNames.normalize(neighbour))) {
+                        result.add(neighbour);
+                        nextLevel.add(neighbour);
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+        return DnSet.of(result);
+    }
+
+    /**
+     * Get the direct groups of the entries of a level.
+     */
+    private Map<String, DnSet> directGroups(List<String> level) throws NamingException {
+        Map<String, DnSet> edges = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String dn : level) {
+            DnSet groups = (DnSet) cache.get(new Key(Kind.GROUPS, dn));
+            if (groups != null) {
+                edges.put(dn, groups);
+            } else {
+                missing.add(dn);
+            }
+        }
+        if (missing.isEmpty()) {
+            return edges;
+        }
+        String attr = memberOfAttr;
+        if (attr != null) {
+            Map<String, Map<String, Object>> entries = readAll(missing, attr);
+            for (String dn : missing) {
+                Map<String, Object> entry = entries.get(dn);
+                DnSet groups = entry != null ? DnSet.of(values(entry.get(attr))) : DnSet.EMPTY;
+                cache.put(new Key(Kind.GROUPS, dn), groups);
+                edges.put(dn, groups);
+            }
+        } else {
+            PreparedSearch search = new PreparedSearch(new Search(Map.of("base", groupBase, "attrs", "1.1",
+                    "countLimit", 0)), Filter.eq(memberAttr, Filter.arg(0)));
+            for (String dn : missing) {
+                List<String> dns = new ArrayList<>();
+                for (Map<String, Object> group : ldap.search(search.bind(dn))) {
+                    dns.add((String) group.get("dn"));
+                }
+                DnSet groups = DnSet.of(dns);
+                cache.put(new Key(Kind.GROUPS, dn), groups);
+                edges.put(dn, groups);
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Get the direct members of the groups of a level. Entries which are not groups have no members.
+     */
+    private Map<String, DnSet> directMembers(List<String> level) throws NamingException {
+        Map<String, DnSet> edges = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String dn : level) {
+            DnSet members = (DnSet) cache.get(new Key(Kind.MEMBERS, dn));
+            if (members != null) {
+                edges.put(dn, members);
+            } else {
+                missing.add(dn);
+            }
+        }
+        if (missing.isEmpty()) {
+            return edges;
+        }
+        String attr = memberAttr;
+        Set<String> classes = groupClasses;
+        Map<String, Map<String, Object>> entries = readAll(missing, attr, "objectClass");
+        for (String dn : missing) {
+            Map<String, Object> entry = entries.get(dn);
+            DnSet members = DnSet.EMPTY;
+            if (entry != null && isGroup(entry, classes)) {
+                members = DnSet.of(values(entry.get(attr)));
+            }
+            cache.put(new Key(Kind.MEMBERS, dn), members);
+            edges.put(dn, members);
+        }
+        return edges;
+    }
+
+    /**
+     * Read entries by their full DNs.
+     *
+     * @return the entries by full DN
+     */
+    private Map<String, Map<String, Object>> readAll(List<String> dns, String... attrs) throws NamingException {
+        Map<String, String> names = new LinkedHashMap<>();
+        for (String dn : dns) {
+            names.put(ldap.relativize(dn), dn);
+        }
+        Map<String, Map<String, Object>> entries = new HashMap<>();
+        for (Map.Entry<String, Map<String, Object>> entry : ldap.readAll(names.keySet(), attrs).entrySet()) {
+            entries.put(names.get(entry.getKey()), entry.getValue());
+        }
+        return entries;
+    }
+
+    private static boolean isGroup(Map<String, Object> entry, Set<String> classes) {
+        for (String objectClass : values(entry.get("objectClass"))) {
+            if (classes.contains(objectClass.toLowerCase(Locale.ROOT))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> values(Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof Collection) {
+            List<String> values = new ArrayList<>();
+            for (Object v : (Collection<?>) value) {
+                values.add(v.toString());
+            }
+            return values;
+        }
+        return Collections.singletonList(value.toString());
+    }
+
+    private enum Kind {
+        GROUPS, MEMBERS, ALL_GROUPS, ALL_MEMBERS
+    }
+
+    private static final class Key {
+
+        private final Kind kind;
+
+        private final String dn;
+
+        private Key(Kind kind, String dn) {
+            this.kind = kind;
+            this.dn = DistinguishedNames.normalize(dn);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return kind == other.kind && dn.equals(other.dn);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * kind.hashCode() + dn.hashCode();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingException;
+
+/**
+ * Receives timings and outcomes of the operations of an {@link LDAP} instance. All methods have empty default
+ * implementations, so an implementation only overrides what it is interested in. Implementations are called
+ * from the threads performing the operations and must be thread-safe and fast.
+ *
+ * With {@link #NOOP}, which is the default, no timings are taken at all.
+ */
+public interface Instrumentation {
+
+    Instrumentation NOOP = new Instrumentation() {
+    };
+
+    /**
+     * A new context was connected and bound.
+     *
+     * @param nanos the time for connect and bind
+     */
+    default void connected(long nanos) {
+    }
+
+    /**
+     * A new context could not be connected or bound.
+     *
+     * @param nanos the time until the failure
+     * @param failure the failure
+     */
+    default void connectFailed(long nanos, NamingException failure) {
+    }
+
+    /**
+     * An operation completed. The time does not include connecting or waiting for a pooled context.
+     *
+     * @param operation the operation
+     * @param nanos the time of the operation
+     * @param entries the number of entries returned
+     * @param attributes the number of attributes of the returned entries
+     */
+    default void completed(Operation operation, long nanos, long entries, long attributes) {
+    }
+
+    /**
+     * An operation failed.
+     *
+     * @param operation the operation
+     * @param nanos the time until the failure, zero if no context could be obtained
+     * @param failure the failure
+     */
+    default void failed(Operation operation, long nanos, NamingException failure) {
+    }
+}
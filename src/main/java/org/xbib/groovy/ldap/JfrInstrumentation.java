@@ -0,0 +1,104 @@
+package org.xbib.groovy.ldap;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import javax.naming.NamingException;
+
+/**
+ * An {@link Instrumentation} which emits Java Flight Recorder events for connects and operations.
+ * The events are only created when they are enabled in the running recording.
+ */
+public class JfrInstrumentation implements Instrumentation {
+
+    @Override
+    public void connected(long nanos) {
+        ConnectEvent event = new ConnectEvent();
+        if (event.shouldCommit()) {
+            event.duration = nanos;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void connectFailed(long nanos, NamingException failure) {
+        ConnectEvent event = new ConnectEvent();
+        if (event.shouldCommit()) {
+            event.duration = nanos;
+            event.failure = failure.getClass().getName();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void completed(Operation operation, long nanos, long entries, long attributes) {
+        OperationEvent event = new OperationEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation.name();
+            event.duration = nanos;
+            event.entries = entries;
+            event.attributes = attributes;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void failed(Operation operation, long nanos, NamingException failure) {
+        OperationEvent event = new OperationEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation.name();
+            event.duration = nanos;
+            event.failure = failure.getClass().getName();
+            event.commit();
+        }
+    }
+
+    /**
+     * A connect and bind of a new context.
+     */
+    @Name("org.xbib.groovy.ldap.Connect")
+    @Label("LDAP Connect")
+    @Category("LDAP")
+    @StackTrace(false)
+    static class ConnectEvent extends Event {
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long duration;
+
+        @Label("Failure")
+        String failure;
+    }
+
+    /**
+     * An LDAP operation.
+     */
+    @Name("org.xbib.groovy.ldap.Operation")
+    @Label("LDAP Operation")
+    @Category("LDAP")
+    @Description("An LDAP operation, without connect time")
+    @StackTrace(false)
+    static class OperationEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long duration;
+
+        @Label("Entries")
+        long entries;
+
+        @Label("Attributes")
+        long attributes;
+
+        @Label("Failure")
+        String failure;
+    }
+}
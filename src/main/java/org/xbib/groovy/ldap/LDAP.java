@@ -2,10 +2,14 @@ package org.xbib.groovy.ldap;
 
 import groovy.lang.Closure;
 
+import javax.naming.ConfigurationException;
 import javax.naming.Context;
+import javax.naming.InvalidNameException;
 import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.ServiceUnavailableException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
@@ -13,50 +17,145 @@ import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.ModificationItem;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.InitialLdapContext;
 import javax.naming.ldap.LdapContext;
 import javax.naming.ldap.LdapName;
+import javax.naming.ldap.SortResponseControl;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A wrapper class which provides LDAP functionality to Groovy.
+ *
+ * Contexts are pooled per server, so an instance should be closed when it is no longer used.
+ *
+ * An instance may have read replicas besides the primary server. Writes go to the primary, reads are spread over
+ * the available replicas and fall back to the primary. A server which fails repeatedly is taken out of rotation
+ * for a while, see {@link ServerNode}.
  */
-public class LDAP {
+public class LDAP implements AutoCloseable {
 
     private static final Logger logger = Logger.getLogger(LDAP.class.getName());
 
     private static final String DEFAULT_URL = "ldap://localhost:389/";
 
+    private static final String BINARY_ATTRIBUTES = "java.naming.ldap.attributes.binary";
+
+    private static final int MAX_SERVERS = 64;
+
+    private static final SearchControls EXISTS_CONTROLS =
+            new SearchControls(SearchControls.OBJECT_SCOPE, 0L, 0, new String[] { "1.1" }, false, false);
+
+    private static final SearchControls COMPARE_CONTROLS =
+            new SearchControls(SearchControls.OBJECT_SCOPE, 0L, 0, new String[0], false, false);
+
     private final String url;
 
+    private final LdapName baseName;
+
     private final String bindUser;
 
     private final String bindPassword;
 
-    private LDAP(String url, String bindUser, String bindPassword) {
+    private final PoolSettings poolSettings;
+
+    private final List<ServerNode> servers;
+
+    private final int readServerCount;
+
+    private final AtomicInteger next;
+
+    private volatile LoadBalancing loadBalancing = LoadBalancing.ROUND_ROBIN;
+
+    private volatile EntryCache cache;
+
+    private volatile Instrumentation instrumentation = Instrumentation.NOOP;
+
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+
+    private AsyncLDAP async;
+
+    private ExecutorService asyncExecutor;
+
+    private LDAP(String url, List<String> replicaUrls, String bindUser, String bindPassword,
+                 PoolSettings poolSettings) {
         this.url = url;
+        this.baseName = DistinguishedNames.baseName(url);
         this.bindUser = bindUser;
         this.bindPassword = bindPassword;
+        this.poolSettings = poolSettings;
+        List<ServerNode> nodes = new ArrayList<>();
+        if (url != null) {
+            nodes.add(new ServerNode(nodes.size(), url, ServerNode.Role.PRIMARY, this::openContext, poolSettings));
+            for (String replicaUrl : replicaUrls) {
+                nodes.add(new ServerNode(nodes.size(), replicaUrl, ServerNode.Role.REPLICA, this::openContext,
+                        poolSettings));
+            }
+        }
+        if (nodes.size() > MAX_SERVERS) {
+            throw new IllegalArgumentException("at most " + MAX_SERVERS + " servers are supported");
+        }
+        this.servers = Collections.unmodifiableList(nodes);
+        this.readServerCount = Math.max(1, replicaUrls.size());
+        this.next = new AtomicInteger();
     }
 
     public static LDAP newInstance() {
-        return new LDAP(DEFAULT_URL, null, null);
+        return new LDAP(DEFAULT_URL, Collections.emptyList(), null, null, new PoolSettings());
     }
 
     public static LDAP newInstance(String url) {
-        return new LDAP(url, null, null);
+        return new LDAP(url, Collections.emptyList(), null, null, new PoolSettings());
     }
 
     public static LDAP newInstance(String url, String bindUser, String bindPassword) {
-        return new LDAP(url, bindUser, bindPassword);
+        return new LDAP(url, Collections.emptyList(), bindUser, bindPassword, new PoolSettings());
+    }
+
+    public static LDAP newInstance(String url, String bindUser, String bindPassword, PoolSettings poolSettings) {
+        return new LDAP(url, Collections.emptyList(), bindUser, bindPassword, poolSettings);
+    }
+
+    /**
+     * Create an instance with read replicas. The pool settings apply to each server.
+     *
+     * @param primaryUrl the URL of the primary server, which receives the writes
+     * @param replicaUrls the URLs of the read replicas
+     * @param bindUser the DN to bind with, or null
+     * @param bindPassword the password
+     * @param poolSettings the pool settings
+     * @return the instance
+     */
+    public static LDAP newInstance(String primaryUrl, List<String> replicaUrls, String bindUser, String bindPassword,
+                                   PoolSettings poolSettings) {
+        if (primaryUrl == null) {
+            throw new IllegalArgumentException("primary URL must not be null");
+        }
+        return new LDAP(primaryUrl, new ArrayList<>(replicaUrls), bindUser, bindPassword, poolSettings);
     }
 
     /**
@@ -67,73 +166,178 @@ public class LDAP {
      * @throws NamingException if DN can not be resolved
      */
     public void add(final String dn, final Map<String, Object> attributes) throws NamingException {
-        WithContext<Object> action = ctx -> {
-            BasicAttributes attrs = new BasicAttributes();
-            for (Map.Entry<String,Object> entry : attributes.entrySet()) {
-                logger.log(Level.FINE, MessageFormat.format("entry {0} {1}", entry, entry.getValue().getClass()));
-                Attribute attr = createAttribute(entry.getKey(), entry.getValue());
-                logger.log(Level.FINE, MessageFormat.format("attr {0} {1}", attr, attr.get().getClass()));
-                attrs.put(attr);
-            }
-            ctx.createSubcontext(dn, attrs);
-            return null;
-        };
-        performWithContext(action);
+        performWrite(Operation.ADD, addAction(dn, attributes), dn);
     }
 
     /**
-     * LDAP delete operation. Deletes an entry from the directory.
+     * LDAP delete operation. Deletes an entry from the directory. A missing entry is reported by the server
+     * with a {@link NameNotFoundException}, so this takes a single request.
      *
      * @param dn  DN of the entry
      * @throws NamingException  if DN can not be resolved
      */
     public void delete(final String dn) throws NamingException {
-        if (!exists(dn)) {
-            throw new NameNotFoundException("Entry " + dn + " does not exist!");
+        performWrite(Operation.DELETE, deleteAction(dn), dn);
+    }
+
+    /**
+     * LDAP delete operation with an optional existence check. With the check, the entry is looked up
+     * before it is deleted, and both requests are performed on the same context.
+     *
+     * @param dn  DN of the entry
+     * @param checkExists true if the existence of the entry should be checked before deleting it
+     * @throws NamingException  if DN can not be resolved
+     */
+    public void delete(final String dn, final boolean checkExists) throws NamingException {
+        if (!checkExists) {
+            delete(dn);
+            return;
         }
-        WithContext<Object> action = ctx -> {
-            ctx.destroySubcontext(dn);
-            return null;
-        };
-        performWithContext(action);
+        performWrite(Operation.DELETE, deleteIfExistsAction(dn), dn);
     }
 
     /**
      * Reads an entry by its DN.
      * @param dn distinguished name
-     * @return object
+     * @return the entry as a map of attributes, with the DN under the key "dn"
+     * @throws NamingException if DN can not be resolved
+     */
+    public Map<String, Object> read(final String dn) throws NamingException {
+        return read(dn, (String[]) null);
+    }
+
+    /**
+     * Reads the given attributes of an entry. The entry cache is only used if all attributes are read.
+     * @param dn distinguished name
+     * @param attrs the attributes to return, or none for all user attributes
+     * @return the entry as a map of attributes, with the DN under the key "dn"
      * @throws NamingException if DN can not be resolved
      */
-    public Object read(final String dn) throws NamingException {
-        return performWithContext(ctx -> ctx.lookup(dn));
+    public Map<String, Object> read(final String dn, String... attrs) throws NamingException {
+        String[] returning = attrs != null && attrs.length > 0 ? attrs : null;
+        EntryCache entryCache = returning == null ? cache : null;
+        if (entryCache != null) {
+            Map<String, Object> entry = entryCache.getEntry(dn);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        Tally tally = new Tally();
+        Map<String, Object> entry = performWithContext(Operation.READ, tally, ctx -> {
+            Attributes attributes = ctx.getAttributes(dn, returning);
+            tally.count(attributes);
+            return EntryMapper.DEFAULT.map(dn, attributes);
+        });
+        if (entryCache != null && entry != null) {
+            entry = readOnly(entry);
+            entryCache.putEntry(dn, entry);
+        }
+        return entry;
     }
 
     /**
-     * Check whether an entry with the given DN exists. The method performs a search to check this, which is not so
-     * efficient than just reading the entry.
+     * Check whether an entry with the given DN exists. The method performs a base object search which
+     * returns no attributes, so it takes a single request.
      * @param dn distinguished name
      * @return true if exists
      * @throws NamingException if DN can not be resolved
      */
     public Boolean exists(final String dn) throws NamingException {
-        WithContext<Boolean> action = ctx -> {
-            SearchControls searchControls = new SearchControls();
-            searchControls.setSearchScope(SearchControls.OBJECT_SCOPE);
-            searchControls.setReturningAttributes(new String[0]);
-            searchControls.setReturningObjFlag(false);
-            try {
-                ctx.search(dn, "(objectClass=*)", searchControls);
-                return true;
-            } catch (NameNotFoundException e) {
-                logger.log(Level.FINEST, e.getMessage(), e);
+        EntryCache entryCache = cache;
+        if (entryCache != null) {
+            Boolean exists = entryCache.getExists(dn);
+            if (exists != null) {
+                return exists;
             }
-            return false;
-        };
-        return performWithContext(action);
+        }
+        Boolean exists = performWithContext(Operation.EXISTS, existsAction(dn));
+        if (entryCache != null && exists != null) {
+            entryCache.putExists(dn, exists);
+        }
+        return exists;
+    }
+
+    /**
+     * Read many entries at once. The entries are looked up over one connection with several requests in flight,
+     * and entries under a common parent are found by one search with an OR filter of their RDNs.
+     *
+     * @param dns the DNs
+     * @param attrs the attributes to return, or none for all user attributes
+     * @return the entries by DN in the given order, with null for entries which do not exist
+     * @throws NamingException if a lookup fails for another reason than a missing entry
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Map<String, Object>> readAll(Collection<String> dns, String... attrs) throws NamingException {
+        String[] returning = attrs != null && attrs.length > 0 ? attrs : null;
+        EntryCache entryCache = returning == null ? cache : null;
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        List<String> pending = new ArrayList<>();
+        for (String dn : dns) {
+            Map<String, Object> entry = entryCache != null ? entryCache.getEntry(dn) : null;
+            if (entry == null) {
+                pending.add(dn);
+            }
+            result.put(dn, entry);
+        }
+        if (pending.isEmpty()) {
+            return result;
+        }
+        Tally tally = new Tally();
+        MultiRead multiRead = new MultiRead(pending, returning, false, tally);
+        Map<String, Object> found = performWithContext(Operation.READ, tally, false, multiRead::run);
+        if (found == null) {
+            return result;
+        }
+        for (String dn : pending) {
+            Map<String, Object> entry = (Map<String, Object>) found.get(DistinguishedNames.normalize(dn));
+            if (entryCache != null && entry != null) {
+                entry = readOnly(entry);
+                entryCache.putEntry(dn, entry);
+            }
+            result.put(dn, entry);
+        }
+        return result;
+    }
+
+    /**
+     * Check the existence of many entries at once, in the same way as {@link #readAll(Collection, String...)}.
+     *
+     * @param dns the DNs
+     * @return true or false for each DN, in the given order
+     * @throws NamingException if a lookup fails for another reason than a missing entry
+     */
+    public Map<String, Boolean> existsAll(Collection<String> dns) throws NamingException {
+        EntryCache entryCache = cache;
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        List<String> pending = new ArrayList<>();
+        for (String dn : dns) {
+            Boolean exists = entryCache != null ? entryCache.getExists(dn) : null;
+            if (exists == null) {
+                pending.add(dn);
+            }
+            result.put(dn, exists);
+        }
+        if (pending.isEmpty()) {
+            return result;
+        }
+        MultiRead multiRead = new MultiRead(pending, null, true, new Tally());
+        Map<String, Object> found = performWithContext(Operation.EXISTS, null, false, multiRead::run);
+        if (found == null) {
+            return result;
+        }
+        for (String dn : pending) {
+            Boolean exists = found.containsKey(DistinguishedNames.normalize(dn));
+            if (entryCache != null) {
+                entryCache.putExists(dn, exists);
+            }
+            result.put(dn, exists);
+        }
+        return result;
     }
 
     /**
-     * LDAP compare operation.
+     * LDAP compare operation. The JNDI LDAP provider sends a real compare request for a base object search
+     * with a single equality filter and no returning attributes, which is how the assertion is passed.
      *
      * @param dn        Distinguished name of the entry.
      * @param assertion attribute assertion.
@@ -144,18 +348,17 @@ public class LDAP {
         if (assertion.size() != 1) {
             throw new IllegalArgumentException("Assertion may only include one attribute");
         }
+        Map.Entry<String, Object> entry = assertion.entrySet().iterator().next();
+        String filter = Filter.eq(entry.getKey(), entry.getValue()).render();
         WithContext<Boolean> action = ctx -> {
-            SearchControls searchControls = new SearchControls();
-            searchControls.setReturningAttributes(new String[0]);
-            searchControls.setSearchScope(SearchControls.OBJECT_SCOPE);
-            searchControls.setReturningObjFlag(false);
-            String attrName = assertion.keySet().iterator().next();
-            String filter = "(" + attrName + "={0})";
-            Object value = assertion.get(attrName);
-            NamingEnumeration<SearchResult> enumeration = ctx.search(dn, filter, new Object[]{value}, searchControls);
-            return enumeration.hasMore();
+            NamingEnumeration<SearchResult> enumeration = ctx.search(dn, filter, COMPARE_CONTROLS);
+            try {
+                return enumeration.hasMore();
+            } finally {
+                enumeration.close();
+            }
         };
-        return performWithContext(action);
+        return performWithContext(Operation.COMPARE, action);
     }
 
     /**
@@ -169,21 +372,40 @@ public class LDAP {
      */
     public void modifyDn(final String dn, final String newRDN, final boolean deleteOldRDN, final String newSuperior)
             throws NamingException {
-        WithContext<Object> action = ctx -> {
-            LdapName source = new LdapName(dn);
-            LdapName target = new LdapName(newSuperior);
-            target.add(newRDN);
-            ctx.addToEnvironment("java.naming.ldap.deleteRDN", Boolean.toString(deleteOldRDN));
-            ctx.rename(source, target);
-            return null;
-        };
-        performWithContext(action);
+        performWrite(Operation.MODIFY_DN, modifyDnAction(dn, newRDN, deleteOldRDN, newSuperior),
+                dn, renamedDn(dn, newRDN, newSuperior));
+    }
+
+    /**
+     * Get the DN of an entry after a modify DN operation.
+     *
+     * @param dn the DN of the entry
+     * @param newRDN the new RDN
+     * @param newSuperior the DN of the new parent, or null to keep the parent
+     * @return the new DN
+     */
+    static String renamedDn(String dn, String newRDN, String newSuperior) {
+        String parent = newSuperior;
+        if (parent == null) {
+            try {
+                LdapName name = new LdapName(dn);
+                parent = name.isEmpty() ? "" : name.getPrefix(name.size() - 1).toString();
+            } catch (InvalidNameException e) {
+                parent = "";
+            }
+        }
+        return parent.isEmpty() ? newRDN : newRDN + "," + parent;
     }
 
     public void eachEntry(String filter, String base, SearchScope scope, Closure closure) throws NamingException {
         eachEntry(new Search(base, scope, filter), closure);
     }
 
+    public void eachEntry(String filter, String base, SearchScope scope, String[] attrs, Closure closure)
+            throws NamingException {
+        eachEntry(new Search(base, scope, filter, attrs), closure);
+    }
+
     public void eachEntry(Map<String, Object> searchParams, Closure closure) throws NamingException {
         eachEntry(new Search(searchParams), closure);
     }
@@ -192,31 +414,17 @@ public class LDAP {
         eachEntry(filter, "", SearchScope.SUB, closure);
     }
 
+    /**
+     * Search the directory and call the closure with each entry found, as it arrives. The entries are mapped,
+     * and the limits applied, in the same way as by {@link #search(Search)}.
+     *
+     * @param search the search parameters
+     * @param closure the closure called with each entry
+     * @throws NamingException if the search fails
+     */
     public void eachEntry(Search search, Closure closure) throws NamingException {
-        WithContext<Object> action = ctx -> {
-            SearchControls ctls = new SearchControls();
-            ctls.setSearchScope(search.getScope().getValue());
-            ctls.setReturningAttributes(search.getAttrs());
-            ctls.setReturningObjFlag(true);
-            NamingEnumeration<SearchResult> results = ctx.search(search.getBase(), search.getFilter(), search
-                    .getFilterArgs(), ctls);
-            while (results != null && results.hasMore()) {
-                SearchResult sr = results.next();
-                String dn = sr.getNameInNamespace();
-                Attributes attrs = sr.getAttributes();
-                NamingEnumeration<? extends Attribute> en = attrs.getAll();
-                Map<String, Object> map = new LinkedHashMap<>();
-                map.put("dn", dn);
-                while (en.hasMore()) {
-                    Attribute attr = en.next();
-                    String key = attr.getID();
-                    map.put(key, attr.get(0).toString());
-                }
-                closure.call(map);
-            }
-            return null;
-        };
-        performWithContext(action);
+        Tally tally = new Tally(search);
+        performWithContext(Operation.EACH_ENTRY, tally, searchAction(search, tally, entry -> closure.call(entry)));
     }
 
     public void modify(String dn, String modType, Map<String, Object> attributes) throws NamingException {
@@ -224,204 +432,1110 @@ public class LDAP {
     }
 
     public void modify(String dn, ModificationType modType, Map<String, Object> attributes) throws NamingException {
-        List<ModificationItem> mods = new ArrayList<>();
-        for (String key : attributes.keySet()) {
-            Attribute attr = createAttribute(key, attributes.get(key));
-            ModificationItem item = new ModificationItem(modType.getValue(), attr);
-            mods.add(item);
-        }
-        ModificationItem[] modItems = mods.toArray(new ModificationItem[mods.size()]);
-        WithContext<Object> action = ctx -> {
-            ctx.modifyAttributes(dn, modItems);
-            return null;
-        };
-        performWithContext(action);
+        performWrite(Operation.MODIFY, modifyAction(dn, modificationItems(modType, attributes)), dn);
     }
 
     public void modify(String dn, List<List> modificationItem) throws NamingException {
-        List<ModificationItem> mods = new ArrayList<>();
-        for (List pair : modificationItem) {
-            if (pair.size() != 2) {
-                throw new IllegalArgumentException("parameter 2 is not a list of pairs");
-            }
-            Object oModType = pair.get(0);
-            ModificationType modType;
-            if (oModType instanceof ModificationType) {
-                modType = (ModificationType) oModType;
-            } else if (oModType instanceof String) {
-                modType = ModificationType.valueOf((String) oModType);
-            } else {
-                throw new IllegalArgumentException("parameter is not o valid ModificationType: " + oModType);
-            }
-            if (pair.get(1) instanceof Map) {
-                @SuppressWarnings("unchecked")
-                Map<String, Object> attributes = (Map<String, Object>) pair.get(1);
-                for (String key : attributes.keySet()) {
-                    Attribute attr = createAttribute(key, attributes.get(key));
-                    ModificationItem item = new ModificationItem(modType.getValue(), attr);
-                    mods.add(item);
-                }
-            }
-        }
-        ModificationItem[] modItems = mods.toArray(new ModificationItem[mods.size()]);
-        WithContext<Object> action = ctx -> {
-            ctx.modifyAttributes(dn, modItems);
-            return null;
-        };
-        performWithContext(action);
+        performWrite(Operation.MODIFY, modifyAction(dn, modificationItems(modificationItem)), dn);
     }
 
     public List<Map<String, Object>> search(String filter) throws NamingException {
         return search(new Search("", SearchScope.SUB, filter));
     }
 
-    public List<Map<String, Object>> search(String base, SearchScope scope, String filter) throws NamingException {
-        return search(new Search(base, scope, filter));
+    public List<Map<String, Object>> search(String base, SearchScope scope, String filter, String... attrs)
+            throws NamingException {
+        return search(new Search(base, scope, filter, attrs));
     }
 
     public List<Map<String, Object>> search(Map<String, Object> searchParams) throws NamingException {
         return search(new Search(searchParams));
     }
 
+    /**
+     * Search the directory. If a cache is set, the result is cached and read-only.
+     *
+     * @param search the search parameters
+     * @return the list of entries found
+     * @throws NamingException if the search fails
+     */
     public List<Map<String, Object>> search(Search search) throws NamingException {
+        EntryCache entryCache = cache;
+        if (entryCache != null) {
+            List<Map<String, Object>> cached = entryCache.getSearch(search);
+            if (cached != null) {
+                return cached;
+            }
+        }
         List<Map<String, Object>> result = new ArrayList<>();
-        WithContext<Object> action = ctx -> {
-            NamingEnumeration<SearchResult> results =
-                    ctx.search(search.getBase(), search.getFilter(), search.getFilterArgs(), search.getSearchControls());
-            while (results != null && results.hasMore()) {
-                SearchResult sr = results.next();
-                String dn = sr.getNameInNamespace();
-                Attributes attrs = sr.getAttributes();
-                NamingEnumeration<? extends Attribute> en = attrs.getAll();
-                Map<String, Object> map = new LinkedHashMap<>();
-                map.put("dn", dn);
-                while (en.hasMore()) {
-                    Attribute attr = en.next();
-                    String key = attr.getID();
-                    if (attr.size() == 1) {
-                        map.put(key, attr.get());
-                    } else {
-                        List<Object> l = new ArrayList<>();
-                        for (int i = 0; i < attr.size(); ++i) {
-                            l.add(attr.get(i));
-                        }
-                        map.put(key, l);
-                    }
-                }
-                result.add(map);
+        Tally tally = new Tally(search);
+        performWithContext(Operation.SEARCH, tally, searchAction(search, tally, result::add));
+        if (entryCache != null && url != null) {
+            List<Map<String, Object>> readOnly = new ArrayList<>(result.size());
+            for (Map<String, Object> entry : result) {
+                readOnly.add(readOnly(entry));
             }
-            return null;
-        };
-        performWithContext(action);
+            List<Map<String, Object>> cached = Collections.unmodifiableList(readOnly);
+            entryCache.putSearch(search, cached);
+            return cached;
+        }
         return result;
     }
 
-    public void bind(String bindUser, String bindPassword) throws NamingException {
-        LdapContext ctx = null;
-        try {
-            ctx = new InitialLdapContext(createEnvironment(url, bindUser, bindPassword), null);
-        } finally {
-            try {
-                if (ctx != null) {
-                    ctx.close();
-                }
-            } catch (NamingException e) {
-                logger.log(Level.FINEST, e.getMessage(), e);
-            }
+    /**
+     * Search for a window of the sorted result, with the server side sort control of RFC 2891 and the virtual
+     * list view control. Only the entries of the window are transferred, together with the position of the
+     * window and the estimated number of entries of the whole result.
+     *
+     * @param search the search parameters, with sort keys and a window
+     * @return the window
+     * @throws NamingException if the search fails, or the server does not support the controls
+     */
+    public SearchWindow searchWindow(Search search) throws NamingException {
+        if (search.getWindow() == null) {
+            throw new IllegalArgumentException("search has no window");
+        }
+        List<Map<String, Object>> entries = new ArrayList<>();
+        Tally tally = new Tally(search);
+        Control[] responseControls = performWithContext(Operation.SEARCH, tally,
+                searchAction(search, tally, entries::add));
+        if (url == null) {
+            return null;
+        }
+        VirtualListViewResponseControl response = VirtualListViewResponseControl.find(responseControls);
+        if (response == null) {
+            throw new OperationNotSupportedException("no virtual list view response from server");
         }
+        if (response.getResultCode() != 0) {
+            throw new NamingException("virtual list view failed with result code " + response.getResultCode());
+        }
+        return new SearchWindow(entries, response.getTargetPosition(), response.getContentCount());
+    }
+
+    public Stream<Map<String, Object>> stream(String base, SearchScope scope, String filter, String... attrs) {
+        return stream(new Search(base, scope, filter, attrs));
+    }
+
+    public Stream<Map<String, Object>> stream(Map<String, Object> searchParams) {
+        return stream(new Search(searchParams));
     }
 
     /**
-     * Open an LDAP context and perform a given task within this context.
+     * Streaming search. The entries are fetched lazily, page by page, using the simple paged results control,
+     * so memory is bounded by the page size of the search. The count limit of the search does not apply.
+     * The stream holds a context until it is exhausted or closed, so it should be used in a try-with-resources
+     * block if it may not be consumed completely.
      *
-     * @param <T> parameter type
-     * @param action action
-     * @return an action result
-     * @throws NamingException naming exception
+     * @param search the search parameters
+     * @return a stream of entries, failures are thrown as {@link UncheckedNamingException}
      */
-    private <T> T performWithContext(WithContext<T> action) throws NamingException {
-        LdapContext ctx = null;
-        try {
-            if (url != null) {
-                ctx = new InitialLdapContext(createEnvironment(url, bindUser, bindPassword), null);
-                return action.perform(ctx);
-            } else {
-                return null;
-            }
-        } finally {
-            try {
-                if (ctx != null) {
-                    ctx.close();
-                }
-            } catch (NamingException e) {
-                logger.log(Level.FINEST, e.getMessage(), e);
-            }
+    public Stream<Map<String, Object>> stream(Search search) {
+        if (url == null) {
+            return Stream.empty();
         }
+        PagedSearchIterator iterator = new PagedSearchIterator(this, search);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
     }
 
-    private static Properties createEnvironment(String url, String bindUser, String bindPassword) {
-        Properties env = new Properties();
-        env.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
-        env.setProperty(Context.PROVIDER_URL, url);
-        if (bindUser != null) {
-            env.setProperty(Context.SECURITY_PRINCIPAL, bindUser);
-            env.setProperty(Context.SECURITY_CREDENTIALS, bindPassword);
+    /**
+     * Reactive search. The entries are published as the subscriber requests them: a page is fetched from the
+     * server only when the entries of the previous page are delivered, so a slow subscriber throttles the search.
+     * The search runs on the executor of the default asynchronous facade. A subscription holds a context until
+     * the search completes or the subscription is cancelled.
+     *
+     * @param search the search parameters
+     * @return a publisher which runs the search for each subscriber
+     */
+    public Flow.Publisher<Map<String, Object>> publisher(Search search) {
+        return publisher(search, async().getExecutor());
+    }
+
+    /**
+     * Reactive search with signals delivered on the given executor, see {@link #publisher(Search)}.
+     *
+     * @param search the search parameters
+     * @param executor the executor
+     * @return a publisher which runs the search for each subscriber
+     */
+    public Flow.Publisher<Map<String, Object>> publisher(Search search, Executor executor) {
+        return new SearchPublisher(this, search, executor);
+    }
+
+    public Stream<Map<String, Object>> parallelStream(Search search, int parallelism) throws NamingException {
+        return parallelStream(search, parallelism, false);
+    }
+
+    /**
+     * Parallel streaming search. A subtree search is split into one search for the base entry and one
+     * subtree search for each immediate child of the base, which run concurrently on pooled contexts.
+     * Other scopes are not split.
+     *
+     * @param search the search parameters
+     * @param parallelism the number of searches in flight, at most the maximum pool size times the number of
+     *                    read servers
+     * @param orderedByDn true if the entries should be returned in hierarchical DN order, which requires
+     *                    buffering the entries of each child subtree
+     * @return a stream of entries, failures are thrown as {@link UncheckedNamingException}
+     * @throws NamingException if the children of the base can not be enumerated
+     */
+    public Stream<Map<String, Object>> parallelStream(Search search, int parallelism, boolean orderedByDn)
+            throws NamingException {
+        if (url == null) {
+            return Stream.empty();
         }
-        return env;
+        if (search.getScope() != SearchScope.SUB) {
+            return parallelStream(Collections.singletonList(search), parallelism, orderedByDn);
+        }
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("base", search.getBase());
+        params.put("scope", SearchScope.ONE);
+        params.put("attrs", "1.1");
+        params.put("pageSize", search.getPageSize());
+        List<Search> partitions = new ArrayList<>();
+        partitions.add(search.withBase(search.getBase(), SearchScope.BASE));
+        try (Stream<Map<String, Object>> children = stream(new Search(params))) {
+            children.forEach(child -> partitions.add(search.withBase(relativize((String) child.get("dn")),
+                    SearchScope.SUB)));
+        } catch (UncheckedNamingException e) {
+            throw e.getCause();
+        }
+        if (orderedByDn) {
+            partitions.sort(Comparator.comparing(partition -> DistinguishedNames.sortKey(partition.getBase())));
+        }
+        return parallelStream(partitions, parallelism, orderedByDn);
     }
 
-    private static Attribute createAttribute(String name, Object value) {
-        Attribute attr = new BasicAttribute(name);
-        if (value instanceof Collection) {
-            Collection<?> values = (Collection<?>) value;
-            for (Object val : values) {
-                attr.add(val);
-            }
-        } else {
-            attr.add(value);
+    /**
+     * Parallel streaming search over caller-supplied partitions, for example disjoint subtrees or filter
+     * shards. The partitions run concurrently on pooled contexts and their entries are merged.
+     *
+     * @param partitions the searches
+     * @param parallelism the number of searches in flight, at most the maximum pool size times the number of
+     *                    read servers
+     * @param orderedByDn true if the entries of each partition should be sorted by DN and the partitions
+     *                    returned in the given order
+     * @return a stream of entries, failures are thrown as {@link UncheckedNamingException}
+     */
+    public Stream<Map<String, Object>> parallelStream(List<Search> partitions, int parallelism, boolean orderedByDn) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
         }
-        return attr;
+        if (url == null) {
+            return Stream.empty();
+        }
+        int workers = poolSettings.isEnabled()
+                ? Math.min(parallelism, poolSettings.getMaxSize() * readServerCount) : parallelism;
+        ParallelSearch iterator = new ParallelSearch(this, new ArrayList<>(partitions), workers, orderedByDn);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.NONNULL), false).onClose(iterator::close);
     }
 
-    public static String escapeValue(String filter) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < filter.length(); i++) {
-            switch (filter.charAt(i)) {
-                case '\\':
-                    sb.append("\\5c");
-                    break;
-                case '!':
-                    sb.append("\\21");
-                    break;
-                case '&':
-                    sb.append("\\26");
-                    break;
-                case '*':
-                    sb.append("\\2a");
-                    break;
-                case ':':
-                    sb.append("\\3a");
-                    break;
-                case '(':
-                    sb.append("\\28");
-                    break;
-                case ')':
-                    sb.append("\\29");
-                    break;
-                case '|':
-                    sb.append("\\7c");
-                    break;
-                case '~':
-                    sb.append("\\7e");
-                    break;
-                case '\u0000':
-                    sb.append("\\00");
-                    break;
-                default:
-                    sb.append(filter.charAt(i));
-            }
-        }
-        return sb.toString();
+    public Watch watch(Map<String, Object> searchParams, EntryListener listener) throws NamingException {
+        return watch(new Search(searchParams), listener);
+    }
+
+    /**
+     * Subscribe to the changes of the entries matched by a search. The changes are delivered as they happen,
+     * over a dedicated connection which is reestablished automatically when it is lost.
+     *
+     * @param search the search parameters
+     * @param listener the listener receiving the changes
+     * @return the subscription, which must be closed to stop receiving changes
+     * @throws NamingException if the subscription can not be registered
+     */
+    public Watch watch(Search search, EntryListener listener) throws NamingException {
+        Watch watch = new Watch(this, search, listener);
+        watch.start();
+        return watch;
+    }
+
+    /**
+     * Set the instrumentation which receives timings and outcomes of the operations.
+     *
+     * @param instrumentation the instrumentation, or null for none
+     */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation != null ? instrumentation : Instrumentation.NOOP;
+    }
+
+    public Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * Set an adaptive limit of the operations in flight, or null for no limit. The limit applies to the
+     * operations performed on a borrowed context and to batches, not to streams and iterators which hold a
+     * context until they are closed.
+     *
+     * @param concurrencyLimiter the limiter
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Set a cache for reads, existence checks and searches, or null to disable caching.
+     *
+     * @param cache the cache
+     */
+    public void setCache(EntryCache cache) {
+        this.cache = cache;
+    }
+
+    public EntryCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Get the servers of this instance, the primary first, with their health states and statistics.
+     *
+     * @return the servers
+     */
+    public List<ServerNode> getServers() {
+        return servers;
+    }
+
+    /**
+     * Set how reads are spread over the replicas.
+     *
+     * @param loadBalancing the load balancing, round robin by default
+     */
+    public void setLoadBalancing(LoadBalancing loadBalancing) {
+        if (loadBalancing == null) {
+            throw new IllegalArgumentException("load balancing must not be null");
+        }
+        this.loadBalancing = loadBalancing;
+    }
+
+    public LoadBalancing getLoadBalancing() {
+        return loadBalancing;
+    }
+
+    /**
+     * Probe all servers and update their health states. This may be called regularly, so that servers are
+     * taken out of and back into rotation without waiting for failing requests or probes.
+     *
+     * @return the number of healthy servers
+     */
+    public int checkHealth() {
+        int healthy = 0;
+        for (ServerNode server : servers) {
+            if (server.checkHealth()) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    /**
+     * Create a resolver of nested group memberships, with a cache of up to 10000 sets for five minutes. The
+     * resolver should be kept, so that its cache is shared.
+     *
+     * @param groupBase the base DN below which groups are searched
+     * @return the resolver
+     */
+    public GroupResolver groupResolver(String groupBase) {
+        return new GroupResolver(this, groupBase, 10000, 300000L);
+    }
+
+    /**
+     * Perform a batch of write operations. The operations run concurrently on the given number of long-lived
+     * contexts. A failed operation does not abort the batch, it is reported in the result. Each worker keeps a
+     * pooled context of the primary for the whole batch, so the concurrency is capped at the maximum pool size.
+     *
+     * @param operations the operations
+     * @param concurrency the number of operations in flight, at most the maximum pool size
+     * @return the results of all operations, with throughput and latency statistics
+     * @throws NamingException if the batch is interrupted, or iterating the operations fails
+     */
+    public BatchResult batch(Iterable<BatchOperation> operations, int concurrency) throws NamingException {
+        return batch(operations.iterator(), concurrency, null);
+    }
+
+    public BatchResult batch(Stream<BatchOperation> operations, int concurrency) throws NamingException {
+        try (Stream<BatchOperation> stream = operations) {
+            return batch(stream.iterator(), concurrency, null);
+        }
+    }
+
+    /**
+     * Perform a batch of write operations, passing each result to a listener instead of collecting it. Only the
+     * failed results are kept, so this is suitable for batches of unbounded size. The listener is called from
+     * the worker threads.
+     *
+     * @param operations the operations
+     * @param concurrency the number of operations in flight, at most the maximum pool size
+     * @param listener the listener for the result of each operation, or null
+     * @return the failed results, with throughput and latency statistics
+     * @throws NamingException if the batch is interrupted, or the operations or the listener fail
+     */
+    public BatchResult batch(Iterator<BatchOperation> operations, int concurrency,
+                             Consumer<BatchItemResult> listener) throws NamingException {
+        if (url == null) {
+            return new BatchResult(new ArrayList<>(), new ArrayList<>(), 0L, 0L, new LatencyHistogram());
+        }
+        int workers = poolSettings.isEnabled() ? Math.min(concurrency, poolSettings.getMaxSize()) : concurrency;
+        return new BatchWriter(this, workers, listener).run(operations);
+    }
+
+    /**
+     * Export the entries found by a search to an LDIF file. The entries are streamed page by page, so memory
+     * does not grow with the number of entries.
+     *
+     * @param search the search parameters
+     * @param file the LDIF file, which is replaced
+     * @return the number of entries written
+     * @throws NamingException if the search fails
+     * @throws IOException if writing fails
+     */
+    public long exportLdif(Search search, Path file) throws NamingException, IOException {
+        try (LdifWriter writer = new LdifWriter(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            return exportLdif(search, writer);
+        }
+    }
+
+    public long exportLdif(Search search, LdifWriter writer) throws NamingException, IOException {
+        long count = 0L;
+        try (Stream<Map<String, Object>> entries = stream(search)) {
+            Iterator<Map<String, Object>> iterator = entries.iterator();
+            while (iterator.hasNext()) {
+                writer.writeEntry(iterator.next());
+                count++;
+            }
+        } catch (UncheckedNamingException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Import an LDIF file by a batch. Content records are added, change records are applied.
+     *
+     * @param file the LDIF file
+     * @param concurrency the number of operations in flight
+     * @param checkpoint a file recording the progress, to resume an interrupted import, or null
+     * @return the failed results, with throughput and latency statistics
+     * @throws NamingException if the batch is interrupted
+     * @throws IOException if reading fails or the file is not valid LDIF
+     */
+    public BatchResult importLdif(Path file, int concurrency, Path checkpoint) throws NamingException, IOException {
+        try (LdifReader reader = new LdifReader(FileChannel.open(file, StandardOpenOption.READ))) {
+            return importLdif(reader, concurrency, checkpoint);
+        }
+    }
+
+    /**
+     * Import LDIF records by a batch. Records are read as the workers need them, so memory does not grow with
+     * the number of records. With a checkpoint file, the number of processed records is saved regularly, and
+     * that many records are skipped when the import is started again.
+     *
+     * @param reader the reader
+     * @param concurrency the number of operations in flight
+     * @param checkpoint a file recording the progress, to resume an interrupted import, or null
+     * @return the failed results, with throughput and latency statistics
+     * @throws NamingException if the batch is interrupted
+     * @throws IOException if reading fails or the input is not valid LDIF
+     */
+    public BatchResult importLdif(LdifReader reader, int concurrency, Path checkpoint)
+            throws NamingException, IOException {
+        return new LdifImport(this, reader, concurrency, checkpoint).run();
+    }
+
+    /**
+     * Check the given credentials by binding to the directory. The context used for the check is never pooled,
+     * so the credentials do not mix with the ones of this instance.
+     *
+     * @param bindUser the DN to bind with
+     * @param bindPassword the password
+     * @throws NamingException if the bind fails
+     */
+    public void bind(String bindUser, String bindPassword) throws NamingException {
+        Instrumentation instr = instrumentation;
+        long start = instr != Instrumentation.NOOP ? System.nanoTime() : 0L;
+        LdapContext ctx = null;
+        try {
+            ctx = connect(bindUser, bindPassword);
+            if (instr != Instrumentation.NOOP) {
+                instr.completed(Operation.BIND, System.nanoTime() - start, 0L, 0L);
+            }
+        } catch (NamingException e) {
+            if (instr != Instrumentation.NOOP) {
+                instr.failed(Operation.BIND, System.nanoTime() - start, e);
+            }
+            throw e;
+        } finally {
+            try {
+                if (ctx != null) {
+                    ctx.close();
+                }
+            } catch (NamingException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Create a write-behind buffer which merges the modifications of each DN, see {@link ModificationBuffer}.
+     *
+     * @param maxEntries the number of DNs which triggers a flush
+     * @param flushIntervalMillis the interval of timed flushes in milliseconds, or 0 for no timed flushes
+     * @return the buffer, which must be closed to write the last modifications
+     */
+    public ModificationBuffer modificationBuffer(int maxEntries, long flushIntervalMillis) {
+        return new ModificationBuffer(this, maxEntries, flushIntervalMillis, ModificationBuffer.DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Create a service for checking credentials, with a pool of connections which are bound again for each check.
+     *
+     * @param poolSize the maximum number of connections
+     * @param cacheTtlMillis how long a successful check is remembered in milliseconds, 0 for no cache
+     * @return the authenticator, which must be closed when it is no longer used
+     */
+    public Authenticator authenticator(int poolSize, long cacheTtlMillis) {
+        return new Authenticator(this, poolSize, cacheTtlMillis);
+    }
+
+    /**
+     * Asynchronous facade for this instance. The operations run on virtual threads if the Java runtime
+     * supports them, otherwise on a pool of as many threads as contexts may be pooled.
+     *
+     * @return the asynchronous facade
+     */
+    public synchronized AsyncLDAP async() {
+        if (async == null) {
+            asyncExecutor = AsyncLDAP.createDefaultExecutor(poolSettings.getMaxSize() * Math.max(1, servers.size()));
+            async = new AsyncLDAP(this, asyncExecutor, 0L);
+        }
+        return async;
+    }
+
+    /**
+     * Asynchronous facade for this instance, running the operations on the given executor.
+     *
+     * @param executor the executor
+     * @return the asynchronous facade
+     */
+    public AsyncLDAP async(Executor executor) {
+        return new AsyncLDAP(this, executor, 0L);
+    }
+
+    /**
+     * Close all pooled contexts of this instance, and the default executor of the asynchronous facade.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (asyncExecutor != null) {
+                asyncExecutor.shutdown();
+                asyncExecutor = null;
+                async = null;
+            }
+        }
+        for (ServerNode server : servers) {
+            server.close();
+        }
+    }
+
+    private <T> T performWithContext(Operation operation, WithContext<T> action) throws NamingException {
+        return performWithContext(operation, null, action);
+    }
+
+    private <T> T performWithContext(Operation operation, Tally tally, WithContext<T> action)
+            throws NamingException {
+        return performWithContext(operation, tally,
+                operation != Operation.SEARCH && operation != Operation.EACH_ENTRY, action);
+    }
+
+    /**
+     * Borrow an LDAP context and perform a given task within this context.
+     *
+     * @param <T> parameter type
+     * @param operation the operation, for instrumentation
+     * @param tally the counter of returned entries, or null
+     * @param single true if the task works on a single entry, so its latency is sampled by the concurrency limiter
+     * @param action action
+     * @return an action result
+     * @throws NamingException naming exception
+     */
+    private <T> T performWithContext(Operation operation, Tally tally, boolean single, WithContext<T> action)
+            throws NamingException {
+        if (url == null) {
+            return null;
+        }
+        Instrumentation instr = instrumentation;
+        boolean measured = instr != Instrumentation.NOOP;
+        boolean write = operation.isWrite();
+        ConcurrencyLimiter limiter = concurrencyLimiter;
+        long tried = 0L;
+        int retries = 0;
+        while (true) {
+            Lease lease;
+            try {
+                if (limiter != null) {
+                    limiter.acquire();
+                }
+                try {
+                    lease = acquire(write, tried, true);
+                } catch (NamingException e) {
+                    if (limiter != null) {
+                        limiter.cancel();
+                    }
+                    throw e;
+                }
+            } catch (NamingException e) {
+                if (measured) {
+                    instr.failed(operation, 0L, e);
+                }
+                throw e;
+            }
+            tried = lease.tried;
+            long start = System.nanoTime();
+            boolean reusable = false;
+            try {
+                T result = action.perform(lease.ctx);
+                reusable = true;
+                long nanos = System.nanoTime() - start;
+                lease.server.succeeded(nanos);
+                if (limiter != null) {
+                    limiter.release(single ? operation : null, nanos, null);
+                }
+                if (measured) {
+                    instr.completed(operation, nanos,
+                            tally != null ? tally.entries : 0L, tally != null ? tally.attributes : 0L);
+                }
+                return result;
+            } catch (NamingException e) {
+                long nanos = System.nanoTime() - start;
+                reusable = !ContextPool.isConnectionFailure(e);
+                lease.server.failed(nanos, e);
+                if (limiter != null) {
+                    limiter.release(single ? operation : null, nanos, e);
+                }
+                if (isRetryable(operation) && ServerNode.isServerFailure(e) && hasCandidate(write, tried)) {
+                    logger.log(Level.FINE, "retrying " + operation + " after failure of " + lease.server.getUrl(), e);
+                    continue;
+                }
+                if (limiter == null || !limiter.shouldRetry(e, retries) || (tally != null && tally.entries > 0L)) {
+                    if (measured) {
+                        instr.failed(operation, nanos, e);
+                    }
+                    throw e;
+                }
+                logger.log(Level.FINE, "retrying " + operation + " after overload of " + lease.server.getUrl(), e);
+            } finally {
+                lease.release(reusable);
+            }
+            limiter.backoff(retries++);
+            tried = 0L;
+        }
+    }
+
+    /**
+     * Check if an operation may be retried on another server after it failed. Searches are not retried, because
+     * some entries may have been passed on already.
+     */
+    private static boolean isRetryable(Operation operation) {
+        return operation == Operation.READ || operation == Operation.EXISTS || operation == Operation.COMPARE;
+    }
+
+    private <T> T performWrite(Operation operation, WithContext<T> action, String... dns) throws NamingException {
+        try {
+            return performWithContext(operation, action);
+        } finally {
+            written(dns);
+        }
+    }
+
+    /**
+     * Make a full DN, as returned by the server, relative to the base DN of the URL, as DNs are given to the
+     * methods of this instance.
+     *
+     * @param dn the full DN
+     * @return the DN relative to the base DN, or the DN unchanged if it is not below the base DN
+     */
+    String relativize(String dn) {
+        return DistinguishedNames.relativize(baseName, dn);
+    }
+
+    /**
+     * Make a DN relative to the base DN of the URL, as DNs are given to the methods of this instance, absolute,
+     * as the server compares DNs in filters and attribute values.
+     *
+     * @param dn the DN relative to the base DN
+     * @return the full DN, or the DN unchanged if it already ends with the base DN
+     */
+    String absolutize(String dn) {
+        return DistinguishedNames.absolutize(baseName, dn);
+    }
+
+    /**
+     * Invalidate cached data for written DNs.
+     *
+     * @param dns the DNs
+     */
+    void written(String... dns) {
+        EntryCache entryCache = cache;
+        if (entryCache != null) {
+            for (String dn : dns) {
+                entryCache.invalidate(dn);
+            }
+        }
+    }
+
+    /**
+     * Open a new context to a read server which is not pooled.
+     *
+     * @return the context
+     * @throws NamingException if the context can not be created
+     */
+    LdapContext openContext() throws NamingException {
+        if (url == null) {
+            throw new ConfigurationException("no LDAP URL configured");
+        }
+        return acquire(false, 0L, false).ctx;
+    }
+
+    Instrumentation instrumentation() {
+        return instrumentation;
+    }
+
+    boolean hasServers() {
+        return url != null;
+    }
+
+    /**
+     * Borrow a context from a server, failing over to the next server if one can not be reached.
+     *
+     * @param write true if the context is used for writes
+     * @param tried the servers which must not be used, as a bit set of their indexes
+     * @param pooled true for a pooled context, false for a new one which the caller closes
+     * @return the context with its server
+     * @throws NamingException if no server can provide a context
+     */
+    Lease acquire(boolean write, long tried, boolean pooled) throws NamingException {
+        while (true) {
+            ServerNode server = select(write, tried);
+            tried |= 1L << server.getIndex();
+            try {
+                return new Lease(server, pooled ? server.acquire() : openContext(server), tried);
+            } catch (NamingException e) {
+                if (!ServerNode.isServerFailure(e) || !hasCandidate(write, tried)) {
+                    throw e;
+                }
+                logger.log(Level.FINE, "failing over from " + server.getUrl(), e);
+            }
+        }
+    }
+
+    /**
+     * Select a server. Writes go to a primary. Reads go to a replica and fall back to a primary. Servers which
+     * are down are skipped, except for a probe once in a while. If all candidates are down, the one which is due
+     * first for a probe is taken.
+     *
+     * @param write true for a write
+     * @param tried the servers which must not be used, as a bit set of their indexes
+     * @return the server
+     * @throws ServiceUnavailableException if there is no candidate
+     */
+    ServerNode select(boolean write, long tried) throws ServiceUnavailableException {
+        int n = servers.size();
+        int offset = n > 1 ? Math.floorMod(next.getAndIncrement(), n) : 0;
+        boolean leastOutstanding = loadBalancing == LoadBalancing.LEAST_OUTSTANDING;
+        long now = System.currentTimeMillis();
+        ServerNode best = null;
+        int bestRank = Integer.MAX_VALUE;
+        int bestOutstanding = Integer.MAX_VALUE;
+        ServerNode down = null;
+        for (int i = 0; i < n; i++) {
+            ServerNode server = servers.get((offset + i) % n);
+            if ((tried & (1L << server.getIndex())) != 0L || (write && server.getRole() != ServerNode.Role.PRIMARY)) {
+                continue;
+            }
+            if (server.getState() == ServerNode.State.DOWN) {
+                if (server.claimProbe(now)) {
+                    return server;
+                }
+                if (down == null || server.getOpenUntil() < down.getOpenUntil()) {
+                    down = server;
+                }
+                continue;
+            }
+            int rank = write || server.getRole() == ServerNode.Role.REPLICA ? 0 : 1;
+            int outstanding = leastOutstanding ? server.getOutstanding() : 0;
+            if (rank < bestRank || (rank == bestRank && outstanding < bestOutstanding)) {
+                best = server;
+                bestRank = rank;
+                bestOutstanding = outstanding;
+            }
+        }
+        if (best == null) {
+            best = down;
+        }
+        if (best == null) {
+            throw new ServiceUnavailableException(write ? "no primary server" : "no server left to try");
+        }
+        return best;
+    }
+
+    private boolean hasCandidate(boolean write, long tried) {
+        for (ServerNode server : servers) {
+            if ((tried & (1L << server.getIndex())) == 0L && (!write || server.getRole() == ServerNode.Role.PRIMARY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Open a new context to a read server with the given credentials, failing over to the next server if one
+     * can not be reached.
+     *
+     * @param bindUser the DN to bind with, or null for an anonymous context
+     * @param bindPassword the password
+     * @return the context
+     * @throws NamingException if the context can not be created
+     */
+    LdapContext connect(String bindUser, String bindPassword) throws NamingException {
+        if (url == null) {
+            throw new ConfigurationException("no LDAP URL configured");
+        }
+        long tried = 0L;
+        while (true) {
+            ServerNode server = select(false, tried);
+            tried |= 1L << server.getIndex();
+            try {
+                return new InitialLdapContext(createEnvironment(server.getUrl(), bindUser, bindPassword), null);
+            } catch (NamingException e) {
+                if (!ServerNode.isServerFailure(e)) {
+                    throw e;
+                }
+                server.connectFailed();
+                if (!hasCandidate(false, tried)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the root DSE of a read server. The pooled contexts resolve names below the base DN of the URL, so the
+     * root DSE is read over a new context to the server without the base DN.
+     *
+     * @param attrs the attributes to return
+     * @return the root DSE, or null if no URL is configured
+     * @throws NamingException if the root DSE can not be read
+     */
+    Map<String, Object> readRootDse(String... attrs) throws NamingException {
+        if (url == null) {
+            return null;
+        }
+        ServerNode server = select(false, 0L);
+        LdapContext ctx = new InitialLdapContext(createEnvironment(DistinguishedNames.withoutBase(server.getUrl()),
+                bindUser, bindPassword), null);
+        try {
+            return EntryMapper.DEFAULT.map("", ctx.getAttributes("", attrs));
+        } finally {
+            ctx.close();
+        }
+    }
+
+    private LdapContext openContext(ServerNode server) throws NamingException {
+        Instrumentation instr = instrumentation;
+        long start = instr != Instrumentation.NOOP ? System.nanoTime() : 0L;
+        try {
+            LdapContext ctx = new InitialLdapContext(createEnvironment(server.getUrl(), bindUser, bindPassword), null);
+            if (instr != Instrumentation.NOOP) {
+                instr.connected(System.nanoTime() - start);
+            }
+            return ctx;
+        } catch (NamingException e) {
+            if (ServerNode.isServerFailure(e)) {
+                server.connectFailed();
+            }
+            if (instr != Instrumentation.NOOP) {
+                instr.connectFailed(System.nanoTime() - start, e);
+            }
+            throw e;
+        }
+    }
+
+    static WithContext<Object> addAction(String dn, Map<String, Object> attributes) {
+        return ctx -> {
+            BasicAttributes attrs = new BasicAttributes();
+            boolean fine = logger.isLoggable(Level.FINE);
+            for (Map.Entry<String,Object> entry : attributes.entrySet()) {
+                if (fine) {
+                    logger.log(Level.FINE, MessageFormat.format("entry {0} {1}", entry, entry.getValue().getClass()));
+                }
+                Attribute attr = createAttribute(entry.getKey(), entry.getValue());
+                if (fine) {
+                    logger.log(Level.FINE, MessageFormat.format("attr {0} {1}", attr, attr.get().getClass()));
+                }
+                attrs.put(attr);
+            }
+            ctx.createSubcontext(dn, attrs);
+            return null;
+        };
+    }
+
+    static WithContext<Boolean> existsAction(String dn) {
+        return ctx -> {
+            NamingEnumeration<SearchResult> results;
+            try {
+                results = ctx.search(dn, "(objectClass=*)", EXISTS_CONTROLS);
+            } catch (NameNotFoundException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+                return false;
+            }
+            try {
+                return results.hasMore();
+            } catch (NameNotFoundException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+                return false;
+            } finally {
+                results.close();
+            }
+        };
+    }
+
+    static WithContext<Object> deleteAction(String dn) {
+        return ctx -> {
+            ctx.destroySubcontext(dn);
+            return null;
+        };
+    }
+
+    static WithContext<Object> deleteIfExistsAction(String dn) {
+        return ctx -> {
+            if (!existsAction(dn).perform(ctx)) {
+                throw new NameNotFoundException("Entry " + dn + " does not exist!");
+            }
+            return deleteAction(dn).perform(ctx);
+        };
+    }
+
+    static WithContext<Object> modifyDnAction(String dn, String newRDN, boolean deleteOldRDN, String newSuperior) {
+        return ctx -> {
+            LdapName source = new LdapName(dn);
+            LdapName target = newSuperior != null ? new LdapName(newSuperior)
+                    : new LdapName(source.getRdns().subList(0, Math.max(0, source.size() - 1)));
+            target.add(newRDN);
+            ctx.addToEnvironment("java.naming.ldap.deleteRDN", Boolean.toString(deleteOldRDN));
+            try {
+                ctx.rename(source, target);
+            } finally {
+                ctx.removeFromEnvironment("java.naming.ldap.deleteRDN");
+            }
+            return null;
+        };
+    }
+
+    static WithContext<Object> modifyAction(String dn, ModificationItem[] modItems) {
+        return ctx -> {
+            ctx.modifyAttributes(dn, modItems);
+            return null;
+        };
+    }
+
+    static ModificationItem[] modificationItems(ModificationType modType, Map<String, Object> attributes) {
+        List<ModificationItem> mods = new ArrayList<>();
+        for (String key : attributes.keySet()) {
+            Attribute attr = createAttribute(key, attributes.get(key));
+            ModificationItem item = new ModificationItem(modType.getValue(), attr);
+            mods.add(item);
+        }
+        return mods.toArray(new ModificationItem[mods.size()]);
+    }
+
+    static ModificationItem[] modificationItems(List<List> modificationItem) {
+        List<ModificationItem> mods = new ArrayList<>();
+        for (List pair : modificationItem) {
+            if (pair.size() != 2) {
+                throw new IllegalArgumentException("parameter 2 is not a list of pairs");
+            }
+            Object oModType = pair.get(0);
+            ModificationType modType;
+            if (oModType instanceof ModificationType) {
+                modType = (ModificationType) oModType;
+            } else if (oModType instanceof String) {
+                modType = ModificationType.valueOf((String) oModType);
+            } else {
+                throw new IllegalArgumentException("parameter is not o valid ModificationType: " + oModType);
+            }
+            if (pair.get(1) instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> attributes = (Map<String, Object>) pair.get(1);
+                for (String key : attributes.keySet()) {
+                    Attribute attr = createAttribute(key, attributes.get(key));
+                    ModificationItem item = new ModificationItem(modType.getValue(), attr);
+                    mods.add(item);
+                }
+            }
+        }
+        return mods.toArray(new ModificationItem[mods.size()]);
+    }
+
+    /**
+     * The action of a search which maps the entries found and passes them to a consumer. The sort and virtual
+     * list view controls of the search are sent with the request.
+     *
+     * @param search the search parameters
+     * @param tally the counter of returned entries
+     * @param consumer the consumer of the entries
+     * @return the action, which returns the response controls if request controls were sent
+     */
+    private static WithContext<Control[]> searchAction(Search search, Tally tally,
+                                                       Consumer<Map<String, Object>> consumer) {
+        EntryMapper mapper = search.getMapper();
+        SearchControls searchControls = search.getSearchControls();
+        Control[] requestControls = search.getRequestControls();
+        return withBinaryAttributes(search.getBinaryAttrs(), ctx -> {
+            if (requestControls != null) {
+                ctx.setRequestControls(requestControls);
+            }
+            NamingEnumeration<SearchResult> results = startSearch(ctx, search, searchControls);
+            try {
+                while (results.hasMore()) {
+                    SearchResult sr = results.next();
+                    Attributes attrs = sr.getAttributes();
+                    tally.count(attrs);
+                    consumer.accept(mapper.map(sr.getNameInNamespace(), attrs));
+                }
+            } finally {
+                results.close();
+            }
+            if (requestControls == null) {
+                return null;
+            }
+            Control[] responseControls = ctx.getResponseControls();
+            checkSorted(responseControls);
+            return responseControls;
+        });
+    }
+
+    /**
+     * Check the sort response control, if any, for a failure of server side sorting.
+     *
+     * @param responseControls the response controls, or null
+     * @throws NamingException if the server could not sort the result
+     */
+    static void checkSorted(Control[] responseControls) throws NamingException {
+        if (responseControls != null) {
+            for (Control control : responseControls) {
+                if (control instanceof SortResponseControl && !((SortResponseControl) control).isSorted()) {
+                    throw ((SortResponseControl) control).getException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wrap an action so that the given attributes are returned as byte arrays while it runs.
+     *
+     * @param binaryAttrs the names of the binary attributes, or null
+     * @param action the action
+     * @param <T> the result type
+     * @return the wrapped action
+     */
+    static <T> WithContext<T> withBinaryAttributes(String[] binaryAttrs, WithContext<T> action) {
+        if (binaryAttrs == null || binaryAttrs.length == 0) {
+            return action;
+        }
+        return ctx -> {
+            setBinaryAttributes(ctx, binaryAttrs);
+            try {
+                return action.perform(ctx);
+            } finally {
+                clearBinaryAttributes(ctx, binaryAttrs);
+            }
+        };
+    }
+
+    static void setBinaryAttributes(LdapContext ctx, String[] binaryAttrs) throws NamingException {
+        if (binaryAttrs != null && binaryAttrs.length > 0) {
+            ctx.addToEnvironment(BINARY_ATTRIBUTES, String.join(" ", binaryAttrs));
+        }
+    }
+
+    static void clearBinaryAttributes(LdapContext ctx, String[] binaryAttrs) throws NamingException {
+        if (binaryAttrs != null && binaryAttrs.length > 0) {
+            ctx.removeFromEnvironment(BINARY_ATTRIBUTES);
+        }
+    }
+
+    /**
+     * Start a search. JNDI substitutes {n} in a filter with arguments, so a filter without arguments, like a
+     * rendered {@link Filter}, is passed as it is.
+     *
+     * @param ctx the context
+     * @param search the search parameters
+     * @param searchControls the search controls
+     * @return the results
+     * @throws NamingException if the search fails
+     */
+    static NamingEnumeration<SearchResult> startSearch(LdapContext ctx, Search search, SearchControls searchControls)
+            throws NamingException {
+        return search.getFilterArgs() != null
+                ? ctx.search(search.getBase(), search.getFilter(), search.getFilterArgs(), searchControls)
+                : ctx.search(search.getBase(), search.getFilter(), searchControls);
+    }
+
+    /**
+     * Make a cached entry read-only, including the lists of multi-valued attributes.
+     *
+     * @param entry the entry as returned by the entry mapper
+     * @return the read-only entry
+     */
+    static Map<String, Object> readOnly(Map<String, Object> entry) {
+        try {
+            entry.replaceAll((name, value) -> value instanceof List ? Collections.unmodifiableList((List<?>) value) : value);
+        } catch (UnsupportedOperationException e) {
+            // the entry mapper made the values read-only already
+            logger.log(Level.FINEST, e.getMessage(), e);
+        }
+        return Collections.unmodifiableMap(entry);
+    }
+
+    private static Properties createEnvironment(String url, String bindUser, String bindPassword) {
+        Properties env = new Properties();
+        env.setProperty(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+        env.setProperty(Context.PROVIDER_URL, url);
+        if (bindUser != null) {
+            env.setProperty(Context.SECURITY_PRINCIPAL, bindUser);
+            env.setProperty(Context.SECURITY_CREDENTIALS, bindPassword);
+        }
+        return env;
+    }
+
+    private static Attribute createAttribute(String name, Object value) {
+        Attribute attr = new BasicAttribute(name);
+        if (value instanceof Collection) {
+            Collection<?> values = (Collection<?>) value;
+            for (Object val : values) {
+                attr.add(val);
+            }
+        } else {
+            attr.add(value);
+        }
+        return attr;
+    }
+
+    /**
+     * Escape a value for use in a search filter.
+     *
+     * @param filter the value
+     * @return the escaped value, or the value itself if nothing needs escaping
+     * @see Filter
+     */
+    public static String escapeValue(String filter) {
+        return Filter.escape(filter);
+    }
 }
@@ -0,0 +1,122 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Imports the records of an LDIF reader by a batch, see {@link LDAP#importLdif(LdifReader, int, Path)}.
+ *
+ * The checkpoint file holds the number of leading records which are processed. Records complete out of order,
+ * so only the records up to the first one still in flight count; on resume, records after it may be applied
+ * a second time.
+ */
+final class LdifImport {
+
+    private static final long CHECKPOINT_INTERVAL = 1000L;
+
+    private final LDAP ldap;
+
+    private final LdifReader reader;
+
+    private final int concurrency;
+
+    private final Path checkpoint;
+
+    private final Set<Long> completed;
+
+    private long skipped;
+
+    private long watermark;
+
+    private long saved;
+
+    private volatile IOException failure;
+
+    LdifImport(LDAP ldap, LdifReader reader, int concurrency, Path checkpoint) {
+        this.ldap = ldap;
+        this.reader = reader;
+        this.concurrency = concurrency;
+        this.checkpoint = checkpoint;
+        this.completed = new HashSet<>();
+    }
+
+    BatchResult run() throws NamingException, IOException {
+        if (checkpoint != null && Files.exists(checkpoint)) {
+            long done = Long.parseLong(new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII).trim());
+            skipped = reader.skip(done);
+        }
+        BatchResult result = ldap.batch(new Records(), concurrency, this::completed);
+        if (failure != null) {
+            throw failure;
+        }
+        save(skipped + watermark);
+        return result;
+    }
+
+    private synchronized void completed(BatchItemResult result) {
+        long index = result.getIndex();
+        if (index != watermark) {
+            completed.add(index);
+            return;
+        }
+        watermark++;
+        while (completed.remove(watermark)) {
+            watermark++;
+        }
+        if (watermark - saved >= CHECKPOINT_INTERVAL) {
+            try {
+                save(skipped + watermark);
+                saved = watermark;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private void save(long count) throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(tmp, Long.toString(count).getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The operations of the records, ending early on a read failure.
+     */
+    private final class Records implements Iterator<BatchOperation> {
+
+        private LdifRecord next;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && failure == null) {
+                try {
+                    next = reader.read();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public BatchOperation next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            LdifRecord record = next;
+            next = null;
+            return record.toOperation();
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads LDIF records, see RFC 2849, one at a time. Base64 values are decoded to strings if they are valid UTF-8,
+ * otherwise to byte arrays. Values of attributes with the binary option and of attributes declared binary are
+ * always byte arrays.
+ * Values given by file URLs are read as byte arrays. Controls of change records are ignored.
+ */
+public class LdifReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final BufferedReader reader;
+
+    private final List<String> binaryAttrs;
+
+    private String pending;
+
+    private long lineNumber;
+
+    private long count;
+
+    public LdifReader(Reader reader) {
+        this(reader, new String[0]);
+    }
+
+    /**
+     * Create a reader.
+     *
+     * @param reader the reader
+     * @param binaryAttrs the names of attributes whose base64 values are returned as byte arrays
+     */
+    public LdifReader(Reader reader, String... binaryAttrs) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader, BUFFER_SIZE);
+        this.binaryAttrs = new ArrayList<>();
+        for (String attr : binaryAttrs) {
+            this.binaryAttrs.add(attr.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    public LdifReader(ReadableByteChannel channel, String... binaryAttrs) {
+        this(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), BUFFER_SIZE), binaryAttrs);
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the record, or null at the end of the input
+     * @throws IOException if reading fails or the input is not valid LDIF
+     */
+    public LdifRecord read() throws IOException {
+        List<String[]> lines = new ArrayList<>();
+        String line;
+        while ((line = readLine()) != null) {
+            if (line.isEmpty()) {
+                if (!lines.isEmpty()) {
+                    break;
+                }
+                continue;
+            }
+            String[] pair = split(line);
+            if (lines.isEmpty() && count == 0L && "version".equalsIgnoreCase(pair[0])) {
+                if (!"1".equals(pair[1])) {
+                    throw error("unsupported LDIF version " + pair[1]);
+                }
+                continue;
+            }
+            lines.add(pair);
+        }
+        if (lines.isEmpty()) {
+            return null;
+        }
+        count++;
+        return parse(lines);
+    }
+
+    /**
+     * Skip records, for example to resume an import.
+     *
+     * @param n the number of records to skip
+     * @return the number of records skipped, less than n at the end of the input
+     * @throws IOException if reading fails or the input is not valid LDIF
+     */
+    public long skip(long n) throws IOException {
+        long skipped = 0L;
+        while (skipped < n && read() != null) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * Get the number of records read.
+     *
+     * @return the number of records
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The remaining records as a stream. Failures are thrown as {@link UncheckedIOException}.
+     *
+     * @return the stream of records
+     */
+    public Stream<LdifRecord> stream() {
+        Iterator<LdifRecord> iterator = new Iterator<LdifRecord>() {
+
+            private LdifRecord next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = read();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public LdifRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                LdifRecord record = next;
+                next = null;
+                return record;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Read a logical line, with continuation lines unfolded and comments skipped.
+     */
+    private String readLine() throws IOException {
+        String line = pending != null ? pending : nextPhysicalLine();
+        pending = null;
+        while (line != null && line.startsWith("#")) {
+            line = nextPhysicalLine();
+            while (line != null && line.startsWith(" ")) {
+                line = nextPhysicalLine();
+            }
+        }
+        if (line == null) {
+            return null;
+        }
+        StringBuilder sb = null;
+        String next;
+        while ((next = nextPhysicalLine()) != null && next.startsWith(" ")) {
+            if (sb == null) {
+                sb = new StringBuilder(line);
+            }
+            sb.append(next, 1, next.length());
+        }
+        pending = next;
+        return sb != null ? sb.toString() : line;
+    }
+
+    private String nextPhysicalLine() throws IOException {
+        String line = reader.readLine();
+        if (line != null) {
+            lineNumber++;
+        }
+        return line;
+    }
+
+    /**
+     * Split a line into the attribute description, the value text, and the kind of value: empty for a plain
+     * value, ":" for a base64 value and "<" for a URL.
+     */
+    private String[] split(String line) throws IOException {
+        if ("-".equals(line)) {
+            return new String[] { "-", null, null };
+        }
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+            throw error("missing attribute description");
+        }
+        String name = line.substring(0, colon);
+        String kind = "";
+        int start = colon + 1;
+        if (start < line.length() && (line.charAt(start) == ':' || line.charAt(start) == '<')) {
+            kind = line.substring(start, start + 1);
+            start++;
+        }
+        while (start < line.length() && line.charAt(start) == ' ') {
+            start++;
+        }
+        return new String[] { name, line.substring(start), kind };
+    }
+
+    private Object value(String[] pair) throws IOException {
+        String name = pair[0];
+        String text = pair[1];
+        if ("<".equals(pair[2])) {
+            if (!text.startsWith("file:")) {
+                throw error("unsupported URL " + text);
+            }
+            try (InputStream in = new URL(text).openStream()) {
+                return in.readAllBytes();
+            }
+        }
+        if (!":".equals(pair[2])) {
+            return text;
+        }
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(WHITESPACE.matcher(text).replaceAll(""));
+        } catch (IllegalArgumentException e) {
+            throw error("invalid base64 value of " + name);
+        }
+        if (isBinary(name)) {
+            return bytes;
+        }
+        try {
+            return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+        } catch (CharacterCodingException e) {
+            return bytes;
+        }
+    }
+
+    private boolean isBinary(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(";binary")) {
+            return true;
+        }
+        int semicolon = lower.indexOf(';');
+        return binaryAttrs.contains(semicolon < 0 ? lower : lower.substring(0, semicolon));
+    }
+
+    private String string(String[] pair) throws IOException {
+        Object value = value(pair);
+        return value instanceof byte[] ? new String((byte[]) value, StandardCharsets.UTF_8) : (String) value;
+    }
+
+    private LdifRecord parse(List<String[]> lines) throws IOException {
+        String[] first = lines.get(0);
+        if (!"dn".equalsIgnoreCase(first[0])) {
+            throw error("record does not start with dn");
+        }
+        String dn = string(first);
+        int i = 1;
+        while (i < lines.size() && "control".equalsIgnoreCase(lines.get(i)[0])) {
+            i++;
+        }
+        if (i < lines.size() && "changetype".equalsIgnoreCase(lines.get(i)[0])) {
+            String changeType = lines.get(i)[1].toLowerCase(Locale.ROOT);
+            List<String[]> rest = lines.subList(i + 1, lines.size());
+            switch (changeType) {
+                case "add":
+                    return LdifRecord.add(dn, attributes(rest));
+                case "delete":
+                    return LdifRecord.delete(dn);
+                case "modify":
+                    return LdifRecord.modify(dn, modifications(rest));
+                case "modrdn":
+                case "moddn":
+                    return modifyDn(dn, rest);
+                default:
+                    throw error("unknown changetype " + changeType);
+            }
+        }
+        return LdifRecord.content(dn, attributes(lines.subList(1, lines.size())));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> attributes(List<String[]> lines) throws IOException {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        for (String[] pair : lines) {
+            Object value = value(pair);
+            Object previous = attributes.get(pair[0]);
+            if (previous == null) {
+                attributes.put(pair[0], value);
+            } else if (previous instanceof List) {
+                ((List<Object>) previous).add(value);
+            } else {
+                List<Object> values = new ArrayList<>();
+                values.add(previous);
+                values.add(value);
+                attributes.put(pair[0], values);
+            }
+        }
+        return attributes;
+    }
+
+    private ModificationItem[] modifications(List<String[]> lines) throws IOException {
+        List<ModificationItem> items = new ArrayList<>();
+        int i = 0;
+        while (i < lines.size()) {
+            String[] op = lines.get(i++);
+            int modOp;
+            switch (op[0].toLowerCase(Locale.ROOT)) {
+                case "add":
+                    modOp = DirContext.ADD_ATTRIBUTE;
+                    break;
+                case "delete":
+                    modOp = DirContext.REMOVE_ATTRIBUTE;
+                    break;
+                case "replace":
+                    modOp = DirContext.REPLACE_ATTRIBUTE;
+                    break;
+                default:
+                    throw error("unknown modification " + op[0]);
+            }
+            BasicAttribute attr = new BasicAttribute(op[1]);
+            while (i < lines.size() && !"-".equals(lines.get(i)[0])) {
+                String[] pair = lines.get(i++);
+                if (!pair[0].equalsIgnoreCase(op[1])) {
+                    throw error("attribute " + pair[0] + " does not match modification of " + op[1]);
+                }
+                attr.add(value(pair));
+            }
+            i++;
+            items.add(new ModificationItem(modOp, attr));
+        }
+        return items.toArray(new ModificationItem[0]);
+    }
+
+    private LdifRecord modifyDn(String dn, List<String[]> lines) throws IOException {
+        String newRDN = null;
+        boolean deleteOldRDN = false;
+        String newSuperior = null;
+        for (String[] pair : lines) {
+            switch (pair[0].toLowerCase(Locale.ROOT)) {
+                case "newrdn":
+                    newRDN = string(pair);
+                    break;
+                case "deleteoldrdn":
+                    deleteOldRDN = "1".equals(pair[1]);
+                    break;
+                case "newsuperior":
+                    newSuperior = string(pair);
+                    break;
+                default:
+                    throw error("unexpected " + pair[0] + " in modrdn record");
+            }
+        }
+        if (newRDN == null) {
+            throw error("missing newrdn");
+        }
+        return LdifRecord.modifyDn(dn, newRDN, deleteOldRDN, newSuperior);
+    }
+
+    private IOException error(String message) {
+        return new IOException("LDIF line " + lineNumber + ": " + message);
+    }
+}
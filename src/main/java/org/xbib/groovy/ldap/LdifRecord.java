@@ -0,0 +1,123 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.directory.ModificationItem;
+import java.util.Map;
+
+/**
+ * A record of an LDIF file, see RFC 2849: either the content of an entry, or a change.
+ */
+public class LdifRecord {
+
+    /**
+     * The kinds of LDIF records.
+     */
+    public enum ChangeType {
+        CONTENT, ADD, DELETE, MODIFY, MODIFY_DN
+    }
+
+    private final ChangeType changeType;
+
+    private final String dn;
+
+    private final Map<String, Object> attributes;
+
+    private final ModificationItem[] modificationItems;
+
+    private final String newRDN;
+
+    private final boolean deleteOldRDN;
+
+    private final String newSuperior;
+
+    private LdifRecord(ChangeType changeType, String dn, Map<String, Object> attributes,
+                       ModificationItem[] modificationItems, String newRDN, boolean deleteOldRDN, String newSuperior) {
+        this.changeType = changeType;
+        this.dn = dn;
+        this.attributes = attributes;
+        this.modificationItems = modificationItems;
+        this.newRDN = newRDN;
+        this.deleteOldRDN = deleteOldRDN;
+        this.newSuperior = newSuperior;
+    }
+
+    /**
+     * The content of an entry. The DN may be given under the key "dn" of the attributes, which is ignored.
+     *
+     * @param dn the DN
+     * @param attributes the attributes, values are strings, byte arrays or collections of these
+     * @return the record
+     */
+    public static LdifRecord content(String dn, Map<String, Object> attributes) {
+        return new LdifRecord(ChangeType.CONTENT, dn, attributes, null, null, false, null);
+    }
+
+    public static LdifRecord add(String dn, Map<String, Object> attributes) {
+        return new LdifRecord(ChangeType.ADD, dn, attributes, null, null, false, null);
+    }
+
+    public static LdifRecord delete(String dn) {
+        return new LdifRecord(ChangeType.DELETE, dn, null, null, null, false, null);
+    }
+
+    public static LdifRecord modify(String dn, ModificationItem[] modificationItems) {
+        return new LdifRecord(ChangeType.MODIFY, dn, null, modificationItems, null, false, null);
+    }
+
+    public static LdifRecord modifyDn(String dn, String newRDN, boolean deleteOldRDN, String newSuperior) {
+        return new LdifRecord(ChangeType.MODIFY_DN, dn, null, null, newRDN, deleteOldRDN, newSuperior);
+    }
+
+    public ChangeType getChangeType() {
+        return changeType;
+    }
+
+    public String getDn() {
+        return dn;
+    }
+
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    public ModificationItem[] getModificationItems() {
+        return modificationItems;
+    }
+
+    public String getNewRDN() {
+        return newRDN;
+    }
+
+    public boolean isDeleteOldRDN() {
+        return deleteOldRDN;
+    }
+
+    public String getNewSuperior() {
+        return newSuperior;
+    }
+
+    /**
+     * Convert this record to a batch operation. Content records are added.
+     *
+     * @return the operation
+     */
+    public BatchOperation toOperation() {
+        switch (changeType) {
+            case CONTENT:
+            case ADD:
+                return BatchOperation.add(dn, attributes);
+            case DELETE:
+                return BatchOperation.delete(dn);
+            case MODIFY:
+                return BatchOperation.modify(dn, modificationItems);
+            case MODIFY_DN:
+                return BatchOperation.modifyDn(dn, newRDN, deleteOldRDN, newSuperior);
+            default:
+                throw new IllegalStateException("unknown change type " + changeType);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return changeType + " " + dn;
+    }
+}
@@ -0,0 +1,206 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes LDIF records, see RFC 2849. Values which are not safe strings, such as binary values and values with
+ * characters outside of US-ASCII, are written in base64. Lines are folded after 76 characters.
+ */
+public class LdifWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int LINE_LENGTH = 76;
+
+    private final Writer writer;
+
+    private boolean first;
+
+    private long count;
+
+    public LdifWriter(Writer writer) {
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, BUFFER_SIZE);
+        this.first = true;
+    }
+
+    public LdifWriter(WritableByteChannel channel) {
+        this(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE));
+    }
+
+    /**
+     * Write an entry as returned by a search, with the DN under the key "dn".
+     *
+     * @param entry the entry
+     * @throws IOException if writing fails
+     */
+    public void writeEntry(Map<String, Object> entry) throws IOException {
+        write(LdifRecord.content((String) entry.get("dn"), entry));
+    }
+
+    /**
+     * Write a record.
+     *
+     * @param record the record
+     * @throws IOException if writing fails
+     */
+    public void write(LdifRecord record) throws IOException {
+        if (first) {
+            writer.write("version: 1\n");
+            first = false;
+        }
+        writer.write('\n');
+        writeLine("dn", record.getDn());
+        switch (record.getChangeType()) {
+            case CONTENT:
+                writeAttributes(record.getAttributes());
+                break;
+            case ADD:
+                writer.write("changetype: add\n");
+                writeAttributes(record.getAttributes());
+                break;
+            case DELETE:
+                writer.write("changetype: delete\n");
+                break;
+            case MODIFY:
+                writer.write("changetype: modify\n");
+                writeModifications(record.getModificationItems());
+                break;
+            case MODIFY_DN:
+                writer.write("changetype: modrdn\n");
+                writeLine("newrdn", record.getNewRDN());
+                writer.write(record.isDeleteOldRDN() ? "deleteoldrdn: 1\n" : "deleteoldrdn: 0\n");
+                if (record.getNewSuperior() != null) {
+                    writeLine("newsuperior", record.getNewSuperior());
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown change type " + record.getChangeType());
+        }
+        count++;
+    }
+
+    /**
+     * Get the number of records written.
+     *
+     * @return the number of records
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeAttributes(Map<String, Object> attributes) throws IOException {
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            if (!"dn".equals(attribute.getKey())) {
+                writeValues(attribute.getKey(), attribute.getValue());
+            }
+        }
+    }
+
+    private void writeValues(String name, Object value) throws IOException {
+        if (value instanceof Collection) {
+            for (Object v : (Collection<?>) value) {
+                writeLine(name, v);
+            }
+        } else if (value != null) {
+            writeLine(name, value);
+        }
+    }
+
+    private void writeModifications(ModificationItem[] items) throws IOException {
+        for (ModificationItem item : items) {
+            Attribute attr = item.getAttribute();
+            String op;
+            switch (item.getModificationOp()) {
+                case DirContext.ADD_ATTRIBUTE:
+                    op = "add";
+                    break;
+                case DirContext.REMOVE_ATTRIBUTE:
+                    op = "delete";
+                    break;
+                default:
+                    op = "replace";
+                    break;
+            }
+            writeLine(op, attr.getID());
+            try {
+                for (int i = 0; i < attr.size(); i++) {
+                    writeLine(attr.getID(), attr.get(i));
+                }
+            } catch (NamingException e) {
+                throw new IOException(e);
+            }
+            writer.write("-\n");
+        }
+    }
+
+    private void writeLine(String name, Object value) throws IOException {
+        String text;
+        boolean base64;
+        if (value instanceof byte[]) {
+            text = Base64.getEncoder().encodeToString((byte[]) value);
+            base64 = true;
+        } else {
+            String s = value.toString();
+            base64 = !isSafe(s);
+            text = base64 ? Base64.getEncoder().encodeToString(s.getBytes(StandardCharsets.UTF_8)) : s;
+        }
+        writer.write(name);
+        writer.write(base64 ? ":: " : ": ");
+        int column = name.length() + (base64 ? 3 : 2);
+        int pos = 0;
+        int length = text.length();
+        while (pos < length) {
+            int chunk = Math.min(length - pos, Math.max(1, LINE_LENGTH - column));
+            writer.write(text, pos, chunk);
+            pos += chunk;
+            if (pos < length) {
+                writer.write("\n ");
+                column = 1;
+            }
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Check if a value is a SAFE-STRING of RFC 2849 which does not end with a space.
+     */
+    static boolean isSafe(String value) {
+        int length = value.length();
+        if (length == 0) {
+            return true;
+        }
+        char c = value.charAt(0);
+        if (c == ' ' || c == ':' || c == '<' || value.charAt(length - 1) == ' ') {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            c = value.charAt(i);
+            if (c == 0 || c == '\n' || c == '\r' || c > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
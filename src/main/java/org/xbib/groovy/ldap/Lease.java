@@ -0,0 +1,25 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.ldap.LdapContext;
+
+/**
+ * A context borrowed from a server, together with the servers tried to get it.
+ */
+final class Lease {
+
+    final ServerNode server;
+
+    final LdapContext ctx;
+
+    final long tried;
+
+    Lease(ServerNode server, LdapContext ctx, long tried) {
+        this.server = server;
+        this.ctx = ctx;
+        this.tried = tried;
+    }
+
+    void release(boolean reusable) {
+        server.release(ctx, reusable);
+    }
+}
@@ -0,0 +1,17 @@
+package org.xbib.groovy.ldap;
+
+/**
+ * The ways of spreading reads over the available servers of an {@link LDAP} instance.
+ */
+public enum LoadBalancing {
+
+    /**
+     * Take the servers in turn.
+     */
+    ROUND_ROBIN,
+
+    /**
+     * Take the server with the fewest requests in flight, in turn among equally loaded ones.
+     */
+    LEAST_OUTSTANDING
+}
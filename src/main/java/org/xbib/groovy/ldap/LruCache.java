@@ -0,0 +1,155 @@
+package org.xbib.groovy.ldap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, thread-safe map with least-recently-used eviction and a time to live for each value.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+class LruCache<K, V> {
+
+    private final int maxSize;
+
+    private final long ttlMillis;
+
+    private final LinkedHashMap<K, Expiring<V>> map;
+
+    private final AtomicLong hits;
+
+    private final AtomicLong misses;
+
+    private final AtomicLong evictions;
+
+    LruCache(int maxSize, long ttlMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.map = new LinkedHashMap<>(16, 0.75f, true);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    V get(K key) {
+        long now = System.currentTimeMillis();
+        synchronized (map) {
+            Expiring<V> value = map.get(key);
+            if (value != null) {
+                if (value.expires > now) {
+                    hits.incrementAndGet();
+                    return value.value;
+                }
+                map.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    void put(K key, V value) {
+        Expiring<V> expiring = new Expiring<>(value, System.currentTimeMillis() + ttlMillis);
+        synchronized (map) {
+            map.put(key, expiring);
+            if (map.size() > maxSize) {
+                Iterator<K> eldest = map.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Get the value of a key, or put a new value if there is none, in one step.
+     *
+     * @param key the key
+     * @param supplier the supplier of the new value
+     * @return the value
+     */
+    V computeIfAbsent(K key, Supplier<V> supplier) {
+        long now = System.currentTimeMillis();
+        synchronized (map) {
+            Expiring<V> value = map.get(key);
+            if (value != null && value.expires > now) {
+                hits.incrementAndGet();
+                return value.value;
+            }
+            misses.incrementAndGet();
+            V created = supplier.get();
+            put(key, created);
+            return created;
+        }
+    }
+
+    void remove(K key) {
+        synchronized (map) {
+            map.remove(key);
+        }
+    }
+
+    /**
+     * Remove all values with matching keys.
+     *
+     * @param predicate the predicate for the keys to remove
+     * @return the number of removed values
+     */
+    int removeIf(Predicate<K> predicate) {
+        int removed = 0;
+        synchronized (map) {
+            Iterator<Map.Entry<K, Expiring<V>>> it = map.entrySet().iterator();
+            while (it.hasNext()) {
+                if (predicate.test(it.next().getKey())) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    void clear() {
+        synchronized (map) {
+            map.clear();
+        }
+    }
+
+    int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private static final class Expiring<V> {
+
+        private final V value;
+
+        private final long expires;
+
+        private Expiring(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@link Instrumentation} which keeps latency histograms per operation, connect latencies, the number of
+ * returned entries and attributes, and failure counts by exception type.
+ */
+public class MetricsInstrumentation implements Instrumentation {
+
+    private final LatencyHistogram connects;
+
+    private final LongAdder connectFailures;
+
+    private final Map<Operation, LatencyHistogram> latencies;
+
+    private final LongAdder entries;
+
+    private final LongAdder attributes;
+
+    private final Map<String, LongAdder> failures;
+
+    public MetricsInstrumentation() {
+        this.connects = new LatencyHistogram();
+        this.connectFailures = new LongAdder();
+        this.latencies = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+        this.entries = new LongAdder();
+        this.attributes = new LongAdder();
+        this.failures = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void connected(long nanos) {
+        connects.record(nanos);
+    }
+
+    @Override
+    public void connectFailed(long nanos, NamingException failure) {
+        connectFailures.increment();
+    }
+
+    @Override
+    public void completed(Operation operation, long nanos, long entries, long attributes) {
+        latencies.get(operation).record(nanos);
+        this.entries.add(entries);
+        this.attributes.add(attributes);
+    }
+
+    @Override
+    public void failed(Operation operation, long nanos, NamingException failure) {
+        latencies.get(operation).record(nanos);
+        failures.computeIfAbsent(failure.getClass().getSimpleName(), key -> new LongAdder()).increment();
+    }
+
+    /**
+     * The latencies of connect and bind for new contexts.
+     * @return the histogram
+     */
+    public LatencyHistogram getConnectLatency() {
+        return connects;
+    }
+
+    public long getConnectFailureCount() {
+        return connectFailures.sum();
+    }
+
+    /**
+     * The latencies of an operation, successful or not.
+     * @param operation the operation
+     * @return the histogram
+     */
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    public long getEntryCount() {
+        return entries.sum();
+    }
+
+    public long getAttributeCount() {
+        return attributes.sum();
+    }
+
+    /**
+     * The number of failures by the simple class name of the exception, for example NameNotFoundException.
+     * @return the failure counts
+     */
+    public Map<String, Long> getFailureCounts() {
+        Map<String, Long> map = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : failures.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().sum());
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("connect ").append(connects).append('\n');
+        for (Map.Entry<Operation, LatencyHistogram> entry : latencies.entrySet()) {
+            if (entry.getValue().getCount() > 0L) {
+                sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+            }
+        }
+        sb.append("entries=").append(getEntryCount()).append(" attributes=").append(getAttributeCount())
+                .append(" failures=").append(getFailureCounts());
+        return sb.toString();
+    }
+}
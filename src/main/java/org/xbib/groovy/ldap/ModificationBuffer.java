@@ -0,0 +1,402 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A write-behind buffer of modifications. Modifications are collected per DN and merged per attribute, and
+ * written as one modify request per DN when the buffer is flushed: when it holds the maximum number of DNs, when
+ * the flush interval has passed, or on {@link #commit()}.
+ *
+ * Merging follows the LDAP semantics of applying the modifications in order, assuming each of them would succeed:
+ * a replace overrides earlier changes of the attribute, values added to or deleted from a replaced attribute
+ * change the replacement, and a value which is added and then deleted, or deleted and then added again, is not
+ * written at all. So a merged modification may succeed where the separate ones would have failed, for example
+ * when adding a value which exists, but never leaves the entry in a different state.
+ *
+ * Flushes do not overlap, so the modifications of a DN reach the server in the order they were made. Adds,
+ * deletes and renames are not buffered: call {@link #commit()} before them if they depend on buffered changes.
+ *
+ * <pre>
+ * ldap.modificationBuffer(1000, 500).withCloseable { buffer -&gt;
+ *     buffer.modify(dn, ModificationType.REPLACE, [description: 'x'])
+ *     buffer.modify(dn, ModificationType.ADD, [mail: 'jdoe@example.com'])
+ * }
+ * </pre>
+ */
+public class ModificationBuffer implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(ModificationBuffer.class.getName());
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final LDAP ldap;
+
+    private final int maxEntries;
+
+    private final int concurrency;
+
+    private final Object flushLock;
+
+    private final ScheduledExecutorService scheduler;
+
+    private Map<String, Changes> pending;
+
+    private volatile Consumer<BatchItemResult> failureListener;
+
+    private boolean closed;
+
+    /**
+     * Create a buffer.
+     *
+     * @param ldap the LDAP instance to write to
+     * @param maxEntries the number of DNs which triggers a flush
+     * @param flushIntervalMillis the interval of timed flushes in milliseconds, or 0 for no timed flushes
+     * @param concurrency the number of DNs written at once during a flush
+     */
+    public ModificationBuffer(LDAP ldap, int maxEntries, long flushIntervalMillis, int concurrency) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        if (flushIntervalMillis < 0L) {
+            throw new IllegalArgumentException("flushIntervalMillis must not be negative: " + flushIntervalMillis);
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        }
+        this.ldap = ldap;
+        this.maxEntries = maxEntries;
+        this.concurrency = concurrency;
+        this.flushLock = new Object();
+        this.pending = new LinkedHashMap<>();
+        if (flushIntervalMillis > 0L) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                    AsyncLDAP.daemonThreadFactory("groovy-ldap-buffer-"));
+            scheduler.scheduleWithFixedDelay(this::timedFlush, flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Set the listener for failed modifications of flushes which are not triggered by {@link #commit()}. Without
+     * a listener, the failures are logged.
+     *
+     * @param failureListener the listener, called from the flushing thread
+     */
+    public void setFailureListener(Consumer<BatchItemResult> failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    public void modify(String dn, String modType, Map<String, Object> attributes) throws NamingException {
+        modify(dn, ModificationType.valueOf(modType), attributes);
+    }
+
+    public void modify(String dn, ModificationType modType, Map<String, Object> attributes) throws NamingException {
+        modify(dn, LDAP.modificationItems(modType, attributes));
+    }
+
+    public void modify(String dn, List<List> modificationItem) throws NamingException {
+        modify(dn, LDAP.modificationItems(modificationItem));
+    }
+
+    /**
+     * Buffer modifications of an entry.
+     *
+     * @param dn the DN of the entry
+     * @param modificationItems the modifications
+     * @throws NamingException if the buffer is full and the flush fails as a whole
+     */
+    public void modify(String dn, ModificationItem[] modificationItems) throws NamingException {
+        Objects.requireNonNull(dn, "dn");
+        boolean full;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("modification buffer is closed");
+            }
+            Changes changes = pending.computeIfAbsent(DistinguishedNames.normalize(dn), key -> new Changes(dn));
+            for (ModificationItem item : modificationItems) {
+                changes.merge(item);
+            }
+            full = pending.size() >= maxEntries;
+        }
+        if (full) {
+            report(flush());
+        }
+    }
+
+    /**
+     * Write all buffered modifications and wait for them.
+     *
+     * @return the result, with one operation per modified DN
+     * @throws NamingException if the flush is interrupted
+     */
+    public BatchResult commit() throws NamingException {
+        return flush();
+    }
+
+    /**
+     * Drop all buffered modifications.
+     *
+     * @return the number of DNs whose modifications were dropped
+     */
+    public synchronized int discard() {
+        int size = pending.size();
+        pending = new LinkedHashMap<>();
+        return size;
+    }
+
+    /**
+     * Get the number of DNs with buffered modifications.
+     *
+     * @return the number of DNs
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stop timed flushes and write the buffered modifications.
+     *
+     * @throws NamingException if the flush is interrupted
+     */
+    @Override
+    public void close() throws NamingException {
+        synchronized (this) {
+            closed = true;
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        report(flush());
+    }
+
+    /**
+     * Get the merged modifications buffered for a DN.
+     *
+     * @param dn the DN
+     * @return the modifications, or null if there are none
+     */
+    synchronized ModificationItem[] getPending(String dn) {
+        Changes changes = pending.get(DistinguishedNames.normalize(dn));
+        return changes != null ? changes.toItems() : null;
+    }
+
+    private BatchResult flush() throws NamingException {
+        synchronized (flushLock) {
+            Map<String, Changes> changes;
+            synchronized (this) {
+                changes = pending;
+                pending = new LinkedHashMap<>();
+            }
+            List<BatchOperation> operations = new ArrayList<>(changes.size());
+            for (Changes change : changes.values()) {
+                ModificationItem[] items = change.toItems();
+                if (items.length > 0) {
+                    operations.add(BatchOperation.modify(change.dn, items));
+                }
+            }
+            if (operations.isEmpty()) {
+                return new BatchResult(new ArrayList<>(), new ArrayList<>(), 0L, 0L, new LatencyHistogram());
+            }
+            return ldap.batch(operations, Math.min(concurrency, operations.size()));
+        }
+    }
+
+    private void timedFlush() {
+        try {
+            report(flush());
+        } catch (NamingException | RuntimeException e) {
+            logger.log(Level.WARNING, "timed flush failed: " + e.getMessage(), e);
+        }
+    }
+
+    private void report(BatchResult result) {
+        Consumer<BatchItemResult> listener = failureListener;
+        for (BatchItemResult failure : result.getFailures()) {
+            if (listener != null) {
+                listener.accept(failure);
+            } else {
+                logger.log(Level.WARNING, "buffered modification of " + failure.getOperation().getDn() + " failed",
+                        failure.getFailure());
+            }
+        }
+    }
+
+    /**
+     * The merged modifications of one DN, by attribute in the order the attributes were first modified.
+     */
+    private static final class Changes {
+
+        private final String dn;
+
+        private final Map<String, AttributeChange> attributes;
+
+        private Changes(String dn) {
+            this.dn = dn;
+            this.attributes = new LinkedHashMap<>();
+        }
+
+        private void merge(ModificationItem item) {
+            Attribute attribute = item.getAttribute();
+            List<Object> values = new ArrayList<>(attribute.size());
+            try {
+                NamingEnumeration<?> all = attribute.getAll();
+                while (all.hasMore()) {
+                    values.add(all.next());
+                }
+            } catch (NamingException e) {
+                throw new IllegalArgumentException("unreadable values of " + attribute.getID(), e);
+            }
+            attributes.computeIfAbsent(attribute.getID().toLowerCase(Locale.ROOT),
+                    key -> new AttributeChange(attribute.getID())).merge(item.getModificationOp(), values);
+        }
+
+        private ModificationItem[] toItems() {
+            List<ModificationItem> items = new ArrayList<>();
+            for (AttributeChange change : attributes.values()) {
+                change.toItems(items);
+            }
+            return items.toArray(new ModificationItem[0]);
+        }
+    }
+
+    /**
+     * The merged modifications of one attribute: a replacement, a removal of all values, or values to remove
+     * and values to add.
+     */
+    private static final class AttributeChange {
+
+        private final String id;
+
+        private List<Object> replacement;
+
+        private boolean removeAll;
+
+        private final List<Object> removes;
+
+        private final List<Object> adds;
+
+        private AttributeChange(String id) {
+            this.id = id;
+            this.removes = new ArrayList<>();
+            this.adds = new ArrayList<>();
+        }
+
+        private void merge(int op, List<Object> values) {
+            if (op == DirContext.REPLACE_ATTRIBUTE) {
+                replacement = new ArrayList<>(values);
+                removeAll = false;
+                removes.clear();
+                adds.clear();
+            } else if (op == DirContext.ADD_ATTRIBUTE) {
+                if (replacement != null) {
+                    addAll(replacement, values);
+                } else if (removeAll) {
+                    replacement = new ArrayList<>(values);
+                    removeAll = false;
+                } else {
+                    for (Object value : values) {
+                        if (!remove(removes, value)) {
+                            addAll(adds, List.of(value));
+                        }
+                    }
+                }
+            } else if (op == DirContext.REMOVE_ATTRIBUTE) {
+                if (replacement != null) {
+                    if (values.isEmpty()) {
+                        replacement.clear();
+                    } else {
+                        for (Object value : values) {
+                            remove(replacement, value);
+                        }
+                    }
+                } else if (values.isEmpty()) {
+                    if (removes.isEmpty() && adds.isEmpty()) {
+                        removeAll = true;
+                    } else {
+                        replacement = new ArrayList<>();
+                        removes.clear();
+                        adds.clear();
+                    }
+                } else if (!removeAll) {
+                    for (Object value : values) {
+                        if (!remove(adds, value)) {
+                            addAll(removes, List.of(value));
+                        }
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("unknown modification operation " + op);
+            }
+        }
+
+        private void toItems(List<ModificationItem> items) {
+            if (replacement != null) {
+                items.add(new ModificationItem(DirContext.REPLACE_ATTRIBUTE, attribute(replacement)));
+            } else if (removeAll) {
+                items.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE, new BasicAttribute(id)));
+            } else {
+                if (!removes.isEmpty()) {
+                    items.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE, attribute(removes)));
+                }
+                if (!adds.isEmpty()) {
+                    items.add(new ModificationItem(DirContext.ADD_ATTRIBUTE, attribute(adds)));
+                }
+            }
+        }
+
+        private Attribute attribute(List<Object> values) {
+            Attribute attribute = new BasicAttribute(id);
+            for (Object value : values) {
+                attribute.add(value);
+            }
+            return attribute;
+        }
+
+        private static void addAll(List<Object> list, List<Object> values) {
+            for (Object value : values) {
+                if (indexOf(list, value) < 0) {
+                    list.add(value);
+                }
+            }
+        }
+
+        private static boolean remove(List<Object> list, Object value) {
+            int index = indexOf(list, value);
+            if (index < 0) {
+                return false;
+            }
+            list.remove(index);
+            return true;
+        }
+
+        private static int indexOf(List<Object> list, Object value) {
+            Iterator<Object> it = list.iterator();
+            for (int i = 0; it.hasNext(); i++) {
+                if (Objects.deepEquals(it.next(), value)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.InterruptedNamingException;
+import javax.naming.InvalidNameException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads, or checks the existence of, many entries over one connection.
+ *
+ * DNs which share a parent are looked up together by a one level search with an OR filter of their RDNs. The
+ * other DNs are looked up one by one. The lookups run on several contexts derived from one pooled context,
+ * which share its connection, so that several requests are in flight at once. The entries found by a search are
+ * matched to the requested DNs by their RDN, so they are reported under the DNs as given, which may be relative to
+ * the base DN of the URL.
+ */
+final class MultiRead {
+
+    private static final Logger logger = Logger.getLogger(MultiRead.class.getName());
+
+    private static final ThreadFactory threadFactory = AsyncLDAP.daemonThreadFactory("groovy-ldap-read-");
+
+    /**
+     * The number of requests in flight.
+     */
+    static final int PIPELINE_DEPTH = 8;
+
+    /**
+     * The least number of DNs under one parent which are looked up by a search instead of one by one.
+     */
+    static final int MIN_GROUP_SIZE = 4;
+
+    /**
+     * The most RDNs in the filter of one search.
+     */
+    static final int MAX_GROUP_SIZE = 200;
+
+    private final Collection<String> dns;
+
+    private final String[] attrs;
+
+    private final boolean existsOnly;
+
+    private final Tally tally;
+
+    private final Map<String, Object> found;
+
+    private final List<Lookup> lookups;
+
+    private final AtomicInteger next;
+
+    private volatile NamingException failure;
+
+    MultiRead(Collection<String> dns, String[] attrs, boolean existsOnly, Tally tally) {
+        this.dns = dns;
+        this.attrs = existsOnly ? new String[] { "1.1" } : attrs;
+        this.existsOnly = existsOnly;
+        this.tally = tally;
+        this.found = new ConcurrentHashMap<>();
+        this.lookups = new ArrayList<>();
+        this.next = new AtomicInteger();
+    }
+
+    /**
+     * Perform the lookups.
+     *
+     * @param ctx the context, whose connection is shared by all lookups
+     * @return the entries found, or Boolean.TRUE if only existence is checked, by normalized DN
+     * @throws NamingException if a lookup fails for another reason than a missing entry
+     */
+    Map<String, Object> run(LdapContext ctx) throws NamingException {
+        found.clear();
+        next.set(0);
+        failure = null;
+        if (lookups.isEmpty()) {
+            plan();
+        }
+        int workers = Math.min(PIPELINE_DEPTH, lookups.size());
+        if (workers <= 1) {
+            work(ctx);
+        } else {
+            List<Thread> threads = new ArrayList<>(workers);
+            List<LdapContext> contexts = new ArrayList<>(workers);
+            try {
+                for (int i = 0; i < workers; i++) {
+                    LdapContext derived = ctx.newInstance(null);
+                    contexts.add(derived);
+                    Thread thread = threadFactory.newThread(() -> work(derived));
+                    threads.add(thread);
+                    thread.start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedNamingException("interrupted while reading entries");
+            } finally {
+                for (LdapContext derived : contexts) {
+                    try {
+                        derived.close();
+                    } catch (NamingException e) {
+                        logger.log(Level.FINEST, e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return found;
+    }
+
+    /**
+     * Group the DNs by parent, into searches for large groups and single lookups for the rest.
+     */
+    private void plan() {
+        Map<String, List<LdapName>> byParent = new LinkedHashMap<>();
+        for (String dn : dns) {
+            LdapName name;
+            try {
+                name = new LdapName(dn);
+            } catch (InvalidNameException e) {
+                lookups.add(new Lookup(dn));
+                continue;
+            }
+            if (name.isEmpty()) {
+                lookups.add(new Lookup(dn));
+                continue;
+            }
+            String parent = name.getPrefix(name.size() - 1).toString();
+            byParent.computeIfAbsent(DistinguishedNames.normalize(parent), key -> new ArrayList<>()).add(name);
+        }
+        for (List<LdapName> names : byParent.values()) {
+            if (names.size() < MIN_GROUP_SIZE) {
+                for (LdapName name : names) {
+                    lookups.add(new Lookup(name.toString()));
+                }
+                continue;
+            }
+            String parent = names.get(0).getPrefix(names.get(0).size() - 1).toString();
+            for (int start = 0; start < names.size(); start += MAX_GROUP_SIZE) {
+                List<LdapName> chunk = names.subList(start, Math.min(names.size(), start + MAX_GROUP_SIZE));
+                Map<String, String> requested = new LinkedHashMap<>();
+                for (LdapName name : chunk) {
+                    requested.put(rdnKey(name), name.toString());
+                }
+                lookups.add(new Lookup(parent, orFilter(chunk), requested));
+            }
+        }
+    }
+
+    /**
+     * Build a filter which matches the entries with the RDNs of the given names.
+     *
+     * @param names the names
+     * @return the filter
+     */
+    static String orFilter(List<LdapName> names) {
+        List<Filter> terms = new ArrayList<>(names.size());
+        for (LdapName name : names) {
+            Rdn rdn = name.getRdn(name.size() - 1);
+            List<Filter> parts = new ArrayList<>();
+            try {
+                NamingEnumeration<? extends Attribute> attributes = rdn.toAttributes().getAll();
+                while (attributes.hasMore()) {
+                    Attribute attribute = attributes.next();
+                    for (int i = 0; i < attribute.size(); i++) {
+                        parts.add(Filter.eq(attribute.getID(), attribute.get(i)));
+                    }
+                }
+            } catch (NamingException e) {
+                throw new IllegalStateException(e);
+            }
+            if (parts.size() > 1) {
+                parts.sort(Comparator.comparing(Filter::toString));
+            }
+            terms.add(parts.size() == 1 ? parts.get(0) : Filter.and(parts));
+        }
+        return Filter.or(terms).render();
+    }
+
+    /**
+     * Get a key for matching the RDN of a name, the normalized last RDN.
+     *
+     * @param name the name
+     * @return the key, empty for an empty name
+     */
+    static String rdnKey(LdapName name) {
+        return name.isEmpty() ? "" : DistinguishedNames.normalize(name.getRdn(name.size() - 1).toString());
+    }
+
+    private void count(Attributes attributes) throws NamingException {
+        synchronized (tally) {
+            tally.count(attributes);
+        }
+    }
+
+    private void work(LdapContext ctx) {
+        int index;
+        while (failure == null && !Thread.currentThread().isInterrupted()
+                && (index = next.getAndIncrement()) < lookups.size()) {
+            try {
+                lookups.get(index).perform(ctx);
+            } catch (NamingException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                NamingException ne = new NamingException(e.toString());
+                ne.setRootCause(e);
+                failure = ne;
+            }
+        }
+    }
+
+    /**
+     * A lookup of one DN, or a search for the children of a parent DN.
+     */
+    private final class Lookup {
+
+        private final String dn;
+
+        private final String filter;
+
+        private final Map<String, String> requested;
+
+        private Lookup(String dn) {
+            this(dn, null, null);
+        }
+
+        private Lookup(String dn, String filter, Map<String, String> requested) {
+            this.dn = dn;
+            this.filter = filter;
+            this.requested = requested;
+        }
+
+        private void perform(LdapContext ctx) throws NamingException {
+            if (filter != null) {
+                search(ctx);
+            } else if (existsOnly) {
+                if (LDAP.existsAction(dn).perform(ctx)) {
+                    found.put(DistinguishedNames.normalize(dn), Boolean.TRUE);
+                }
+            } else {
+                try {
+                    Attributes attributes = ctx.getAttributes(dn, attrs);
+                    count(attributes);
+                    found.put(DistinguishedNames.normalize(dn), EntryMapper.DEFAULT.map(dn, attributes));
+                } catch (NameNotFoundException e) {
+                    logger.log(Level.FINEST, e.getMessage(), e);
+                }
+            }
+        }
+
+        private void search(LdapContext ctx) throws NamingException {
+            SearchControls controls = new SearchControls(SearchControls.ONELEVEL_SCOPE, 0L, 0, attrs, false, false);
+            NamingEnumeration<SearchResult> results;
+            try {
+                results = ctx.search(dn, filter, controls);
+            } catch (NameNotFoundException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+                return;
+            }
+            try {
+                while (results.hasMore()) {
+                    SearchResult sr = results.next();
+                    String name = requested.get(rdnKey(new LdapName(sr.getNameInNamespace())));
+                    if (name == null) {
+                        continue;
+                    }
+                    if (existsOnly) {
+                        found.put(DistinguishedNames.normalize(name), Boolean.TRUE);
+                    } else {
+                        Attributes attributes = sr.getAttributes();
+                        count(attributes);
+                        found.put(DistinguishedNames.normalize(name), EntryMapper.DEFAULT.map(name, attributes));
+                    }
+                }
+            } catch (NameNotFoundException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+            } finally {
+                results.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.xbib.groovy.ldap;
+
+/**
+ * The kinds of operations reported to an {@link Instrumentation}.
+ */
+public enum Operation {
+
+    ADD, DELETE, READ, EXISTS, COMPARE, MODIFY, MODIFY_DN, SEARCH, EACH_ENTRY, STREAM, BIND;
+
+    /**
+     * Check if this operation changes the directory, and so must be sent to a primary server.
+     *
+     * @return true for writes
+     */
+    public boolean isWrite() {
+        return this == ADD || this == DELETE || this == MODIFY || this == MODIFY_DN;
+    }
+}
@@ -0,0 +1,174 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.SortControl;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator over the entries of a search which fetches the entries page by page with the
+ * simple paged results control of RFC 2696.
+ *
+ * The next page is requested only when the entries of the current page are consumed. The context is held
+ * until the iterator is exhausted or closed. Sort keys of the search are sent along, a window is ignored.
+ */
+class PagedSearchIterator implements Iterator<Map<String, Object>>, AutoCloseable {
+
+    private final LDAP ldap;
+
+    private final Search search;
+
+    private final SearchControls searchControls;
+
+    private final Tally tally;
+
+    private Lease lease;
+
+    private LdapContext ctx;
+
+    private NamingEnumeration<SearchResult> results;
+
+    private byte[] cookie;
+
+    private boolean done;
+
+    private long start;
+
+    PagedSearchIterator(LDAP ldap, Search search) {
+        this.ldap = ldap;
+        this.search = search;
+        this.tally = new Tally(search);
+        this.searchControls = search.getPagedSearchControls();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (done) {
+            return false;
+        }
+        try {
+            while (true) {
+                if (results == null) {
+                    fetchPage();
+                } else if (results.hasMore()) {
+                    return true;
+                } else {
+                    results.close();
+                    results = null;
+                    cookie = responseCookie();
+                    if (cookie == null || cookie.length == 0) {
+                        finish(true, null);
+                        return false;
+                    }
+                }
+            }
+        } catch (NamingException e) {
+            finish(false, e);
+            throw new UncheckedNamingException(e);
+        }
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            SearchResult sr = results.next();
+            Attributes attrs = sr.getAttributes();
+            tally.count(attrs);
+            return search.getMapper().map(sr.getNameInNamespace(), attrs);
+        } catch (NamingException e) {
+            finish(false, e);
+            throw new UncheckedNamingException(e);
+        }
+    }
+
+    /**
+     * Abandon the search. A context which is closed before the search is exhausted is not reused, because the
+     * server may still hold the paging state for it.
+     */
+    @Override
+    public void close() {
+        if (!done) {
+            finish(false, null);
+        }
+    }
+
+    private void fetchPage() throws NamingException {
+        if (ctx == null) {
+            lease = ldap.acquire(false, 0L, true);
+            ctx = lease.ctx;
+            start = System.nanoTime();
+            LDAP.setBinaryAttributes(ctx, search.getBinaryAttrs());
+        }
+        try {
+            Control paged = new PagedResultsControl(search.getPageSize(), cookie, Control.CRITICAL);
+            SortControl sort = search.getSortControl();
+            ctx.setRequestControls(sort != null ? new Control[] { sort, paged } : new Control[] { paged });
+        } catch (IOException e) {
+            NamingException ne = new NamingException("unable to encode paged results control");
+            ne.setRootCause(e);
+            throw ne;
+        }
+        results = LDAP.startSearch(ctx, search, searchControls);
+    }
+
+    private byte[] responseCookie() throws NamingException {
+        Control[] controls = ctx.getResponseControls();
+        LDAP.checkSorted(controls);
+        if (controls != null) {
+            for (Control control : controls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    return ((PagedResultsResponseControl) control).getCookie();
+                }
+            }
+        }
+        return null;
+    }
+
+    private void finish(boolean exhausted, NamingException failure) {
+        done = true;
+        Instrumentation instrumentation = ldap.instrumentation();
+        long nanos = ctx != null ? System.nanoTime() - start : 0L;
+        if (failure != null) {
+            instrumentation.failed(Operation.STREAM, nanos, failure);
+        } else if (ctx != null) {
+            instrumentation.completed(Operation.STREAM, nanos, tally.entries, tally.attributes);
+        }
+        boolean reusable = exhausted;
+        if (results != null) {
+            try {
+                results.close();
+            } catch (NamingException e) {
+                reusable = false;
+            }
+            results = null;
+        }
+        if (ctx != null) {
+            try {
+                LDAP.clearBinaryAttributes(ctx, search.getBinaryAttrs());
+            } catch (NamingException e) {
+                reusable = false;
+            }
+            if (failure != null) {
+                lease.server.failed(nanos, failure);
+            } else {
+                lease.server.succeeded(nanos);
+            }
+            lease.release(reusable);
+            lease = null;
+            ctx = null;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An iterator over the merged entries of several searches which run concurrently, each one on its own
+ * context, created by {@link LDAP#parallelStream(List, int, boolean)}.
+ *
+ * Unordered, the entries are passed on as they arrive through a bounded queue, so a slow consumer slows the
+ * workers down. Ordered, the entries of each partition are collected and sorted by DN, and the partitions are
+ * passed on in the given order, so memory is bounded by the partitions completed ahead of the one consumed.
+ */
+final class ParallelSearch implements Iterator<Map<String, Object>>, AutoCloseable {
+
+    private static final ThreadFactory threadFactory = AsyncLDAP.daemonThreadFactory("groovy-ldap-parallel-");
+
+    private static final long OFFER_MILLIS = 100L;
+
+    private final LDAP ldap;
+
+    private final List<Search> partitions;
+
+    private final boolean ordered;
+
+    private final BlockingQueue<Object> queue;
+
+    private final List<Thread> workers;
+
+    private final AtomicInteger nextPartition;
+
+    private final Map<Integer, List<Map<String, Object>>> completed;
+
+    private Iterator<Map<String, Object>> current;
+
+    private Map<String, Object> next;
+
+    private int nextIndex;
+
+    private int finishedWorkers;
+
+    private volatile boolean closed;
+
+    ParallelSearch(LDAP ldap, List<Search> partitions, int parallelism, boolean ordered) {
+        this.ldap = ldap;
+        this.partitions = partitions;
+        this.ordered = ordered;
+        int capacity = partitions.isEmpty() ? 1 : partitions.get(0).getPageSize() * parallelism;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.workers = new ArrayList<>();
+        this.nextPartition = new AtomicInteger();
+        this.completed = new HashMap<>();
+        int count = Math.min(parallelism, partitions.size());
+        for (int i = 0; i < count; i++) {
+            workers.add(threadFactory.newThread(this::work));
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        try {
+            next = ordered ? nextOrdered() : nextUnordered();
+        } catch (NamingException e) {
+            close();
+            throw new UncheckedNamingException(e);
+        }
+        if (next == null) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map<String, Object> entry = next;
+        next = null;
+        return entry;
+    }
+
+    /**
+     * Stop all searches. Contexts of searches which are not exhausted are not reused.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        queue.clear();
+        completed.clear();
+        current = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> nextUnordered() throws NamingException {
+        while (finishedWorkers < workers.size()) {
+            Object item = take();
+            if (item instanceof Map) {
+                return (Map<String, Object>) item;
+            }
+            handle(item);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> nextOrdered() throws NamingException {
+        while (true) {
+            if (current != null && current.hasNext()) {
+                return current.next();
+            }
+            if (nextIndex == partitions.size()) {
+                return null;
+            }
+            List<Map<String, Object>> entries = completed.remove(nextIndex);
+            if (entries != null) {
+                current = entries.iterator();
+                nextIndex++;
+            } else if (finishedWorkers < workers.size()) {
+                Object item = take();
+                if (item instanceof Partition) {
+                    Partition partition = (Partition) item;
+                    completed.put(partition.index, partition.entries);
+                } else {
+                    handle(item);
+                }
+            } else {
+                return null;
+            }
+        }
+    }
+
+    private Object take() throws NamingException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedNamingException("interrupted while waiting for search results");
+        }
+    }
+
+    private void handle(Object item) throws NamingException {
+        if (item instanceof NamingException) {
+            throw (NamingException) item;
+        }
+        finishedWorkers++;
+    }
+
+    private void work() {
+        try {
+            int index;
+            while (!closed && (index = nextPartition.getAndIncrement()) < partitions.size()) {
+                search(index);
+            }
+            offer(Boolean.TRUE);
+        } catch (UncheckedNamingException e) {
+            offer(e.getCause());
+        } catch (RuntimeException e) {
+            NamingException failure = new NamingException(e.toString());
+            failure.setRootCause(e);
+            offer(failure);
+        }
+    }
+
+    private void search(int index) {
+        List<Map<String, Object>> entries = ordered ? new ArrayList<>() : null;
+        try (PagedSearchIterator iterator = new PagedSearchIterator(ldap, partitions.get(index))) {
+            while (!closed && iterator.hasNext()) {
+                Map<String, Object> entry = iterator.next();
+                if (entries != null) {
+                    entries.add(entry);
+                } else if (!offer(entry)) {
+                    return;
+                }
+            }
+        }
+        if (entries != null) {
+            offer(new Partition(index, sortByDn(entries)));
+        }
+    }
+
+    private boolean offer(Object item) {
+        try {
+            while (!closed) {
+                if (queue.offer(item, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    static List<Map<String, Object>> sortByDn(List<Map<String, Object>> entries) {
+        List<Keyed> keyed = new ArrayList<>(entries.size());
+        for (Map<String, Object> entry : entries) {
+            keyed.add(new Keyed(DistinguishedNames.sortKey((String) entry.get("dn")), entry));
+        }
+        keyed.sort(Comparator.comparing(k -> k.key));
+        List<Map<String, Object>> sorted = new ArrayList<>(keyed.size());
+        for (Keyed k : keyed) {
+            sorted.add(k.entry);
+        }
+        return sorted;
+    }
+
+    private static final class Keyed {
+
+        private final String key;
+
+        private final Map<String, Object> entry;
+
+        private Keyed(String key, Map<String, Object> entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    private static final class Partition {
+
+        private final int index;
+
+        private final List<Map<String, Object>> entries;
+
+        private Partition(int index, List<Map<String, Object>> entries) {
+            this.index = index;
+            this.entries = entries;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.xbib.groovy.ldap;
+
+/**
+ * Settings for the pool of LDAP contexts kept by an {@link LDAP} instance.
+ *
+ * The defaults keep up to eight open contexts per server, close contexts which were idle for more than
+ * one minute and validate a context on borrow when it was idle for more than five seconds.
+ */
+public class PoolSettings {
+
+    public static final int DEFAULT_MIN_SIZE = 0;
+
+    public static final int DEFAULT_MAX_SIZE = 8;
+
+    public static final long DEFAULT_MAX_IDLE_MILLIS = 60000L;
+
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 30000L;
+
+    public static final long DEFAULT_VALIDATION_INTERVAL_MILLIS = 5000L;
+
+    private boolean enabled = true;
+
+    private int minSize = DEFAULT_MIN_SIZE;
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private long maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+
+    private long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+
+    private boolean validateOnBorrow = true;
+
+    private long validationIntervalMillis = DEFAULT_VALIDATION_INTERVAL_MILLIS;
+
+    /**
+     * Settings which disable pooling, so every operation opens and closes its own context.
+     * @return settings without pooling
+     */
+    public static PoolSettings disabled() {
+        PoolSettings settings = new PoolSettings();
+        settings.setEnabled(false);
+        return settings;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Set the number of idle contexts which are never evicted.
+     * @param minSize the minimum number of idle contexts
+     */
+    public void setMinSize(int minSize) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("minSize must not be negative: " + minSize);
+        }
+        this.minSize = minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Set the maximum number of contexts, idle or in use, per bind identity.
+     * @param maxSize the maximum number of contexts
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    public long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    /**
+     * Set the time after which an idle context is closed.
+     * @param maxIdleMillis idle time in milliseconds
+     */
+    public void setMaxIdleMillis(long maxIdleMillis) {
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Set how long a borrower waits for a context when the pool is exhausted.
+     * @param maxWaitMillis wait time in milliseconds
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public boolean isValidateOnBorrow() {
+        return validateOnBorrow;
+    }
+
+    public void setValidateOnBorrow(boolean validateOnBorrow) {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    public long getValidationIntervalMillis() {
+        return validationIntervalMillis;
+    }
+
+    /**
+     * Set the idle time after which a context is validated on borrow. With zero, every borrow is validated.
+     * @param validationIntervalMillis idle time in milliseconds
+     */
+    public void setValidationIntervalMillis(long validationIntervalMillis) {
+        this.validationIntervalMillis = validationIntervalMillis;
+    }
+}
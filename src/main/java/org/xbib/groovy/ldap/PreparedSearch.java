@@ -0,0 +1,79 @@
+package org.xbib.groovy.ldap;
+
+import java.util.Map;
+
+/**
+ * A search which is built once and executed many times with different filter arguments.
+ *
+ * Base, scope, attributes, limits, mapper, sort keys and the filter template are taken from a template search
+ * when the prepared search is created. {@link #bind(Object...)} only renders the filter, the search controls
+ * and request controls are shared. A prepared search and the searches it returns are immutable and thread-safe.
+ *
+ * <pre>
+ * def byUid = new PreparedSearch(new Search(base: 'ou=people,dc=example,dc=com', attrs: ['cn', 'mail']),
+ *         Filter.eq('uid', Filter.arg(0)))
+ * def entries = ldap.search(byUid.bind('jdoe'))
+ * </pre>
+ */
+public final class PreparedSearch {
+
+    private final Search template;
+
+    private final Filter filter;
+
+    /**
+     * Prepare a search with a compiled filter. The filter of the template is ignored.
+     *
+     * @param template the template search
+     * @param filter the filter, with argument slots
+     */
+    public PreparedSearch(Search template, Filter filter) {
+        if (filter == null) {
+            throw new IllegalArgumentException("filter must not be null");
+        }
+        this.template = template.withFilter(filter.toString(), null);
+        this.filter = filter;
+    }
+
+    /**
+     * Prepare a search whose filter is a JNDI filter expression, with arguments given as {0}, {1} and so on.
+     * The arguments are escaped by JNDI.
+     *
+     * @param template the template search
+     */
+    public PreparedSearch(Search template) {
+        this.template = template.withFilter(template.getFilter(), null);
+        this.filter = null;
+    }
+
+    public PreparedSearch(Map<String, Object> params) {
+        this(new Search(params));
+    }
+
+    /**
+     * Get a search with the given filter arguments.
+     *
+     * @param args the filter arguments
+     * @return the search, which is immutable
+     */
+    public Search bind(Object... args) {
+        if (filter != null) {
+            return template.withFilter(filter.render(args), null);
+        }
+        return template.withFilter(template.getFilter(), args != null && args.length > 0 ? args.clone() : null);
+    }
+
+    /**
+     * Get the template, with the filter template.
+     *
+     * @return the immutable template search
+     */
+    public Search getTemplate() {
+        return template;
+    }
+
+    @Override
+    public String toString() {
+        return template.getBase() + " " + template.getScope() + " " + template.getFilter();
+    }
+}
@@ -0,0 +1,17 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.LimitExceededException;
+
+/**
+ * Thrown when a resource of the client, like the pooled contexts or the concurrency limit, is exhausted. Unlike a
+ * {@link LimitExceededException} or {@link javax.naming.ServiceUnavailableException} reported by the server, it
+ * says nothing about the state of the server.
+ */
+public class ResourceExhaustedException extends LimitExceededException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ResourceExhaustedException(String explanation) {
+        super(explanation);
+    }
+}
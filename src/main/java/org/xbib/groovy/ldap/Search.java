@@ -1,13 +1,25 @@
 package org.xbib.groovy.ldap;
 
-import java.lang.reflect.Array;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
 
 import javax.naming.directory.SearchControls;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.SortControl;
+import javax.naming.ldap.SortKey;
 
 /**
  * Contains all parameters for an LDAP search.
+ *
+ * By default, all user attributes of the entries are returned. Name the attributes which are needed with
+ * {@link #setAttrs(String...)}, or use {@link #DN_ONLY} if only the DNs are needed, so that large values such as
+ * photos and certificates are not transferred. A guard against oversized results is set with
+ * {@link #setMaxBytes(long)}.
+ *
+ * The search controls are built once, when the search is created, and shared by all executions. A search
+ * obtained from a {@link PreparedSearch} is immutable and may be used by many threads at once.
  */
 public class Search {
 
@@ -15,7 +27,16 @@ public class Search {
 
     public static final int DEFAULT_COUNT_LIMIT = 20000;
 
-    private final SearchControls searchControls;
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    /**
+     * The attribute list which returns no attributes, only the DNs of the entries.
+     */
+    public static final String DN_ONLY = "1.1";
+
+    private SearchControls searchControls;
+
+    private SearchControls pagedSearchControls;
 
     private final String base;
 
@@ -25,63 +46,262 @@ public class Search {
 
     private final Object[] filterArgs;
 
-    private final String[] attrs;
+    private String[] attrs;
 
     private int timeLimit;
 
     private int countLimit;
 
+    private int pageSize;
+
+    private EntryMapper mapper;
+
+    private String[] binaryAttrs;
+
+    private String[] sortKeys;
+
+    private SortControl sortControl;
+
+    private VirtualListViewControl window;
+
+    private Control[] requestControls;
+
+    private long maxBytes;
+
+    private boolean abortOnMaxBytes;
+
+    private final boolean frozen;
+
     public Search() {
         this("", SearchScope.SUB, "(objectClass=*)", DEFAULT_TIME_LIMIT, DEFAULT_COUNT_LIMIT);
     }
 
-    public Search(String base, SearchScope scope, String filter) {
-        this(base, scope, filter, DEFAULT_TIME_LIMIT, DEFAULT_COUNT_LIMIT);
+    /**
+     * A search which returns the given attributes.
+     *
+     * @param base the base DN
+     * @param scope the scope
+     * @param filter the filter
+     * @param attrs the attributes to return, {@link #DN_ONLY} for none, or no attributes for all user attributes
+     */
+    public Search(String base, SearchScope scope, String filter, String... attrs) {
+        this(base, scope, filter, DEFAULT_TIME_LIMIT, DEFAULT_COUNT_LIMIT, attrs);
     }
 
     public Search(String base, SearchScope scope, String filter, int timeLimit, int countLimit) {
+        this(base, scope, filter, timeLimit, countLimit, (String[]) null);
+    }
+
+    private Search(String base, SearchScope scope, String filter, int timeLimit, int countLimit, String[] attrs) {
         this.base = base;
         this.scope = scope;
         this.filter = filter;
         this.filterArgs = null;
-        this.attrs = null;
+        this.attrs = projection(attrs);
         this.timeLimit = timeLimit;
         this.countLimit = countLimit;
-        this.searchControls = getSearchControls(scope, null, timeLimit, countLimit);
+        this.pageSize = DEFAULT_PAGE_SIZE;
+        this.mapper = EntryMapper.DEFAULT;
+        this.searchControls = getSearchControls(scope, this.attrs, timeLimit, countLimit);
+        this.pagedSearchControls = getSearchControls(scope, this.attrs, timeLimit, 0);
+        this.frozen = false;
+    }
+
+    /**
+     * A search with a compiled filter, rendered with the given arguments.
+     *
+     * @param base the base DN
+     * @param scope the scope
+     * @param filter the filter
+     * @param args the filter arguments
+     */
+    public Search(String base, SearchScope scope, Filter filter, Object... args) {
+        this(base, scope, filter.render(args), DEFAULT_TIME_LIMIT, DEFAULT_COUNT_LIMIT);
     }
 
     public Search(Map<String, Object> map) {
         this.base = map.containsKey("base") ? map.get("base").toString() : "";
         this.scope = map.containsKey("scope") ?  SearchScope.valueOf(map.get("scope").toString()) : SearchScope.SUB;
-        this.filter = map.containsKey("filter") ? map.get("filter").toString() : "(objectClass=*)";
-        this.filterArgs = map.containsKey("filterArgs") ? toArray(Object.class, map.get("filterArgs")) : null;
-        this.attrs = map.containsKey("attrs") ? toArray(String.class, map.get("attrs")) : null;
-        this.timeLimit = map.containsKey("timeLimit") ?
-                Integer.parseInt((String) map.get("timeLimit")) : DEFAULT_TIME_LIMIT;
-        this.countLimit = map.containsKey("countLimit") ?
-                Integer.parseInt((String) map.get("countLimit")) : DEFAULT_COUNT_LIMIT;
+        Object filterValue = map.get("filter");
+        Object[] args = map.containsKey("filterArgs") ? toObjects(map.get("filterArgs")) : null;
+        if (filterValue instanceof Filter) {
+            this.filter = ((Filter) filterValue).render(args);
+            this.filterArgs = null;
+        } else {
+            this.filter = filterValue != null ? filterValue.toString() : "(objectClass=*)";
+            this.filterArgs = args;
+        }
+        this.attrs = map.containsKey("attrs") ? projection(toStrings(map.get("attrs"))) : null;
+        this.timeLimit = map.containsKey("timeLimit") ? toInt(map.get("timeLimit")) : DEFAULT_TIME_LIMIT;
+        this.countLimit = map.containsKey("countLimit") ? toInt(map.get("countLimit")) : DEFAULT_COUNT_LIMIT;
+        this.pageSize = map.containsKey("pageSize") ? toInt(map.get("pageSize")) : DEFAULT_PAGE_SIZE;
+        Object mapperValue = map.get("mapper");
+        this.mapper = mapperValue instanceof EntryMapper ? (EntryMapper) mapperValue :
+                mapperValue != null ? EntryMapper.valueOf(mapperValue.toString()) : EntryMapper.DEFAULT;
+        this.binaryAttrs = map.containsKey("binaryAttrs") ? toStrings(map.get("binaryAttrs")) : null;
+        if (map.containsKey("sort")) {
+            setSortKeys(toStrings(map.get("sort")));
+        }
+        this.maxBytes = map.containsKey("maxBytes") ? toLong(map.get("maxBytes")) : 0L;
+        this.abortOnMaxBytes = Boolean.TRUE.equals(map.get("abortOnMaxBytes"));
         this.searchControls = getSearchControls(scope, attrs, timeLimit, countLimit);
+        this.pagedSearchControls = getSearchControls(scope, attrs, timeLimit, 0);
+        this.frozen = false;
     }
 
-    @SuppressWarnings("unchecked")
-    private static <T> T[] toArray(Class<T> target, Object value) {
-        T[] values = null;
-        if (value.getClass().isArray()) {
-            values = (T[]) value;
-        } else if (value instanceof Collection) {
-            Collection<T> c = (Collection<T>) value;
-            values = c.toArray((T[]) Array.newInstance(target, c.size()));
+    private Search(Search search, String base, SearchScope scope, String filter, Object[] filterArgs, boolean frozen) {
+        this.base = base;
+        this.scope = scope;
+        this.filter = filter;
+        this.filterArgs = filterArgs;
+        this.attrs = search.attrs;
+        this.timeLimit = search.timeLimit;
+        this.countLimit = search.countLimit;
+        this.pageSize = search.pageSize;
+        this.mapper = search.mapper;
+        this.binaryAttrs = search.binaryAttrs;
+        this.sortKeys = search.sortKeys;
+        this.sortControl = search.sortControl;
+        this.window = search.window;
+        this.requestControls = search.requestControls;
+        this.maxBytes = search.maxBytes;
+        this.abortOnMaxBytes = search.abortOnMaxBytes;
+        this.frozen = frozen;
+        if (scope == search.scope) {
+            this.searchControls = search.searchControls;
+            this.pagedSearchControls = search.pagedSearchControls;
         } else {
-            values = (T[]) Array.newInstance(target, 1);
-            values[0] = (T) value;
+            this.searchControls = getSearchControls(scope, attrs, timeLimit, countLimit);
+            this.pagedSearchControls = getSearchControls(scope, attrs, timeLimit, 0);
         }
-        return values;
+    }
+
+    /**
+     * Copy this search with another base and scope.
+     *
+     * @param base the base
+     * @param scope the scope
+     * @return the copy
+     */
+    Search withBase(String base, SearchScope scope) {
+        return new Search(this, base, scope, filter, filterArgs, frozen);
+    }
+
+    /**
+     * Copy this search with another filter. The copy is immutable and shares the controls of this search.
+     *
+     * @param filter the filter
+     * @param filterArgs the arguments of the filter expression, or null
+     * @return the copy
+     */
+    Search withFilter(String filter, Object[] filterArgs) {
+        return new Search(this, base, scope, filter, filterArgs, true);
+    }
+
+    /**
+     * Copy this search with other attributes. The copy can be changed.
+     *
+     * @param attrs the attributes to return
+     * @return the copy
+     */
+    Search withAttrs(String... attrs) {
+        Search search = new Search(this, base, scope, filter, filterArgs, false);
+        search.setAttrs(attrs);
+        return search;
+    }
+
+    boolean isFrozen() {
+        return frozen;
+    }
+
+    private static String[] toStrings(Object value) {
+        if (value instanceof String[]) {
+            return (String[]) value;
+        }
+        Object[] values = toObjects(value);
+        String[] strings = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            strings[i] = values[i] != null ? values[i].toString() : null;
+        }
+        return strings;
+    }
+
+    private static Object[] toObjects(Object value) {
+        if (value instanceof Object[]) {
+            return (Object[]) value;
+        }
+        if (value instanceof Collection) {
+            return ((Collection<?>) value).toArray();
+        }
+        return new Object[] { value };
+    }
+
+    private static String[] projection(String[] attrs) {
+        return attrs != null && attrs.length > 0 ? attrs : null;
+    }
+
+    private static int toInt(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
     }
 
     public String[] getAttrs() {
         return attrs;
     }
 
+    /**
+     * Set the attributes to return.
+     * @param attrs the attribute names, {@link #DN_ONLY} for none, or no names for all user attributes
+     */
+    public void setAttrs(String... attrs) {
+        checkMutable();
+        this.attrs = projection(attrs);
+        this.searchControls = getSearchControls(scope, this.attrs, timeLimit, countLimit);
+        this.pagedSearchControls = getSearchControls(scope, this.attrs, timeLimit, 0);
+    }
+
+    /**
+     * Check if only the DNs of the entries are returned.
+     * @return true if no attributes are returned
+     */
+    public boolean isDnOnly() {
+        return attrs != null && attrs.length == 1 && DN_ONLY.equals(attrs[0]);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Set a guard against oversized results. When the estimated size of the attribute values returned by one
+     * execution of the search exceeds the limit, a warning is logged, or the search is aborted with a
+     * {@link javax.naming.SizeLimitExceededException} if {@link #setAbortOnMaxBytes(boolean)} is set.
+     * @param maxBytes the limit in bytes, or 0 for no limit
+     */
+    public void setMaxBytes(long maxBytes) {
+        checkMutable();
+        if (maxBytes < 0L) {
+            throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isAbortOnMaxBytes() {
+        return abortOnMaxBytes;
+    }
+
+    /**
+     * Set whether a search whose result exceeds {@link #getMaxBytes()} is aborted instead of logged.
+     * @param abortOnMaxBytes true to abort
+     */
+    public void setAbortOnMaxBytes(boolean abortOnMaxBytes) {
+        checkMutable();
+        this.abortOnMaxBytes = abortOnMaxBytes;
+    }
+
     public String getBase() {
         return base;
     }
@@ -98,10 +318,179 @@ public class Search {
         return scope;
     }
 
+    public int getTimeLimit() {
+        return timeLimit;
+    }
+
+    public int getCountLimit() {
+        return countLimit;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Set the number of entries the server returns per page in a streaming search.
+     * @param pageSize the page size
+     */
+    public void setPageSize(int pageSize) {
+        checkMutable();
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("page size must be positive: " + pageSize);
+        }
+        this.pageSize = pageSize;
+    }
+
+    public EntryMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Set the mapper which converts the entries found into maps.
+     * @param mapper the mapper, see {@link EntryMapper#DEFAULT}, {@link EntryMapper#CASE_INSENSITIVE}
+     *               and {@link EntryMapper#FLYWEIGHT}
+     */
+    public void setMapper(EntryMapper mapper) {
+        checkMutable();
+        if (mapper == null) {
+            throw new IllegalArgumentException("mapper must not be null");
+        }
+        this.mapper = mapper;
+    }
+
+    public String[] getBinaryAttrs() {
+        return binaryAttrs;
+    }
+
+    /**
+     * Set the names of attributes whose values are returned as byte arrays instead of strings, for example
+     * objectGUID. Some attributes such as jpegPhoto and userCertificate are always binary.
+     * @param binaryAttrs the attribute names, or null
+     */
+    public void setBinaryAttrs(String... binaryAttrs) {
+        checkMutable();
+        this.binaryAttrs = binaryAttrs;
+    }
+
+    public String[] getSortKeys() {
+        return sortKeys;
+    }
+
+    /**
+     * Let the server sort the result, with the sort control of RFC 2891. A key is an attribute name, prefixed
+     * by "-" for descending order, and optionally followed by ":" and the OID of an ordering matching rule.
+     * @param sortKeys the sort keys, most significant first, or null for no sorting
+     */
+    public void setSortKeys(String... sortKeys) {
+        checkMutable();
+        if (sortKeys == null || sortKeys.length == 0) {
+            this.sortKeys = null;
+            this.sortControl = null;
+            updateRequestControls();
+            return;
+        }
+        SortKey[] keys = new SortKey[sortKeys.length];
+        for (int i = 0; i < sortKeys.length; i++) {
+            String key = sortKeys[i];
+            boolean ascending = !key.startsWith("-");
+            String attr = ascending ? key : key.substring(1);
+            int colon = attr.indexOf(':');
+            keys[i] = colon < 0 ? new SortKey(attr, ascending, null)
+                    : new SortKey(attr.substring(0, colon), ascending, attr.substring(colon + 1));
+        }
+        try {
+            this.sortControl = new SortControl(keys, Control.CRITICAL);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unable to encode sort keys " + Arrays.toString(sortKeys), e);
+        }
+        this.sortKeys = sortKeys;
+        updateRequestControls();
+    }
+
+    public VirtualListViewControl getWindow() {
+        return window;
+    }
+
+    /**
+     * Ask for a window of the sorted result, see {@link LDAP#searchWindow(Search)}. Requires sort keys.
+     * @param offset the position of the target entry, 1 for the first entry
+     * @param beforeCount the number of entries before the target entry
+     * @param afterCount the number of entries after the target entry
+     */
+    public void setWindow(int offset, int beforeCount, int afterCount) {
+        checkMutable();
+        this.window = VirtualListViewControl.byOffset(offset, 0, beforeCount, afterCount);
+        updateRequestControls();
+    }
+
+    /**
+     * Ask for a window of the sorted result around the first entry whose first sort key is greater than or
+     * equal to a value, see {@link LDAP#searchWindow(Search)}. Requires sort keys.
+     * @param value the value
+     * @param beforeCount the number of entries before the target entry
+     * @param afterCount the number of entries after the target entry
+     */
+    public void setWindow(String value, int beforeCount, int afterCount) {
+        checkMutable();
+        this.window = VirtualListViewControl.byValue(value, beforeCount, afterCount);
+        updateRequestControls();
+    }
+
+    public void setWindow(VirtualListViewControl window) {
+        checkMutable();
+        this.window = window;
+        updateRequestControls();
+    }
+
+    /**
+     * Get the sort and virtual list view controls of this search.
+     *
+     * @return the controls, or null if there are none
+     */
+    Control[] getRequestControls() {
+        if (window != null && sortControl == null) {
+            throw new IllegalStateException("a window requires sort keys");
+        }
+        return requestControls;
+    }
+
+    private void updateRequestControls() {
+        if (sortControl == null) {
+            requestControls = null;
+        } else {
+            requestControls = window != null ? new Control[] { sortControl, window } : new Control[] { sortControl };
+        }
+    }
+
+    private void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("a prepared search can not be changed");
+        }
+    }
+
+    SortControl getSortControl() {
+        return sortControl;
+    }
+
+    /**
+     * Get the search controls. They are shared by all executions of this search and must not be changed.
+     *
+     * @return the search controls
+     */
     public SearchControls getSearchControls() {
         return searchControls;
     }
 
+    /**
+     * Get the search controls of a paged search, which has no count limit.
+     *
+     * @return the search controls
+     */
+    SearchControls getPagedSearchControls() {
+        return pagedSearchControls;
+    }
+
     private static SearchControls getSearchControls(SearchScope searchScope,
                                                     String[] attrs,
                                                     int timeLimit,
@@ -109,7 +498,7 @@ public class Search {
         SearchControls searchControls = new SearchControls();
         searchControls.setSearchScope(searchScope.getValue());
         searchControls.setReturningAttributes(attrs);
-        searchControls.setReturningObjFlag(true);
+        searchControls.setReturningObjFlag(false);
         searchControls.setTimeLimit(timeLimit);
         searchControls.setCountLimit(countLimit);
         return searchControls;
@@ -0,0 +1,176 @@
+package org.xbib.groovy.ldap;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A publisher of the entries of a search, with the simple paged results control.
+ *
+ * Each subscription runs its own search. The search starts with the first request, and a page is fetched from
+ * the server only when the entries of the previous page are delivered, so a slow subscriber slows down the
+ * search instead of filling memory. Signals are delivered on the executor, one at a time.
+ */
+final class SearchPublisher implements Flow.Publisher<Map<String, Object>> {
+
+    private static final Logger logger = Logger.getLogger(SearchPublisher.class.getName());
+
+    private final LDAP ldap;
+
+    private final Search search;
+
+    private final Executor executor;
+
+    private final Function<Search, PagedSearchIterator> iterators;
+
+    SearchPublisher(LDAP ldap, Search search, Executor executor) {
+        this(ldap, search, executor, s -> new PagedSearchIterator(ldap, s));
+    }
+
+    SearchPublisher(LDAP ldap, Search search, Executor executor, Function<Search, PagedSearchIterator> iterators) {
+        this.ldap = ldap;
+        this.search = search;
+        this.executor = executor;
+        this.iterators = iterators;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Map<String, Object>> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        SearchSubscription subscription = new SearchSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private final class SearchSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super Map<String, Object>> subscriber;
+
+        private final AtomicLong demand;
+
+        private final AtomicInteger pending;
+
+        private volatile boolean cancelled;
+
+        private volatile IllegalArgumentException invalidRequest;
+
+        private PagedSearchIterator iterator;
+
+        private boolean done;
+
+        private SearchSubscription(Flow.Subscriber<? super Map<String, Object>> subscriber) {
+            this.subscriber = subscriber;
+            this.demand = new AtomicLong();
+            this.pending = new AtomicInteger();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0L) {
+                invalidRequest = new IllegalArgumentException("request must be positive: " + n);
+            } else {
+                demand.getAndAccumulate(n, (current, add) -> current + add < 0L ? Long.MAX_VALUE : current + add);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        /**
+         * Run the delivery loop unless it is running already; a running loop picks up the new state.
+         */
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    cancelled = true;
+                    pending.set(0);
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                deliver();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                finish();
+                return;
+            }
+            if (invalidRequest != null) {
+                finish();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            if (demand.get() == 0L) {
+                return;
+            }
+            try {
+                if (iterator == null) {
+                    if (!ldap.hasServers()) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    iterator = iterators.apply(search);
+                }
+                while (demand.get() > 0L && !cancelled && invalidRequest == null) {
+                    if (!iterator.hasNext()) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    Map<String, Object> entry = iterator.next();
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(entry);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.WARNING, "subscriber failed, cancelling the search", e);
+                        cancelled = true;
+                        finish();
+                        return;
+                    }
+                }
+            } catch (UncheckedNamingException e) {
+                finish();
+                subscriber.onError(e.getCause());
+            } catch (RuntimeException e) {
+                if (done) {
+                    logger.log(Level.WARNING, "subscriber failed on completion", e);
+                    return;
+                }
+                finish();
+                subscriber.onError(e);
+            }
+        }
+
+        private void finish() {
+            done = true;
+            if (iterator != null) {
+                iterator.close();
+                iterator = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.xbib.groovy.ldap;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A window of the sorted result of a search, returned by {@link LDAP#searchWindow(Search)}.
+ */
+public class SearchWindow {
+
+    private final List<Map<String, Object>> entries;
+
+    private final int targetPosition;
+
+    private final int contentCount;
+
+    SearchWindow(List<Map<String, Object>> entries, int targetPosition, int contentCount) {
+        this.entries = entries;
+        this.targetPosition = targetPosition;
+        this.contentCount = contentCount;
+    }
+
+    public List<Map<String, Object>> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Get the position of the target entry in the whole result, 1 for the first entry.
+     *
+     * @return the position
+     */
+    public int getTargetPosition() {
+        return targetPosition;
+    }
+
+    /**
+     * Get the number of entries of the whole result, as estimated by the server.
+     *
+     * @return the number of entries
+     */
+    public int getContentCount() {
+        return contentCount;
+    }
+
+    @Override
+    public String toString() {
+        return entries.size() + " entries at " + targetPosition + " of " + contentCount;
+    }
+}
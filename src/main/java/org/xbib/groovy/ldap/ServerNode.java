@@ -0,0 +1,280 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A server of an {@link LDAP} instance, with its own context pool, health state and statistics.
+ *
+ * A server is taken out of rotation after consecutive connection failures. After a while, one request is let
+ * through as a probe; if it succeeds the server is back, otherwise it stays out for twice as long, up to a minute.
+ */
+public class ServerNode {
+
+    private static final Logger logger = Logger.getLogger(ServerNode.class.getName());
+
+    private static final String[] NO_ATTRIBUTES = { "1.1" };
+
+    static final int FAILURE_THRESHOLD = 3;
+
+    static final long MIN_OPEN_MILLIS = 1000L;
+
+    static final long MAX_OPEN_MILLIS = 60000L;
+
+    /**
+     * The roles of servers. Writes go to the primary, reads to replicas if any are available.
+     */
+    public enum Role {
+        PRIMARY, REPLICA
+    }
+
+    /**
+     * The health states of servers.
+     */
+    public enum State {
+        UP, DOWN
+    }
+
+    private final int index;
+
+    private final String url;
+
+    private final Role role;
+
+    private final ContextPool.Factory factory;
+
+    private final ContextPool pool;
+
+    private final LatencyHistogram latency;
+
+    private final AtomicInteger outstanding;
+
+    private final AtomicLong requests;
+
+    private final AtomicLong failures;
+
+    private volatile int consecutiveFailures;
+
+    private long openMillis;
+
+    private volatile long openUntil;
+
+    private volatile State state;
+
+    ServerNode(int index, String url, Role role, Connector connector, PoolSettings poolSettings) {
+        this.index = index;
+        this.url = url;
+        this.role = role;
+        this.factory = () -> connector.connect(this);
+        this.pool = poolSettings.isEnabled() ? new ContextPool(factory, poolSettings) : null;
+        this.latency = new LatencyHistogram();
+        this.outstanding = new AtomicInteger();
+        this.requests = new AtomicLong();
+        this.failures = new AtomicLong();
+        this.openMillis = MIN_OPEN_MILLIS;
+        this.state = State.UP;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Get the number of requests currently in flight on this server.
+     *
+     * @return the number of requests
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Get the latencies of the requests to this server, failed ones included.
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Probe the server by reading the root DSE over a new connection, and update the health state. Failures to
+     * connect are recorded by the connector.
+     *
+     * @return true if the server is healthy
+     */
+    public boolean checkHealth() {
+        LdapContext ctx = null;
+        try {
+            ctx = factory.create();
+            ctx.getAttributes("", NO_ATTRIBUTES);
+            markSuccess();
+            return true;
+        } catch (NamingException e) {
+            logger.log(Level.FINE, url + ": " + e.getMessage(), e);
+            if (ctx != null && isServerFailure(e)) {
+                markFailure();
+            }
+            return false;
+        } finally {
+            if (ctx != null) {
+                try {
+                    ctx.close();
+                } catch (NamingException e) {
+                    logger.log(Level.FINEST, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return url + " " + role + " " + state + " requests=" + requests.get() + " failures=" + failures.get()
+                + " outstanding=" + outstanding.get() + " " + latency;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * Claim the probe of a server which is down for long enough. Only one caller gets the probe, the others keep
+     * skipping the server until the probe has failed or succeeded.
+     *
+     * @param now the current time in milliseconds
+     * @return true if the caller should send a request to this server as a probe
+     */
+    synchronized boolean claimProbe(long now) {
+        if (state != State.DOWN || now < openUntil) {
+            return false;
+        }
+        openUntil = now + openMillis;
+        return true;
+    }
+
+    long getOpenUntil() {
+        return openUntil;
+    }
+
+    LdapContext acquire() throws NamingException {
+        outstanding.incrementAndGet();
+        try {
+            return pool != null ? pool.borrow() : factory.create();
+        } catch (NamingException | RuntimeException e) {
+            outstanding.decrementAndGet();
+            throw e;
+        }
+    }
+
+    void release(LdapContext ctx, boolean reusable) {
+        outstanding.decrementAndGet();
+        if (pool == null) {
+            try {
+                ctx.close();
+            } catch (NamingException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+            }
+        } else if (reusable) {
+            pool.release(ctx);
+        } else {
+            pool.invalidate(ctx);
+        }
+    }
+
+    void succeeded(long nanos) {
+        requests.incrementAndGet();
+        latency.record(nanos);
+        if (state != State.UP || consecutiveFailures > 0) {
+            markSuccess();
+        }
+    }
+
+    void failed(long nanos, NamingException e) {
+        requests.incrementAndGet();
+        failures.incrementAndGet();
+        latency.record(nanos);
+        if (isServerFailure(e)) {
+            markFailure();
+        } else if (state != State.UP || consecutiveFailures > 0) {
+            markSuccess();
+        }
+    }
+
+    /**
+     * Record that a connection to this server could not be opened.
+     */
+    void connectFailed() {
+        failures.incrementAndGet();
+        markFailure();
+    }
+
+    synchronized void markSuccess() {
+        if (state == State.DOWN) {
+            logger.log(Level.INFO, "server " + url + " is up again");
+        }
+        consecutiveFailures = 0;
+        openMillis = MIN_OPEN_MILLIS;
+        state = State.UP;
+    }
+
+    synchronized void markFailure() {
+        consecutiveFailures++;
+        if (state == State.DOWN || consecutiveFailures >= FAILURE_THRESHOLD) {
+            if (state == State.UP) {
+                logger.log(Level.WARNING, "server " + url + " is down after " + consecutiveFailures + " failures");
+            }
+            state = State.DOWN;
+            openUntil = System.currentTimeMillis() + openMillis;
+            openMillis = Math.min(openMillis * 2, MAX_OPEN_MILLIS);
+            if (pool != null) {
+                pool.clear();
+            }
+        }
+    }
+
+    void close() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Check if a failure means that the server, not the request, is at fault. A busy or unavailable reply is
+     * overload, not an outage, and is left to the {@link ConcurrencyLimiter}.
+     *
+     * @param e the failure
+     * @return true for connection failures
+     */
+    static boolean isServerFailure(NamingException e) {
+        return e instanceof CommunicationException;
+    }
+
+    /**
+     * Opens the connections to a server.
+     */
+    @FunctionalInterface
+    interface Connector {
+        LdapContext connect(ServerNode server) throws NamingException;
+    }
+}
@@ -0,0 +1,250 @@
+package org.xbib.groovy.ldap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only snapshot of the entries of a search: for each entry its DN and a hash of its attributes, sorted by
+ * normalized DN. Snapshots are written by {@link SnapshotSync}.
+ *
+ * The file is memory-mapped, so opening a snapshot reads nothing but the header, and a lookup by DN is a binary
+ * search over an index of record offsets at the end of the file. A snapshot is limited to 2 GB, which is room for
+ * some tens of millions of entries.
+ *
+ * File layout: magic, version, entry count, timestamp, the records (normalized DN, DN, hash), the record offsets.
+ */
+public final class Snapshot implements AutoCloseable {
+
+    static final int MAGIC = 0x474c534e;
+
+    static final int VERSION = 1;
+
+    /**
+     * The length of the entry hashes in bytes.
+     */
+    static final int HASH_LENGTH = 16;
+
+    private final Path path;
+
+    private final ByteBuffer buffer;
+
+    private final int count;
+
+    private final String timestamp;
+
+    private final int dataStart;
+
+    private final int indexStart;
+
+    private Snapshot(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.remaining() < 16 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a snapshot: " + path);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("unsupported snapshot version " + buffer.getInt(4) + ": " + path);
+        }
+        long entries = buffer.getLong(8);
+        int length = buffer.getShort(16) & 0xffff;
+        this.timestamp = length > 0 ? string(18, length) : null;
+        this.dataStart = 18 + length;
+        if (entries < 0L || entries > (buffer.capacity() - dataStart) / 8) {
+            throw new IOException("corrupt snapshot: " + path);
+        }
+        this.count = (int) entries;
+        this.indexStart = buffer.capacity() - 8 * count;
+    }
+
+    /**
+     * Open a snapshot file.
+     *
+     * @param path the file
+     * @return the snapshot
+     * @throws IOException if the file can not be read or is not a snapshot
+     */
+    public static Snapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("snapshot too large to map: " + path);
+            }
+            return new Snapshot(path, channel.map(FileChannel.MapMode.READ_ONLY, 0L, size));
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get the greatest modification timestamp of the entries when the snapshot was taken, which is where the
+     * next incremental sync starts.
+     *
+     * @return the timestamp, or null if the server returned none
+     */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Check if the snapshot contains an entry.
+     *
+     * @param dn the DN
+     * @return true if the snapshot contains the entry
+     */
+    public boolean contains(String dn) {
+        return find(DistinguishedNames.normalize(dn)) >= 0;
+    }
+
+    /**
+     * Get the hash of an entry.
+     *
+     * @param dn the DN
+     * @return the hash, or null if the snapshot does not contain the entry
+     */
+    public byte[] getHash(String dn) {
+        return hash(DistinguishedNames.normalize(dn));
+    }
+
+    /**
+     * Get the hash of an entry by normalized DN.
+     *
+     * @param key the normalized DN
+     * @return the hash, or null
+     */
+    byte[] hash(String key) {
+        int offset = find(key);
+        if (offset < 0) {
+            return null;
+        }
+        int keyLength = buffer.getShort(offset) & 0xffff;
+        int dnLength = buffer.getShort(offset + 2 + keyLength) & 0xffff;
+        return bytes(offset + 4 + keyLength + dnLength, HASH_LENGTH);
+    }
+
+    /**
+     * Get a cursor over the records in order of normalized DN.
+     *
+     * @return the cursor
+     */
+    Cursor cursor() {
+        ByteBuffer records = buffer.duplicate();
+        records.position(dataStart);
+        records.limit(indexStart);
+        return new Cursor(records);
+    }
+
+    @Override
+    public void close() {
+        // the mapping is released by the garbage collector
+    }
+
+    @Override
+    public String toString() {
+        return path + " entries=" + count + " timestamp=" + timestamp;
+    }
+
+    /**
+     * Find a record by binary search in the index.
+     *
+     * @return the offset of the record, or -1
+     */
+    private int find(String key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = (int) buffer.getLong(indexStart + 8 * mid);
+            int c = string(offset + 2, buffer.getShort(offset) & 0xffff).compareTo(key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private String string(int offset, int length) {
+        return new String(bytes(offset, length), StandardCharsets.UTF_8);
+    }
+
+    private byte[] bytes(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads the records of a snapshot in order.
+     */
+    static final class Cursor {
+
+        private final ByteBuffer records;
+
+        private String key;
+
+        private String dn;
+
+        private byte[] hash;
+
+        private Cursor(ByteBuffer records) {
+            this.records = records;
+        }
+
+        /**
+         * Move to the next record.
+         *
+         * @return false if there are no more records
+         */
+        boolean next() {
+            if (!records.hasRemaining()) {
+                key = null;
+                dn = null;
+                hash = null;
+                return false;
+            }
+            key = read();
+            dn = read();
+            hash = new byte[HASH_LENGTH];
+            records.get(hash);
+            return true;
+        }
+
+        String key() {
+            return key;
+        }
+
+        String dn() {
+            return dn;
+        }
+
+        byte[] hash() {
+            return hash;
+        }
+
+        private String read() {
+            byte[] bytes = new byte[records.getShort() & 0xffff];
+            records.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
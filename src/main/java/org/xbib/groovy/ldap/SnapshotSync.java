@@ -0,0 +1,473 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.ConfigurationException;
+import javax.naming.NamingException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Detects the changes of the entries of a search between runs, by comparing them with a {@link Snapshot} of the
+ * previous run. Each run reports the added, modified and removed entries to an {@link EntryListener} and replaces
+ * the snapshot. If the listener throws, the snapshot is kept, and the next run reports the changes again.
+ *
+ * The first run, and every run without a timestamp, is a full sync: all entries are fetched, each one is looked up
+ * in the previous snapshot by DN, and removed entries are found by a merge join of the old and new snapshot.
+ *
+ * Later runs are incremental if the server returns the timestamp attribute, modifyTimestamp by default. Only the
+ * entries changed since the previous run are fetched, by adding a timestamp filter to the search. Removed entries
+ * can not be found by their timestamp, so the DNs of all entries are fetched, without attributes, and merge joined
+ * with the previous snapshot. The attribute values transferred scale with the number of changes.
+ *
+ * <pre>
+ * def sync = new SnapshotSync(ldap, new Search(base: 'ou=people,dc=example,dc=com', attrs: ['cn', 'mail']),
+ *         Paths.get('people.snapshot'))
+ * sync.sync { event -&gt; downstream.apply(event) }
+ * </pre>
+ */
+public class SnapshotSync {
+
+    public static final String DEFAULT_TIMESTAMP_ATTR = "modifyTimestamp";
+
+    /**
+     * How far the next incremental sync reaches back before the start of a run, to allow for clock skew between
+     * client and server, and for entries modified while the run is in progress.
+     */
+    public static final long DEFAULT_OVERLAP_MILLIS = 60000L;
+
+    private static final Pattern GENERALIZED_TIME = Pattern.compile("^(\\d{14})(?:[.,]\\d+)?(Z|[+-]\\d{4})?");
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private static final byte[] NO_HASH = new byte[Snapshot.HASH_LENGTH];
+
+    private final LDAP ldap;
+
+    private final Search search;
+
+    private final Path file;
+
+    private volatile String timestampAttr = DEFAULT_TIMESTAMP_ATTR;
+
+    private volatile boolean incremental = true;
+
+    private volatile long overlapMillis = DEFAULT_OVERLAP_MILLIS;
+
+    /**
+     * Create a sync.
+     *
+     * @param ldap the LDAP instance
+     * @param search the search whose entries are synced
+     * @param file the snapshot file
+     */
+    public SnapshotSync(LDAP ldap, Search search, Path file) {
+        this.ldap = ldap;
+        this.search = search;
+        this.file = file;
+    }
+
+    /**
+     * Set the attribute which holds the time of the last modification of an entry, in generalized time syntax,
+     * for example whenChanged for Active Directory.
+     *
+     * @param timestampAttr the attribute name
+     */
+    public void setTimestampAttr(String timestampAttr) {
+        if (timestampAttr == null || timestampAttr.isEmpty()) {
+            throw new IllegalArgumentException("timestampAttr must not be empty");
+        }
+        this.timestampAttr = timestampAttr;
+    }
+
+    public String getTimestampAttr() {
+        return timestampAttr;
+    }
+
+    /**
+     * Set whether runs after the first one fetch only the changed entries, which is the default.
+     *
+     * @param incremental false to fetch all entries on every run
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Set how far the next incremental sync reaches back before the start of a run.
+     *
+     * @param overlapMillis the overlap in milliseconds
+     */
+    public void setOverlapMillis(long overlapMillis) {
+        if (overlapMillis < 0L) {
+            throw new IllegalArgumentException("overlapMillis must not be negative: " + overlapMillis);
+        }
+        this.overlapMillis = overlapMillis;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Report the changes since the previous run and replace the snapshot.
+     *
+     * @param listener the listener, called with {@link EntryEvent.Type#ADDED}, {@link EntryEvent.Type#MODIFIED} and
+     *                 {@link EntryEvent.Type#REMOVED} events
+     * @return the counts of the changes
+     * @throws NamingException if a search fails
+     * @throws IOException if a snapshot can not be read or written
+     */
+    public SyncResult sync(EntryListener listener) throws NamingException, IOException {
+        if (!ldap.hasServers()) {
+            throw new ConfigurationException("no LDAP URL configured");
+        }
+        long start = System.nanoTime();
+        Path next = file.resolveSibling(file.getFileName() + ".new");
+        Snapshot previous = Files.exists(file) ? Snapshot.open(file) : null;
+        boolean incrementalRun = incremental && previous != null && previous.getTimestamp() != null;
+        Run run = new Run(listener, Instant.now().minusMillis(overlapMillis));
+        try {
+            if (incrementalRun) {
+                run.incremental(previous, next);
+            } else {
+                run.full(previous, next);
+            }
+            try {
+                Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(next, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(next);
+        }
+        return new SyncResult(incrementalRun, run.entries, run.added, run.modified, run.removed,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Hash the attributes of an entry, independent of the order of attributes and values and of the case of the
+     * attribute names. The DN and the timestamp attribute are not included.
+     *
+     * @param entry the entry
+     * @param timestampAttr the timestamp attribute
+     * @return the hash
+     */
+    static byte[] hash(Map<String, Object> entry, String timestampAttr) {
+        Map<String, List<String>> canonical = new TreeMap<>();
+        for (Map.Entry<String, Object> attribute : entry.entrySet()) {
+            String name = attribute.getKey().toLowerCase(Locale.ROOT);
+            if (name.equals("dn") || name.equalsIgnoreCase(timestampAttr)) {
+                continue;
+            }
+            List<String> values = new ArrayList<>();
+            Object value = attribute.getValue();
+            if (value instanceof Collection) {
+                for (Object v : (Collection<?>) value) {
+                    values.add(valueString(v));
+                }
+            } else {
+                values.add(valueString(value));
+            }
+            values.sort(null);
+            canonical.put(name, values);
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Map.Entry<String, List<String>> attribute : canonical.entrySet()) {
+            update(digest, attribute.getKey());
+            update(digest, attribute.getValue().size());
+            for (String value : attribute.getValue()) {
+                update(digest, value);
+            }
+        }
+        return Arrays.copyOf(digest.digest(), Snapshot.HASH_LENGTH);
+    }
+
+    /**
+     * Parse the date and time of a generalized time, for example 20240131235959.5Z, or of a value starting with
+     * one, such as an OpenLDAP entryCSN.
+     *
+     * @param value the value
+     * @return the instant, truncated to seconds, or null if the value is not a generalized time
+     */
+    static Instant parseTime(String value) {
+        Matcher matcher = GENERALIZED_TIME.matcher(value);
+        if (!matcher.find()) {
+            return null;
+        }
+        LocalDateTime time = LocalDateTime.parse(matcher.group(1), TIME_FORMAT);
+        String zone = matcher.group(2);
+        return time.toInstant(zone == null || zone.equals("Z") ? ZoneOffset.UTC : ZoneOffset.of(zone));
+    }
+
+    static String formatTime(Instant instant) {
+        return TIME_FORMAT.format(instant.atOffset(ZoneOffset.UTC)) + "Z";
+    }
+
+    private static String valueString(Object value) {
+        if (value instanceof byte[]) {
+            return "b:" + Base64.getEncoder().encodeToString((byte[]) value);
+        }
+        return "s:" + value;
+    }
+
+    private static void update(MessageDigest digest, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        update(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+    private static void update(MessageDigest digest, int n) {
+        digest.update((byte) (n >>> 24));
+        digest.update((byte) (n >>> 16));
+        digest.update((byte) (n >>> 8));
+        digest.update((byte) n);
+    }
+
+    /**
+     * The state of one run.
+     */
+    private final class Run {
+
+        private final EntryListener listener;
+
+        private final Instant cutoff;
+
+        private final String attr;
+
+        private final String[] attrs;
+
+        private Instant latest;
+
+        private long entries;
+
+        private long added;
+
+        private long modified;
+
+        private long removed;
+
+        private Run(EntryListener listener, Instant cutoff) {
+            this.listener = listener;
+            this.cutoff = cutoff;
+            this.attr = timestampAttr;
+            this.attrs = projection(search, attr);
+        }
+
+        /**
+         * Fetch all entries, compare them with the previous snapshot by lookup, and find the removed entries by a
+         * merge join of the old and the new snapshot.
+         */
+        private void full(Snapshot previous, Path next) throws NamingException, IOException {
+            try (SnapshotWriter writer = new SnapshotWriter(next)) {
+                fetch(search.withAttrs(attrs), previous, (key, dn, hash) -> writer.add(key, dn, hash));
+                entries = writer.finish(timestamp(null));
+            }
+            if (previous != null) {
+                try (Snapshot current = Snapshot.open(next)) {
+                    Snapshot.Cursor old = previous.cursor();
+                    Snapshot.Cursor now = current.cursor();
+                    boolean hasOld = old.next();
+                    boolean hasNow = now.next();
+                    while (hasOld) {
+                        int c = hasNow ? old.key().compareTo(now.key()) : -1;
+                        if (c < 0) {
+                            removed(old.dn());
+                            hasOld = old.next();
+                        } else if (c == 0) {
+                            hasOld = old.next();
+                            hasNow = now.next();
+                        } else {
+                            hasNow = now.next();
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Fetch the entries changed since the previous snapshot, then the DNs of all entries, and merge join them
+         * with the previous snapshot.
+         */
+        private void incremental(Snapshot previous, Path next) throws NamingException, IOException {
+            Instant since = parseTime(previous.getTimestamp());
+            String filter = search.getFilter().startsWith("(") ? search.getFilter() : "(" + search.getFilter() + ")";
+            Search changes = search.withFilter("(&" + filter + "(" + attr + ">="
+                    + Filter.escape(since != null ? formatTime(since) : previous.getTimestamp()) + "))",
+                    search.getFilterArgs()).withAttrs(attrs);
+            Map<String, byte[]> hashes = new HashMap<>();
+            fetch(changes, previous, (key, dn, hash) -> hashes.put(key, hash));
+            Path dns = Files.createTempFile(next.toAbsolutePath().getParent(), "snapshot", ".dns");
+            try (SnapshotWriter writer = new SnapshotWriter(next)) {
+                try (SnapshotWriter dnWriter = new SnapshotWriter(dns)) {
+                    fetch(search.withAttrs(Search.DN_ONLY), null, dnWriter::add);
+                    dnWriter.finish(null);
+                }
+                try (Snapshot current = Snapshot.open(dns)) {
+                    Snapshot.Cursor old = previous.cursor();
+                    Snapshot.Cursor now = current.cursor();
+                    boolean hasOld = old.next();
+                    boolean hasNow = now.next();
+                    while (hasOld || hasNow) {
+                        int c = !hasOld ? 1 : !hasNow ? -1 : old.key().compareTo(now.key());
+                        if (c < 0) {
+                            removed(old.dn());
+                            hasOld = old.next();
+                        } else if (c == 0) {
+                            byte[] hash = hashes.get(now.key());
+                            writer.add(now.key(), now.dn(), hash != null ? hash : old.hash());
+                            hasOld = old.next();
+                            hasNow = now.next();
+                        } else {
+                            byte[] hash = hashes.get(now.key());
+                            if (hash == null) {
+                                hash = addedMeanwhile(now.dn());
+                            }
+                            if (hash != null) {
+                                writer.add(now.key(), now.dn(), hash);
+                            }
+                            hasNow = now.next();
+                        }
+                    }
+                }
+                entries = writer.finish(timestamp(previous.getTimestamp()));
+            } finally {
+                Files.deleteIfExists(dns);
+            }
+        }
+
+        /**
+         * Read an entry which is neither in the previous snapshot nor among the changed entries, because it was
+         * added after the search for changed entries.
+         */
+        private byte[] addedMeanwhile(String dn) throws NamingException {
+            String name = ldap.relativize(dn);
+            Map<String, Object> entry = ldap.readAll(List.of(name), attrs).get(name);
+            if (entry == null) {
+                return null;
+            }
+            entry = new LinkedHashMap<>(entry);
+            entry.put("dn", dn);
+            observe(entry);
+            added++;
+            listener.entryChanged(new EntryEvent(EntryEvent.Type.ADDED, dn, null, entry, null));
+            return hash(entry, attr);
+        }
+
+        private void fetch(Search fetched, Snapshot previous, RecordSink sink) throws NamingException, IOException {
+            try (PagedSearchIterator iterator = new PagedSearchIterator(ldap, fetched)) {
+                while (iterator.hasNext()) {
+                    Map<String, Object> entry = iterator.next();
+                    String dn = (String) entry.get("dn");
+                    String key = DistinguishedNames.normalize(dn);
+                    if (fetched.isDnOnly()) {
+                        sink.accept(key, dn, NO_HASH);
+                        continue;
+                    }
+                    byte[] hash = hash(entry, attr);
+                    observe(entry);
+                    byte[] old = previous != null ? previous.hash(key) : null;
+                    if (old == null) {
+                        added++;
+                        listener.entryChanged(new EntryEvent(EntryEvent.Type.ADDED, dn, null, entry, null));
+                    } else if (!Arrays.equals(old, hash)) {
+                        modified++;
+                        listener.entryChanged(new EntryEvent(EntryEvent.Type.MODIFIED, dn, null, entry, null));
+                    }
+                    sink.accept(key, dn, hash);
+                }
+            } catch (UncheckedNamingException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void removed(String dn) {
+            removed++;
+            listener.entryChanged(new EntryEvent(EntryEvent.Type.REMOVED, dn, null, null, null));
+        }
+
+        private void observe(Map<String, Object> entry) {
+            for (Map.Entry<String, Object> attribute : entry.entrySet()) {
+                if (attribute.getKey().equalsIgnoreCase(attr)) {
+                    Object value = attribute.getValue();
+                    if (value instanceof Collection) {
+                        Collection<?> values = (Collection<?>) value;
+                        value = values.isEmpty() ? null : values.iterator().next();
+                    }
+                    Instant time = value != null ? parseTime(value.toString()) : null;
+                    if (time != null && (latest == null || time.isAfter(latest))) {
+                        latest = time;
+                    }
+                }
+            }
+        }
+
+        /**
+         * The timestamp of the new snapshot: the latest timestamp seen, but not after the start of the run minus
+         * the overlap, so entries modified while the run was in progress are fetched again next time.
+         */
+        private String timestamp(String unchanged) {
+            Instant time = latest;
+            if (time == null) {
+                return unchanged;
+            }
+            return formatTime(time.isAfter(cutoff) ? cutoff : time);
+        }
+    }
+
+    private static String[] projection(Search search, String attr) {
+        String[] attrs = search.getAttrs();
+        if (attrs == null) {
+            return new String[] { "*", attr };
+        }
+        if (search.isDnOnly()) {
+            return new String[] { attr };
+        }
+        for (String a : attrs) {
+            if (a.equalsIgnoreCase(attr)) {
+                return attrs;
+            }
+        }
+        String[] projection = Arrays.copyOf(attrs, attrs.length + 1);
+        projection[attrs.length] = attr;
+        return projection;
+    }
+
+    /**
+     * Receives the records of fetched entries.
+     */
+    @FunctionalInterface
+    private interface RecordSink {
+
+        void accept(String key, String dn, byte[] hash) throws IOException;
+    }
+}
@@ -0,0 +1,301 @@
+package org.xbib.groovy.ldap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes a {@link Snapshot} file from records in any order, by an external merge sort: records are sorted in
+ * memory in runs of {@link #RUN_SIZE} by default, which are spilled to temporary files and merged into the
+ * snapshot. Records with the same normalized DN are written once, the first one added wins.
+ */
+final class SnapshotWriter implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(SnapshotWriter.class.getName());
+
+    /**
+     * The default number of records sorted in memory.
+     */
+    static final int RUN_SIZE = 100000;
+
+    private static final Comparator<Record> ORDER = Comparator.comparing((Record record) -> record.key)
+            .thenComparingLong(record -> record.sequence);
+
+    private final Path target;
+
+    private final int runSize;
+
+    private final List<Record> buffer;
+
+    private final List<Path> runs;
+
+    private long sequence;
+
+    SnapshotWriter(Path target) {
+        this(target, RUN_SIZE);
+    }
+
+    SnapshotWriter(Path target, int runSize) {
+        this.target = target;
+        this.runSize = runSize;
+        this.buffer = new ArrayList<>();
+        this.runs = new ArrayList<>();
+    }
+
+    void add(String key, String dn, byte[] hash) throws IOException {
+        if (hash.length != Snapshot.HASH_LENGTH) {
+            throw new IllegalArgumentException("hash length must be " + Snapshot.HASH_LENGTH + ": " + hash.length);
+        }
+        buffer.add(new Record(key, dn, hash, sequence++));
+        if (buffer.size() >= runSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Merge the records into the snapshot file.
+     *
+     * @param timestamp the timestamp of the snapshot, or null
+     * @return the number of records written
+     * @throws IOException if the file can not be written
+     */
+    long finish(String timestamp) throws IOException {
+        List<RunReader> readers = new ArrayList<>();
+        Path index = Files.createTempFile(dir(), "snapshot", ".idx");
+        try {
+            buffer.sort(ORDER);
+            if (runs.isEmpty()) {
+                readers.add(new RunReader(buffer));
+            } else {
+                spill();
+                for (Path run : runs) {
+                    readers.add(new RunReader(run));
+                }
+            }
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, readers.size()),
+                    (a, b) -> ORDER.compare(a.current, b.current));
+            for (RunReader reader : readers) {
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            long count = 0L;
+            try (Output out = new Output(target); DataOutputStream offsets = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(index)))) {
+                out.data.writeInt(Snapshot.MAGIC);
+                out.data.writeInt(Snapshot.VERSION);
+                out.data.writeLong(0L);
+                writeString(out.data, timestamp != null ? timestamp : "");
+                out.position = 18 + utf8(timestamp != null ? timestamp : "").length;
+                String last = null;
+                while (!queue.isEmpty()) {
+                    RunReader reader = queue.poll();
+                    Record record = reader.current;
+                    if (!record.key.equals(last)) {
+                        offsets.writeLong(out.position);
+                        out.write(record);
+                        last = record.key;
+                        count++;
+                    }
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+                offsets.flush();
+                Files.copy(index, out.data);
+                out.position += 8L * count;
+                if (out.position > Integer.MAX_VALUE) {
+                    throw new IOException("snapshot too large: " + out.position + " bytes");
+                }
+            }
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(8);
+                header.putLong(count).flip();
+                channel.write(header, 8L);
+            }
+            return count;
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+            Files.deleteIfExists(index);
+            close();
+        }
+    }
+
+    /**
+     * Delete the temporary files.
+     */
+    @Override
+    public void close() {
+        buffer.clear();
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+            }
+        }
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        buffer.sort(ORDER);
+        Path run = Files.createTempFile(dir(), "snapshot", ".run");
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            for (Record record : buffer) {
+                writeString(out, record.key);
+                writeString(out, record.dn);
+                out.write(record.hash);
+                out.writeLong(record.sequence);
+            }
+        }
+        buffer.clear();
+    }
+
+    private Path dir() {
+        Path parent = target.toAbsolutePath().getParent();
+        return parent != null ? parent : target.toAbsolutePath();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = utf8(s);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] utf8(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IllegalArgumentException("DN too long for a snapshot: " + s.substring(0, 64) + "...");
+        }
+        return bytes;
+    }
+
+    private static final class Record {
+
+        private final String key;
+
+        private final String dn;
+
+        private final byte[] hash;
+
+        private final long sequence;
+
+        private Record(String key, String dn, byte[] hash, long sequence) {
+            this.key = key;
+            this.dn = dn;
+            this.hash = hash;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Reads the sorted records of a run, from memory or from a spilled file.
+     */
+    private static final class RunReader implements Closeable {
+
+        private final List<Record> records;
+
+        private final DataInputStream in;
+
+        private int index;
+
+        private Record current;
+
+        private RunReader(List<Record> records) {
+            this.records = records;
+            this.in = null;
+        }
+
+        private RunReader(Path run) throws IOException {
+            this.records = null;
+            InputStream stream = Files.newInputStream(run);
+            this.in = new DataInputStream(new BufferedInputStream(stream));
+        }
+
+        private boolean next() throws IOException {
+            if (records != null) {
+                current = index < records.size() ? records.get(index++) : null;
+                return current != null;
+            }
+            int length;
+            try {
+                length = in.readUnsignedShort();
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            String key = readString(length);
+            String dn = readString(in.readUnsignedShort());
+            byte[] hash = new byte[Snapshot.HASH_LENGTH];
+            in.readFully(hash);
+            current = new Record(key, dn, hash, in.readLong());
+            return true;
+        }
+
+        private String readString(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * The snapshot file being written, with the current position.
+     */
+    private static final class Output implements Closeable {
+
+        private final DataOutputStream data;
+
+        private long position;
+
+        private Output(Path target) throws IOException {
+            this.data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target)));
+        }
+
+        private void write(Record record) throws IOException {
+            byte[] key = utf8(record.key);
+            byte[] dn = utf8(record.dn);
+            data.writeShort(key.length);
+            data.write(key);
+            data.writeShort(dn.length);
+            data.write(dn);
+            data.write(record.hash);
+            position += 4 + key.length + dn.length + Snapshot.HASH_LENGTH;
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.xbib.groovy.ldap;
+
+/**
+ * The outcome of a {@link SnapshotSync#sync(EntryListener)}.
+ */
+public class SyncResult {
+
+    private final boolean incremental;
+
+    private final long entries;
+
+    private final long added;
+
+    private final long modified;
+
+    private final long removed;
+
+    private final long elapsedNanos;
+
+    SyncResult(boolean incremental, long entries, long added, long modified, long removed, long elapsedNanos) {
+        this.incremental = incremental;
+        this.entries = entries;
+        this.added = added;
+        this.modified = modified;
+        this.removed = removed;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Check if only the changed entries were fetched.
+     * @return true for an incremental sync, false for a full one
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * The number of entries of the new snapshot.
+     * @return the number of entries
+     */
+    public long getEntryCount() {
+        return entries;
+    }
+
+    public long getAddedCount() {
+        return added;
+    }
+
+    public long getModifiedCount() {
+        return modified;
+    }
+
+    public long getRemovedCount() {
+        return removed;
+    }
+
+    public long getUnchangedCount() {
+        return entries - added - modified;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return (incremental ? "incremental" : "full") + " sync of " + entries + " entries: " + added + " added, "
+                + modified + " modified, " + removed + " removed";
+    }
+}
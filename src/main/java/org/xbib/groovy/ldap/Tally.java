@@ -0,0 +1,81 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import java.util.logging.Logger;
+
+/**
+ * Counts the entries and attributes returned by one operation, for the {@link Instrumentation}. For a search with
+ * {@link Search#getMaxBytes()}, the size of the returned values is estimated and checked against the limit.
+ */
+final class Tally {
+
+    private static final Logger logger = Logger.getLogger(Tally.class.getName());
+
+    long entries;
+
+    long attributes;
+
+    long bytes;
+
+    private final Search search;
+
+    private final long maxBytes;
+
+    private boolean exceeded;
+
+    Tally() {
+        this.search = null;
+        this.maxBytes = 0L;
+    }
+
+    Tally(Search search) {
+        this.search = search;
+        this.maxBytes = search.getMaxBytes();
+    }
+
+    void count(Attributes attrs) throws NamingException {
+        entries++;
+        attributes += attrs.size();
+        if (maxBytes > 0L) {
+            bytes += estimateSize(attrs);
+            if (bytes > maxBytes && !exceeded) {
+                exceeded = true;
+                String message = "result of search " + search.getBase() + " " + search.getFilter()
+                        + " exceeds " + maxBytes + " bytes after " + entries + " entries";
+                if (search.isAbortOnMaxBytes()) {
+                    throw new SizeLimitExceededException(message);
+                }
+                logger.warning(message);
+            }
+        }
+    }
+
+    /**
+     * Estimate the size of attributes, by the length of the names and of the string or binary values.
+     *
+     * @param attrs the attributes
+     * @return the estimated size in bytes
+     * @throws NamingException if the attributes can not be enumerated
+     */
+    static long estimateSize(Attributes attrs) throws NamingException {
+        long size = 0L;
+        NamingEnumeration<? extends Attribute> all = attrs.getAll();
+        while (all.hasMore()) {
+            Attribute attribute = all.next();
+            size += attribute.getID().length();
+            for (int i = 0; i < attribute.size(); i++) {
+                Object value = attribute.get(i);
+                if (value instanceof byte[]) {
+                    size += ((byte[]) value).length;
+                } else if (value != null) {
+                    size += value.toString().length();
+                }
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,21 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingException;
+import java.util.Objects;
+
+/**
+ * Wraps a {@link NamingException} with an unchecked exception, for use in iterators and streams.
+ */
+public class UncheckedNamingException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public UncheckedNamingException(NamingException cause) {
+        super(Objects.requireNonNull(cause));
+    }
+
+    @Override
+    public synchronized NamingException getCause() {
+        return (NamingException) super.getCause();
+    }
+}
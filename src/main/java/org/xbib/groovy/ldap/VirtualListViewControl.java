@@ -0,0 +1,70 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.ldap.BasicControl;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The virtual list view request control, which asks the server for a window of the sorted result of a search.
+ * It must be sent together with a {@link javax.naming.ldap.SortControl}.
+ */
+public class VirtualListViewControl extends BasicControl {
+
+    public static final String OID = "2.16.840.1.113730.3.4.9";
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BY_OFFSET = 0xa0;
+
+    private static final int GREATER_THAN_OR_EQUAL = 0x81;
+
+    private VirtualListViewControl(byte[] value) {
+        super(OID, CRITICAL, value);
+    }
+
+    /**
+     * A window around the entry at an offset.
+     *
+     * @param offset the position of the target entry, 1 for the first entry
+     * @param contentCount the estimated number of entries, or 0 if unknown
+     * @param beforeCount the number of entries before the target entry
+     * @param afterCount the number of entries after the target entry
+     * @return the control
+     */
+    public static VirtualListViewControl byOffset(int offset, int contentCount, int beforeCount, int afterCount) {
+        if (offset < 1 || contentCount < 0 || beforeCount < 0 || afterCount < 0) {
+            throw new IllegalArgumentException("invalid window: offset " + offset + ", content count " + contentCount
+                    + ", before " + beforeCount + ", after " + afterCount);
+        }
+        return new VirtualListViewControl(Ber.tlv(Ber.SEQUENCE, Ber.integer(Ber.INTEGER, beforeCount),
+                Ber.integer(Ber.INTEGER, afterCount),
+                Ber.tlv(BY_OFFSET, Ber.integer(Ber.INTEGER, offset), Ber.integer(Ber.INTEGER, contentCount))));
+    }
+
+    /**
+     * A window around the first entry whose first sort key is greater than or equal to a value.
+     *
+     * @param value the value
+     * @param beforeCount the number of entries before the target entry
+     * @param afterCount the number of entries after the target entry
+     * @return the control
+     */
+    public static VirtualListViewControl byValue(String value, int beforeCount, int afterCount) {
+        if (beforeCount < 0 || afterCount < 0) {
+            throw new IllegalArgumentException("invalid window: before " + beforeCount + ", after " + afterCount);
+        }
+        return new VirtualListViewControl(Ber.tlv(Ber.SEQUENCE, Ber.integer(Ber.INTEGER, beforeCount),
+                Ber.integer(Ber.INTEGER, afterCount),
+                Ber.tlv(GREATER_THAN_OR_EQUAL, value.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof VirtualListViewControl && Arrays.equals(value, ((VirtualListViewControl) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(value);
+    }
+}
@@ -0,0 +1,84 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.NamingException;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import java.io.IOException;
+
+/**
+ * The virtual list view response control, with the position of the target entry and the estimated number of
+ * entries of the sorted result.
+ */
+public class VirtualListViewResponseControl extends BasicControl {
+
+    public static final String OID = "2.16.840.1.113730.3.4.10";
+
+    private static final long serialVersionUID = 1L;
+
+    private final int targetPosition;
+
+    private final int contentCount;
+
+    private final int resultCode;
+
+    private final byte[] contextId;
+
+    public VirtualListViewResponseControl(String id, boolean criticality, byte[] value) throws IOException {
+        super(id, criticality, value);
+        Ber.Reader sequence = new Ber.Reader(value).readConstructed(Ber.SEQUENCE);
+        this.targetPosition = sequence.readInteger(Ber.INTEGER);
+        this.contentCount = sequence.readInteger(Ber.INTEGER);
+        this.resultCode = sequence.readInteger(Ber.ENUMERATED);
+        this.contextId = sequence.hasMore() ? sequence.readOctetString(Ber.OCTET_STRING) : null;
+    }
+
+    /**
+     * Find and decode the virtual list view response control among the response controls of a context.
+     *
+     * @param controls the response controls, or null
+     * @return the control, or null if there is none
+     * @throws NamingException if the control can not be decoded
+     */
+    static VirtualListViewResponseControl find(Control[] controls) throws NamingException {
+        if (controls == null) {
+            return null;
+        }
+        for (Control control : controls) {
+            if (control instanceof VirtualListViewResponseControl) {
+                return (VirtualListViewResponseControl) control;
+            }
+            if (OID.equals(control.getID())) {
+                try {
+                    return new VirtualListViewResponseControl(control.getID(), control.isCritical(),
+                            control.getEncodedValue());
+                } catch (IOException e) {
+                    NamingException ne = new NamingException("invalid virtual list view response control");
+                    ne.setRootCause(e);
+                    throw ne;
+                }
+            }
+        }
+        return null;
+    }
+
+    public int getTargetPosition() {
+        return targetPosition;
+    }
+
+    public int getContentCount() {
+        return contentCount;
+    }
+
+    /**
+     * Get the LDAP result code of the virtual list view, 0 on success.
+     *
+     * @return the result code
+     */
+    public int getResultCode() {
+        return resultCode;
+    }
+
+    public byte[] getContextId() {
+        return contextId;
+    }
+}
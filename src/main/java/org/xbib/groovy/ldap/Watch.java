@@ -0,0 +1,230 @@
+package org.xbib.groovy.ldap;
+
+import javax.naming.Binding;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.event.EventDirContext;
+import javax.naming.event.NamespaceChangeListener;
+import javax.naming.event.NamingEvent;
+import javax.naming.event.NamingExceptionEvent;
+import javax.naming.event.ObjectChangeListener;
+import javax.naming.ldap.LdapContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A subscription to the changes of the entries matched by a search, created by
+ * {@link LDAP#watch(Search, EntryListener)}.
+ *
+ * The changes are received by JNDI event notification, which uses the persistent search control on one
+ * long-lived connection. When the connection is lost, the subscription reconnects with exponential backoff.
+ * A persistent search can not be resumed, so changes made while disconnected are not reported; the listener
+ * receives {@link EntryEvent.Type#RECONNECTED} and may resynchronize by searching.
+ */
+public class Watch implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(Watch.class.getName());
+
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 1000L;
+
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 60000L;
+
+    private static final ScheduledThreadPoolExecutor reconnector = createReconnector();
+
+    private final LDAP ldap;
+
+    private final Search search;
+
+    private final EntryListener listener;
+
+    private final Adapter adapter;
+
+    private LdapContext ctx;
+
+    private EventDirContext eventCtx;
+
+    private ScheduledFuture<?> reconnect;
+
+    private long reconnectDelayMillis;
+
+    private boolean closed;
+
+    Watch(LDAP ldap, Search search, EntryListener listener) {
+        this.ldap = ldap;
+        this.search = search;
+        this.listener = listener;
+        this.adapter = new Adapter();
+        this.reconnectDelayMillis = MIN_RECONNECT_DELAY_MILLIS;
+    }
+
+    synchronized void start() throws NamingException {
+        ctx = ldap.openContext();
+        try {
+            eventCtx = (EventDirContext) ctx.lookup("");
+            SearchControls searchControls = new SearchControls();
+            searchControls.setSearchScope(search.getScope().getValue());
+            searchControls.setReturningAttributes(search.getAttrs());
+            eventCtx.addNamingListener(search.getBase(), search.getFilter(), search.getFilterArgs(),
+                    searchControls, adapter);
+        } catch (NamingException | RuntimeException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Check if the subscription is connected and receives changes.
+     * @return true if connected
+     */
+    public synchronized boolean isConnected() {
+        return eventCtx != null;
+    }
+
+    /**
+     * Stop receiving changes and close the connection.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (reconnect != null) {
+            reconnect.cancel(false);
+            reconnect = null;
+        }
+        disconnect();
+    }
+
+    private synchronized void connectionLost(NamingException failure) {
+        if (closed || eventCtx == null) {
+            return;
+        }
+        disconnect();
+        fire(new EntryEvent(EntryEvent.Type.DISCONNECTED, null, null, null, failure));
+        scheduleReconnect();
+    }
+
+    private synchronized void reconnect() {
+        reconnect = null;
+        if (closed) {
+            return;
+        }
+        try {
+            start();
+        } catch (NamingException | RuntimeException e) {
+            logger.log(Level.FINE, "reconnect failed, next attempt in " + reconnectDelayMillis + " ms", e);
+            scheduleReconnect();
+            return;
+        }
+        reconnectDelayMillis = MIN_RECONNECT_DELAY_MILLIS;
+        fire(new EntryEvent(EntryEvent.Type.RECONNECTED, null, null, null, null));
+    }
+
+    private void scheduleReconnect() {
+        reconnect = reconnector.schedule(this::reconnect, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+        reconnectDelayMillis = Math.min(reconnectDelayMillis * 2L, MAX_RECONNECT_DELAY_MILLIS);
+    }
+
+    private void disconnect() {
+        if (eventCtx != null) {
+            try {
+                eventCtx.removeNamingListener(adapter);
+            } catch (NamingException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+            }
+            try {
+                eventCtx.close();
+            } catch (NamingException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+            }
+            eventCtx = null;
+        }
+        if (ctx != null) {
+            try {
+                ctx.close();
+            } catch (NamingException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+            }
+            ctx = null;
+        }
+    }
+
+    private void fire(EntryEvent event) {
+        try {
+            listener.entryChanged(event);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "entry listener failed on " + event, e);
+        }
+    }
+
+    private String dnOf(Binding binding) {
+        try {
+            return binding.getNameInNamespace();
+        } catch (UnsupportedOperationException e) {
+            String name = binding.getName();
+            String base = search.getBase();
+            return name.isEmpty() ? base : base.isEmpty() ? name : name + "," + base;
+        }
+    }
+
+    private Map<String, Object> entryOf(Binding binding) {
+        String dn = dnOf(binding);
+        if (binding instanceof SearchResult && ((SearchResult) binding).getAttributes() != null) {
+            try {
+                return EntryMapper.DEFAULT.map(dn, ((SearchResult) binding).getAttributes());
+            } catch (NamingException e) {
+                logger.log(Level.FINEST, e.getMessage(), e);
+            }
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("dn", dn);
+        return map;
+    }
+
+    private static ScheduledThreadPoolExecutor createReconnector() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                AsyncLDAP.daemonThreadFactory("groovy-ldap-watch-"));
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Translates JNDI naming events into entry events.
+     */
+    private final class Adapter implements NamespaceChangeListener, ObjectChangeListener {
+
+        @Override
+        public void objectAdded(NamingEvent evt) {
+            Binding binding = evt.getNewBinding();
+            fire(new EntryEvent(EntryEvent.Type.ADDED, dnOf(binding), null, entryOf(binding), null));
+        }
+
+        @Override
+        public void objectRemoved(NamingEvent evt) {
+            Binding binding = evt.getOldBinding();
+            fire(new EntryEvent(EntryEvent.Type.REMOVED, dnOf(binding), null, null, null));
+        }
+
+        @Override
+        public void objectRenamed(NamingEvent evt) {
+            Binding binding = evt.getNewBinding();
+            String oldDn = evt.getOldBinding() != null ? dnOf(evt.getOldBinding()) : null;
+            fire(new EntryEvent(EntryEvent.Type.RENAMED, dnOf(binding), oldDn, entryOf(binding), null));
+        }
+
+        @Override
+        public void objectChanged(NamingEvent evt) {
+            Binding binding = evt.getNewBinding();
+            fire(new EntryEvent(EntryEvent.Type.MODIFIED, dnOf(binding), null, entryOf(binding), null));
+        }
+
+        @Override
+        public void namingExceptionThrown(NamingExceptionEvent evt) {
+            reconnector.execute(() -> connectionLost(evt.getException()));
+        }
+    }
+}
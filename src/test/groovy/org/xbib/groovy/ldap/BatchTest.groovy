@@ -0,0 +1,24 @@
+package org.xbib.groovy.ldap
+
+ldap = LDAP.newInstance('ldap://localhost:10389', 'uid=admin,ou=system' ,'secret')
+
+adds = (1..100).collect { i ->
+    BatchOperation.add("cn=Batch User ${i},dc=example,dc=com", [
+            objectclass: ['top', 'person'],
+            sn: 'User',
+            cn: "Batch User ${i}".toString()
+    ])
+}
+result = ldap.batch(adds, 4)
+println result
+assert result.failureCount == 0
+
+// the second run fails for every entry, but does not abort
+result = ldap.batch(adds, 4)
+assert result.failureCount == 100
+
+result = ldap.batch(adds.collect { op -> BatchOperation.delete(op.dn) }, 4)
+println result
+assert result.successCount == 100
+
+ldap.close()
@@ -0,0 +1,17 @@
+package org.xbib.groovy.ldap
+
+ldap = LDAP.newInstance('ldap://localhost:10389', 'uid=admin,ou=system' ,'secret')
+ldap.cache = new EntryCache(1000, 60000L)
+
+dn = 'cn=Heather Nova,dc=example,dc=com'
+
+heather = ldap.read(dn)
+assert ldap.read(dn).is(heather)
+assert ldap.exists(dn)
+assert ldap.exists(dn)
+
+ldap.modify(dn, 'REPLACE', [description: 'cached'])
+assert ldap.read(dn).description == 'cached'
+
+println ldap.cache
+ldap.close()
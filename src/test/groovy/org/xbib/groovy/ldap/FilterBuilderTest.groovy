@@ -0,0 +1,21 @@
+package org.xbib.groovy.ldap
+
+filter = Filter.build {
+    and {
+        eq 'objectClass', 'person'
+        or {
+            eq 'uid', arg(0)
+            substring 'cn', initial: arg(0), any: ['x']
+        }
+        not {
+            present 'nsAccountLock'
+        }
+    }
+}
+assert filter.toString() == '(&(objectClass=person)(|(uid={0})(cn={0}*x*))(!(nsAccountLock=*)))'
+assert filter.render('j(') == '(&(objectClass=person)(|(uid=j\\28)(cn=j\\28*x*))(!(nsAccountLock=*)))'
+
+ldap = LDAP.newInstance('ldap://localhost:10389/')
+people = ldap.search(new Search('dc=example,dc=com', SearchScope.SUB, Filter.build { eq 'objectClass', arg(0) }, 'person'))
+people.each { println it.dn }
+ldap.close()
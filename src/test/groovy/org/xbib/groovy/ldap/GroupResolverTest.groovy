@@ -0,0 +1,51 @@
+package org.xbib.groovy.ldap
+
+ldap = LDAP.newInstance('ldap://localhost:10389/')
+
+base = 'ou=groups,dc=example,dc=com'
+user = 'cn=John Doe,ou=people,dc=example,dc=com'
+inner = "cn=inner,$base".toString()
+outer = "cn=outer,$base".toString()
+
+ldap.add(base, [objectClass: ['top', 'organizationalUnit'], ou: 'groups'])
+ldap.add(inner, [objectClass: ['top', 'groupOfNames'], cn: 'inner', member: [user]])
+ldap.add(outer, [objectClass: ['top', 'groupOfNames'], cn: 'outer', member: [inner]])
+// a cycle
+ldap.modify(inner, 'ADD', [member: outer])
+
+try {
+    resolver = ldap.groupResolver(base)
+    resolver.inChain = false
+    resolver.memberOfAttr = null
+
+    groups = resolver.getGroups(user)
+    assert groups.size() == 2
+    assert resolver.isMember(user, outer)
+
+    members = resolver.getMembers(outer)
+    assert members.contains(user)
+    assert members.contains(inner)
+
+    // answered from the cache
+    misses = resolver.missCount
+    assert resolver.isMember(user, inner)
+    assert resolver.missCount == misses
+
+    // DNs relative to the base DN of the URL
+    based = LDAP.newInstance('ldap://localhost:10389/dc=example,dc=com')
+    try {
+        relative = based.groupResolver('ou=groups')
+        relative.inChain = false
+        relative.memberOfAttr = null
+        assert relative.getGroups('cn=John Doe,ou=people').size() == 2
+        assert relative.isMember('cn=John Doe,ou=people', 'cn=outer,ou=groups')
+        assert relative.getMembers('cn=outer,ou=groups').contains(user)
+    } finally {
+        based.close()
+    }
+} finally {
+    ldap.delete(outer)
+    ldap.delete(inner)
+    ldap.delete(base)
+    ldap.close()
+}
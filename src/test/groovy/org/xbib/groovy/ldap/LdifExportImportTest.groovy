@@ -0,0 +1,23 @@
+package org.xbib.groovy.ldap
+
+import java.nio.file.Files
+
+ldap = LDAP.newInstance('ldap://localhost:10389/', 'uid=admin,ou=system', 'secret')
+
+file = Files.createTempFile('export', '.ldif')
+checkpoint = file.resolveSibling(file.fileName.toString() + '.checkpoint')
+
+count = ldap.exportLdif(new Search('dc=example,dc=com', SearchScope.SUB, '(objectClass=person)'), file)
+println "exported ${count} entries to ${file}"
+
+// the entries exist, so every add fails, but each record is processed once
+result = ldap.importLdif(file, 4, checkpoint)
+assert result.count == count
+assert Files.readString(checkpoint).trim() == count.toString()
+
+// resuming a completed import does nothing
+assert ldap.importLdif(file, 4, checkpoint).count == 0
+
+Files.delete(checkpoint)
+Files.delete(file)
+ldap.close()
@@ -0,0 +1,26 @@
+package org.xbib.groovy.ldap
+
+ldap = LDAP.newInstance('ldap://localhost:10389/')
+
+search = new Search('dc=example,dc=com', SearchScope.SUB, '(objectClass=*)')
+search.pageSize = 2
+
+count = ldap.stream(search).withCloseable { entries -> entries.count() }
+
+ldap.parallelStream(search, 4).withCloseable { entries ->
+    assert entries.count() == count
+}
+
+dns = ldap.parallelStream(search, 4, true).withCloseable { entries ->
+    entries.map { entry -> entry.dn }.collect(java.util.stream.Collectors.toList())
+}
+assert dns.size() == count
+assert dns[0] == 'dc=example,dc=com'
+
+shards = [new Search('dc=example,dc=com', SearchScope.SUB, '(&(objectClass=person)(cn<=m))'),
+          new Search('dc=example,dc=com', SearchScope.SUB, '(&(objectClass=person)(!(cn<=m)))')]
+ldap.parallelStream(shards, 2, false).withCloseable { entries ->
+    entries.forEach { entry -> println entry.dn }
+}
+
+ldap.close()
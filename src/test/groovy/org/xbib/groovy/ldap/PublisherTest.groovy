@@ -0,0 +1,48 @@
+package org.xbib.groovy.ldap
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Flow
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+ldap = LDAP.newInstance('ldap://localhost:10389/')
+
+search = new Search('dc=example,dc=com', SearchScope.SUB, '(objectClass=person)')
+search.pageSize = 2
+
+done = new CountDownLatch(1)
+received = []
+error = new AtomicReference<Throwable>()
+
+ldap.publisher(search).subscribe(new Flow.Subscriber<Map<String, Object>>() {
+
+    Flow.Subscription subscription
+
+    void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription
+        subscription.request(1)
+    }
+
+    void onNext(Map<String, Object> entry) {
+        received << entry.dn
+        // a slow consumer: ask for the next entry only when this one is processed
+        Thread.sleep(10)
+        subscription.request(1)
+    }
+
+    void onError(Throwable throwable) {
+        error.set(throwable)
+        done.countDown()
+    }
+
+    void onComplete() {
+        done.countDown()
+    }
+})
+
+assert done.await(30, TimeUnit.SECONDS)
+assert error.get() == null
+assert received.size() == ldap.search(search).size()
+received.each { println it }
+
+ldap.close()
@@ -0,0 +1,20 @@
+package org.xbib.groovy.ldap
+
+ldap = LDAP.newInstance('ldap://localhost:10389/')
+
+members = ldap.search('dc=example,dc=com', SearchScope.SUB, '(objectClass=person)').collect { it.dn }
+missing = 'cn=Nobody,dc=example,dc=com'
+dns = members + missing
+
+entries = ldap.readAll(dns, 'cn', 'objectClass')
+assert entries.size() == dns.size()
+assert entries[missing] == null
+members.each { dn ->
+    assert entries[dn]?.cn
+}
+
+exists = ldap.existsAll(dns)
+assert !exists[missing]
+assert members.every { exists[it] }
+
+ldap.close()
@@ -0,0 +1,27 @@
+package org.xbib.groovy.ldap
+
+import java.nio.file.Files
+
+ldap = LDAP.newInstance('ldap://localhost:10389/')
+
+file = Files.createTempDirectory('snapshot').resolve('people.snapshot')
+sync = new SnapshotSync(ldap, new Search(base: 'dc=example,dc=com', filter: '(objectClass=person)',
+        attrs: ['cn', 'sn']), file)
+
+events = []
+first = sync.sync { event -> events << event }
+assert !first.incremental
+assert first.addedCount == first.entryCount
+assert events.every { it.type == EntryEvent.Type.ADDED }
+
+events.clear()
+second = sync.sync { event -> events << event }
+assert second.entryCount == first.entryCount
+assert second.removedCount == 0
+assert events.every { it.type != EntryEvent.Type.REMOVED }
+
+Snapshot.open(file).withCloseable { snapshot ->
+    assert snapshot.size() == second.entryCount
+}
+
+ldap.close()
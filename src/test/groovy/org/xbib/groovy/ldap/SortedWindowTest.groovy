@@ -0,0 +1,16 @@
+package org.xbib.groovy.ldap
+
+ldap = LDAP.newInstance('ldap://localhost:10389/')
+
+sorted = ldap.search(base: 'dc=example,dc=com', filter: '(objectClass=person)', sort: ['sn', '-cn'])
+sorted.each { println "${it.sn} ${it.cn}" }
+
+search = new Search('dc=example,dc=com', SearchScope.SUB, '(objectClass=person)')
+search.sortKeys = ['sn'] as String[]
+search.setWindow(1, 0, 9)
+window = ldap.searchWindow(search)
+println window
+assert window.entries.size() <= 10
+assert window.targetPosition == 1
+
+ldap.close()
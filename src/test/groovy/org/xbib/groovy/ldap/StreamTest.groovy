@@ -0,0 +1,18 @@
+package org.xbib.groovy.ldap
+
+ldap = LDAP.newInstance('ldap://localhost:10389/')
+
+search = new Search('dc=example,dc=com', SearchScope.SUB, '(objectClass=person)')
+search.pageSize = 2
+
+ldap.stream(search).withCloseable { entries ->
+    entries.forEach { entry ->
+        println entry.dn
+    }
+}
+
+first = ldap.stream(filter: '(objectClass=person)', base: 'dc=example,dc=com', scope: 'ONE', pageSize: '1')
+        .withCloseable { entries -> entries.findFirst() }
+assert first.isPresent()
+
+ldap.close()
@@ -0,0 +1,22 @@
+package org.xbib.groovy.ldap
+
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+ldap = LDAP.newInstance('ldap://localhost:10389', 'uid=admin,ou=system' ,'secret')
+
+events = new LinkedBlockingQueue<EntryEvent>()
+watch = ldap.watch(new Search('dc=example,dc=com', SearchScope.ONE, '(objectClass=person)')) { event ->
+    events.put(event)
+}
+
+dn = 'cn=Jim Watch,dc=example,dc=com'
+ldap.add(dn, [objectclass: ['top', 'person'], sn: 'Watch', cn: 'Jim Watch'])
+event = events.poll(5, TimeUnit.SECONDS)
+assert event.type == EntryEvent.Type.ADDED
+ldap.delete(dn)
+event = events.poll(5, TimeUnit.SECONDS)
+assert event.type == EntryEvent.Type.REMOVED
+
+watch.close()
+ldap.close()
@@ -0,0 +1,54 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.InterruptedNamingException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class AsyncLDAPTest extends Assert {
+
+    @Test
+    public void cancelInterruptsCall() throws Exception {
+        LDAP ldap = LDAP.newInstance("ldap://localhost:10389/");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Object> future = ldap.async().submit(() -> block(started, interrupted));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(future.cancel(true));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        ldap.close();
+    }
+
+    @Test
+    public void timeoutInterruptsCall() throws Exception {
+        LDAP ldap = LDAP.newInstance("ldap://localhost:10389/");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Object> future = ldap.async().withTimeout(50, TimeUnit.MILLISECONDS)
+                .submit(() -> block(started, interrupted));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        ldap.close();
+    }
+
+    private static Object block(CountDownLatch started, CountDownLatch interrupted) throws InterruptedNamingException {
+        started.countDown();
+        try {
+            Thread.sleep(10000L);
+        } catch (InterruptedException e) {
+            interrupted.countDown();
+            throw new InterruptedNamingException();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,153 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.LimitExceededException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AuthenticatorTest extends Assert {
+
+    private static final String UNREACHABLE = "ldap://127.0.0.1:1/";
+
+    private static final String DN = "uid=jdoe,dc=example,dc=com";
+
+    @Test
+    public void emptyPasswordIsRejectedWithoutConnecting() throws Exception {
+        LDAP ldap = LDAP.newInstance(UNREACHABLE);
+        try (Authenticator authenticator = ldap.authenticator(2, 1000L)) {
+            assertFalse(authenticator.authenticate("uid=jdoe,dc=example,dc=com", ""));
+            assertFalse(authenticator.authenticate("uid=jdoe,dc=example,dc=com", null));
+            assertFalse(authenticator.authenticate("", "secret"));
+            assertEquals(3, authenticator.getRejectionCount());
+            assertEquals(0, authenticator.getErrorCount());
+            assertEquals(0, authenticator.getIdleCount());
+        }
+        ldap.close();
+    }
+
+    @Test
+    public void unreachableServerIsAnError() throws Exception {
+        LDAP ldap = LDAP.newInstance(UNREACHABLE);
+        try (Authenticator authenticator = ldap.authenticator(2, 0L)) {
+            try {
+                authenticator.authenticate("uid=jdoe,dc=example,dc=com", "secret");
+                fail();
+            } catch (CommunicationException e) {
+                assertEquals(1, authenticator.getErrorCount());
+                assertEquals(0, authenticator.getRejectionCount());
+                assertEquals(0, authenticator.getSuccessCount());
+            }
+        }
+        ldap.close();
+    }
+
+    @Test
+    public void concurrentFailuresAreAllCounted() throws Exception {
+        LruCache<String, AtomicInteger> failures = new LruCache<>(10, 60000L);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    failures.computeIfAbsent("uid=jdoe", AtomicInteger::new).incrementAndGet();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8000, failures.get("uid=jdoe").get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void poolSizeMustBePositive() {
+        new Authenticator(LDAP.newInstance(UNREACHABLE), 0, 0L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeMaxFailures() {
+        LDAP.newInstance(UNREACHABLE).authenticator(1, 0L).setMaxFailures(-1);
+    }
+
+    @Test
+    public void tooManyFailuresLockOut() throws Exception {
+        LDAP ldap = LDAP.newInstance(UNREACHABLE);
+        try (StubAuthenticator authenticator = new StubAuthenticator(ldap, 0L)) {
+            authenticator.setMaxFailures(3);
+            for (int i = 0; i < 3; i++) {
+                assertFalse(authenticator.authenticate(DN, "wrong"));
+            }
+            try {
+                authenticator.authenticate("UID=jdoe, DC=example, DC=com", "secret");
+                fail();
+            } catch (LimitExceededException e) {
+                assertEquals(3, authenticator.binds.get());
+                assertEquals(1, authenticator.getThrottledCount());
+                assertEquals(3, authenticator.getRejectionCount());
+            }
+            authenticator.forget(DN);
+            assertTrue(authenticator.authenticate(DN, "secret"));
+            assertEquals(4, authenticator.binds.get());
+        }
+        ldap.close();
+    }
+
+    @Test
+    public void successResetsFailures() throws Exception {
+        LDAP ldap = LDAP.newInstance(UNREACHABLE);
+        try (StubAuthenticator authenticator = new StubAuthenticator(ldap, 0L)) {
+            authenticator.setMaxFailures(2);
+            assertFalse(authenticator.authenticate(DN, "wrong"));
+            assertTrue(authenticator.authenticate(DN, "secret"));
+            assertFalse(authenticator.authenticate(DN, "wrong"));
+            assertTrue(authenticator.authenticate(DN, "secret"));
+            assertEquals(0, authenticator.getThrottledCount());
+        }
+        ldap.close();
+    }
+
+    @Test
+    public void verifiedPasswordIsCached() throws Exception {
+        LDAP ldap = LDAP.newInstance(UNREACHABLE);
+        try (StubAuthenticator authenticator = new StubAuthenticator(ldap, 60000L)) {
+            assertTrue(authenticator.authenticate(DN, "secret"));
+            assertTrue(authenticator.authenticate(DN, "secret"));
+            assertEquals(1, authenticator.binds.get());
+            assertEquals(1, authenticator.getCacheHitCount());
+            assertFalse(authenticator.authenticate(DN, "wrong"));
+            assertEquals(2, authenticator.binds.get());
+            assertTrue(authenticator.authenticate(DN, "secret"));
+            assertEquals(3, authenticator.binds.get());
+            assertEquals(1, authenticator.getCacheHitCount());
+            authenticator.forget(DN);
+            assertTrue(authenticator.authenticate(DN, "secret"));
+            assertEquals(4, authenticator.binds.get());
+            assertEquals(3, authenticator.getSuccessCount() - authenticator.getCacheHitCount());
+        }
+        ldap.close();
+    }
+
+    /**
+     * Accepts the password "secret" for every user instead of binding to the directory.
+     */
+    private static final class StubAuthenticator extends Authenticator {
+
+        private final AtomicInteger binds = new AtomicInteger();
+
+        private StubAuthenticator(LDAP ldap, long cacheTtlMillis) {
+            super(ldap, 1, cacheTtlMillis);
+        }
+
+        @Override
+        AuthenticationException bind(String dn, String password) {
+            binds.incrementAndGet();
+            return "secret".equals(password) ? null : new AuthenticationException("invalid credentials");
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.NamingException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class BatchWriterTest extends Assert {
+
+    private static final String URL = "ldap://127.0.0.1:1/";
+
+    @Test
+    public void failedOperationsAreReported() throws Exception {
+        LDAP ldap = LDAP.newInstance(URL);
+        try {
+            BatchResult result = ldap.batch(Stream.generate(() -> BatchOperation.delete("cn=a,dc=example,dc=com"))
+                    .limit(5), 2);
+            assertEquals(5, result.getFailures().size());
+        } finally {
+            ldap.close();
+        }
+    }
+
+    @Test
+    public void failingIteratorAbortsBatch() throws Exception {
+        LDAP ldap = LDAP.newInstance(URL);
+        AtomicInteger calls = new AtomicInteger();
+        Iterator<BatchOperation> operations = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public BatchOperation next() {
+                if (calls.incrementAndGet() > 3) {
+                    throw new IllegalStateException("bad input");
+                }
+                return BatchOperation.delete("cn=a,dc=example,dc=com");
+            }
+        };
+        try {
+            ldap.batch(operations, 1, null);
+            fail();
+        } catch (NamingException e) {
+            assertTrue(e.getRootCause() instanceof IllegalStateException);
+            assertEquals(4, calls.get());
+        } finally {
+            ldap.close();
+        }
+    }
+
+    @Test
+    public void failingListenerAbortsBatch() throws Exception {
+        LDAP ldap = LDAP.newInstance(URL);
+        AtomicInteger calls = new AtomicInteger();
+        Iterator<BatchOperation> operations = Stream.generate(() -> BatchOperation.delete("cn=a,dc=example,dc=com"))
+                .limit(1000).iterator();
+        try {
+            ldap.batch(operations, 2, result -> {
+                calls.incrementAndGet();
+                throw new IllegalArgumentException("listener failed");
+            });
+            fail();
+        } catch (NamingException e) {
+            assertTrue(e.getRootCause() instanceof IllegalArgumentException);
+            assertTrue(calls.get() <= 2);
+            assertTrue(operations.hasNext());
+        } finally {
+            ldap.close();
+        }
+    }
+}
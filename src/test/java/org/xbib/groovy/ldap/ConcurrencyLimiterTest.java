@@ -0,0 +1,159 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.CommunicationException;
+import javax.naming.LimitExceededException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.SizeLimitExceededException;
+import javax.naming.TimeLimitExceededException;
+
+public class ConcurrencyLimiterTest extends Assert {
+
+    @Test
+    public void increasesWhenSaturated() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 6);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.acquire();
+            limiter.acquire();
+            limiter.release(Operation.READ, 1000000L, null);
+            limiter.release(Operation.READ, 1000000L, null);
+            limiter.release(Operation.READ, 1000000L, null);
+        }
+        assertEquals(6, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(300L, limiter.getSuccessCount());
+        assertEquals(1000000L, limiter.getAverageLatencyNanos(Operation.READ));
+    }
+
+    @Test
+    public void keepsLimitWhenIdle() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 1, 100);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(Operation.READ, 1000000L, null);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void decreasesOnOverload() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 2, 100);
+        limiter.acquire();
+        limiter.release(Operation.READ, 1000L, new ServiceUnavailableException("busy"));
+        assertEquals(9, limiter.getLimit());
+        assertEquals(1L, limiter.getOverloadCount());
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire();
+            limiter.release(Operation.READ, 1000L, new LimitExceededException("admin limit"));
+            Thread.sleep(1L);
+        }
+        assertEquals(2, limiter.getLimit());
+        limiter.acquire();
+        limiter.release(Operation.READ, 1000L, new CommunicationException("reset"));
+        assertEquals(51L, limiter.getOverloadCount());
+    }
+
+    @Test
+    public void decreasesOnSlowResponse() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 10);
+        for (int i = 0; i < 30; i++) {
+            limiter.acquire();
+            limiter.release(Operation.READ, 1000000L, null);
+        }
+        assertEquals(10, limiter.getLimit());
+        limiter.acquire();
+        limiter.release(Operation.READ, 10000000L, null);
+        assertEquals(9, limiter.getLimit());
+        assertEquals(1L, limiter.getSlowResponseCount());
+    }
+
+    @Test
+    public void samplesLatencyPerOperation() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 10);
+        for (int i = 0; i < 30; i++) {
+            limiter.acquire();
+            limiter.release(Operation.READ, 1000000L, null);
+            limiter.acquire();
+            limiter.release(Operation.MODIFY, 5000000L, null);
+        }
+        limiter.acquire();
+        limiter.release(null, 1000000000L, null);
+        limiter.acquire();
+        limiter.release(Operation.MODIFY, 6000000L, null);
+        assertEquals(10, limiter.getLimit());
+        assertEquals(0L, limiter.getSlowResponseCount());
+        assertEquals(1000000L, limiter.getAverageLatencyNanos(Operation.READ));
+        assertEquals(0L, limiter.getAverageLatencyNanos(Operation.SEARCH));
+        assertEquals(62L, limiter.getSuccessCount());
+    }
+
+    @Test
+    public void classifiesOverload() {
+        assertTrue(ConcurrencyLimiter.isOverload(new ServiceUnavailableException()));
+        assertTrue(ConcurrencyLimiter.isOverload(new LimitExceededException()));
+        assertFalse(ConcurrencyLimiter.isOverload(new SizeLimitExceededException()));
+        assertFalse(ConcurrencyLimiter.isOverload(new TimeLimitExceededException()));
+        assertFalse(ConcurrencyLimiter.isOverload(new NamingException()));
+        assertFalse(ConcurrencyLimiter.isOverload(new ResourceExhaustedException("context pool exhausted")));
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+        limiter.setMaxRetries(2);
+        assertTrue(limiter.shouldRetry(new ServiceUnavailableException(), 1));
+        assertFalse(limiter.shouldRetry(new ServiceUnavailableException(), 2));
+        assertFalse(limiter.shouldRetry(new CommunicationException(), 0));
+    }
+
+    @Test
+    public void backoffIsBounded() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+        limiter.setBackoffMillis(10L, 100L);
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long millis = limiter.backoffMillis(attempt);
+            assertTrue(millis >= 0L);
+            assertTrue(millis <= Math.min(100L, 10L << attempt));
+        }
+    }
+
+    @Test
+    public void rejectsWhenLimitReached() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1);
+        limiter.setMaxWaitMillis(20L);
+        limiter.acquire();
+        try {
+            limiter.acquire();
+            fail();
+        } catch (ResourceExhaustedException e) {
+            assertEquals(1L, limiter.getRejectionCount());
+            assertFalse(ConcurrencyLimiter.isOverload(e));
+        }
+        limiter.cancel();
+        limiter.acquire();
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLimits() {
+        new ConcurrencyLimiter(0, 1, 10);
+    }
+
+    @Test
+    public void releasesAfterFailure() throws Exception {
+        LDAP ldap = LDAP.newInstance("ldap://127.0.0.1:1/");
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+        ldap.setConcurrencyLimiter(limiter);
+        assertSame(limiter, ldap.getConcurrencyLimiter());
+        try {
+            ldap.exists("dc=example,dc=com");
+            fail();
+        } catch (NamingException e) {
+            assertEquals(0, limiter.getInFlight());
+            assertEquals(0L, limiter.getRetryCount());
+            assertEquals(8, limiter.getLimit());
+        } finally {
+            ldap.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.CommunicationException;
+import javax.naming.ConfigurationException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ContextPoolTest extends Assert {
+
+    @Test
+    public void exhaustedPoolFailsAfterWait() throws Exception {
+        PoolSettings settings = settings(1);
+        settings.setMaxWaitMillis(50L);
+        ContextPool pool = new ContextPool(new StubFactory(), settings);
+        LdapContext ctx = pool.borrow();
+        long start = System.nanoTime();
+        try {
+            pool.borrow();
+            fail();
+        } catch (ResourceExhaustedException e) {
+            assertTrue(System.nanoTime() - start >= 40000000L);
+            assertEquals(1, pool.getActiveCount());
+        }
+        pool.release(ctx);
+        assertSame(ctx, pool.borrow());
+    }
+
+    @Test
+    public void idleContextsAreEvictedDownToMinSize() throws Exception {
+        PoolSettings settings = settings(4);
+        settings.setMinSize(1);
+        settings.setMaxIdleMillis(10L);
+        StubFactory factory = new StubFactory();
+        ContextPool pool = new ContextPool(factory, settings);
+        List<LdapContext> contexts = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            contexts.add(pool.borrow());
+        }
+        for (LdapContext ctx : contexts) {
+            pool.release(ctx);
+        }
+        assertEquals(3, pool.getIdleCount());
+        Thread.sleep(20L);
+        pool.borrow();
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(2, factory.closed.size());
+        assertEquals(3, factory.created.size());
+    }
+
+    @Test
+    public void deadContextIsDroppedOnBorrow() throws Exception {
+        PoolSettings settings = settings(2);
+        settings.setValidateOnBorrow(true);
+        settings.setValidationIntervalMillis(0L);
+        StubFactory factory = new StubFactory();
+        ContextPool pool = new ContextPool(factory, settings);
+        LdapContext dead = pool.borrow();
+        pool.release(dead);
+        factory.dead.add(dead);
+        LdapContext ctx = pool.borrow();
+        assertNotSame(dead, ctx);
+        assertEquals(List.of(dead), factory.closed);
+        assertEquals(1, pool.getActiveCount());
+    }
+
+    @Test
+    public void releaseClearsRequestControls() throws Exception {
+        StubFactory factory = new StubFactory();
+        ContextPool pool = new ContextPool(factory, settings(1));
+        LdapContext ctx = pool.borrow();
+        ctx.setRequestControls(new Control[] { new PagedResultsControl(10, Control.CRITICAL) });
+        pool.release(ctx);
+        assertNull(pool.borrow().getRequestControls());
+    }
+
+    @Test
+    public void closedPoolRejectsBorrow() throws Exception {
+        StubFactory factory = new StubFactory();
+        ContextPool pool = new ContextPool(factory, settings(1));
+        LdapContext ctx = pool.borrow();
+        pool.close();
+        try {
+            pool.borrow();
+            fail();
+        } catch (ConfigurationException e) {
+            assertNotNull(e.getMessage());
+        }
+        pool.release(ctx);
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(List.of(ctx), factory.closed);
+    }
+
+    private static PoolSettings settings(int maxSize) {
+        PoolSettings settings = new PoolSettings();
+        settings.setMaxSize(maxSize);
+        return settings;
+    }
+
+    /**
+     * Creates contexts which keep their request controls, record when they are closed, and fail with a
+     * {@link CommunicationException} on reads once they are marked dead.
+     */
+    private static final class StubFactory implements ContextPool.Factory {
+
+        private final List<LdapContext> created = new ArrayList<>();
+
+        private final List<LdapContext> closed = new ArrayList<>();
+
+        private final List<LdapContext> dead = new ArrayList<>();
+
+        @Override
+        public LdapContext create() {
+            Control[][] controls = new Control[1][];
+            LdapContext[] self = new LdapContext[1];
+            self[0] = (LdapContext) Proxy.newProxyInstance(ContextPoolTest.class.getClassLoader(),
+                    new Class<?>[] { LdapContext.class }, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "setRequestControls":
+                                controls[0] = (Control[]) args[0];
+                                return null;
+                            case "getRequestControls":
+                                return controls[0];
+                            case "getAttributes":
+                                if (dead.contains(self[0])) {
+                                    throw new CommunicationException("connection reset");
+                                }
+                                return new BasicAttributes();
+                            case "close":
+                                closed.add(self[0]);
+                                return null;
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+            created.add(self[0]);
+            return self[0];
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.CommunicationException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class DeleteTest extends Assert {
+
+    private static final String DN = "cn=Joe Doe,dc=example,dc=com";
+
+    @Test
+    public void missingEntryIsNotDeleted() throws Exception {
+        List<String> calls = new ArrayList<>();
+        try {
+            LDAP.deleteIfExistsAction(DN).perform(context(calls, false));
+            fail();
+        } catch (NameNotFoundException e) {
+            assertEquals(List.of("search " + DN), calls);
+        }
+    }
+
+    @Test
+    public void existingEntryIsDeleted() throws Exception {
+        List<String> calls = new ArrayList<>();
+        LDAP.deleteIfExistsAction(DN).perform(context(calls, true));
+        assertEquals(List.of("search " + DN, "destroySubcontext " + DN), calls);
+    }
+
+    @Test
+    public void batchDeleteDoesNotCheck() throws Exception {
+        List<String> calls = new ArrayList<>();
+        BatchOperation.delete(DN).getAction().perform(context(calls, false));
+        assertEquals(List.of("destroySubcontext " + DN), calls);
+    }
+
+    @Test
+    public void checkedDeleteFailsWithoutServer() throws Exception {
+        LDAP ldap = LDAP.newInstance("ldap://127.0.0.1:1/");
+        try {
+            ldap.delete(DN, true);
+            fail();
+        } catch (CommunicationException e) {
+            assertNotNull(e.getMessage());
+        } finally {
+            ldap.close();
+        }
+    }
+
+    /**
+     * A context which records the operations on it. A search finds the entry if it exists, with the
+     * controls of an existence check, and fails with a {@link NameNotFoundException} otherwise.
+     */
+    private static LdapContext context(List<String> calls, boolean exists) {
+        return (LdapContext) Proxy.newProxyInstance(DeleteTest.class.getClassLoader(),
+                new Class<?>[] { LdapContext.class }, (proxy, method, args) -> {
+                    calls.add(method.getName() + " " + args[0]);
+                    switch (method.getName()) {
+                        case "search":
+                            SearchControls controls = (SearchControls) args[2];
+                            assertEquals(SearchControls.OBJECT_SCOPE, controls.getSearchScope());
+                            if (!exists) {
+                                throw new NameNotFoundException(DN);
+                            }
+                            return results(new SearchResult(DN, null, new BasicAttributes()));
+                        case "destroySubcontext":
+                            return null;
+                        default:
+                            throw new NamingException("unexpected " + method.getName());
+                    }
+                });
+    }
+
+    private static NamingEnumeration<SearchResult> results(SearchResult result) {
+        Iterator<SearchResult> iterator = List.of(result).iterator();
+        return new NamingEnumeration<>() {
+            @Override
+            public SearchResult next() {
+                return iterator.next();
+            }
+
+            @Override
+            public boolean hasMore() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public SearchResult nextElement() {
+                return iterator.next();
+            }
+        };
+    }
+}
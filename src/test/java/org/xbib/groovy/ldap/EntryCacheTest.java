@@ -0,0 +1,102 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class EntryCacheTest extends Assert {
+
+    @Test
+    public void entriesAreKeyedByNormalizedDn() {
+        EntryCache cache = new EntryCache(10, 60000L);
+        cache.putEntry("cn=Joe Doe,dc=example,dc=com", Collections.singletonMap("dn", "cn=Joe Doe,dc=example,dc=com"));
+        assertNotNull(cache.getEntry("CN=Joe Doe, DC=example, DC=com"));
+        assertNull(cache.getExists("cn=Joe Doe,dc=example,dc=com"));
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        EntryCache cache = new EntryCache(2, 60000L);
+        cache.putExists("cn=a,dc=example,dc=com", true);
+        cache.putExists("cn=b,dc=example,dc=com", true);
+        cache.getExists("cn=a,dc=example,dc=com");
+        cache.putExists("cn=c,dc=example,dc=com", true);
+        assertNotNull(cache.getExists("cn=a,dc=example,dc=com"));
+        assertNull(cache.getExists("cn=b,dc=example,dc=com"));
+        assertEquals(1L, cache.getEvictionCount());
+    }
+
+    @Test
+    public void expiredValuesAreMisses() throws InterruptedException {
+        EntryCache cache = new EntryCache(2, 1L);
+        cache.putExists("cn=a,dc=example,dc=com", true);
+        Thread.sleep(5L);
+        assertNull(cache.getExists("cn=a,dc=example,dc=com"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void writesInvalidateSubtreeAndSearches() {
+        EntryCache cache = new EntryCache(10, 60000L);
+        List<Map<String, Object>> result = Collections.emptyList();
+        Search base = new Search("dc=example,dc=com", SearchScope.ONE, "(objectClass=person)");
+        Search other = new Search("ou=other,dc=example,dc=com", SearchScope.SUB, "(objectClass=person)");
+        cache.putSearch(base, result);
+        cache.putSearch(other, result);
+        cache.putExists("ou=people,dc=example,dc=com", true);
+        cache.putExists("cn=a,ou=people,dc=example,dc=com", true);
+        cache.putExists("cn=b,dc=example,dc=com", true);
+        cache.invalidate("ou=people,dc=example,dc=com");
+        assertNull(cache.getSearch(base));
+        assertNotNull(cache.getSearch(other));
+        assertNull(cache.getExists("ou=people,dc=example,dc=com"));
+        assertNull(cache.getExists("cn=a,ou=people,dc=example,dc=com"));
+        assertNotNull(cache.getExists("cn=b,dc=example,dc=com"));
+        assertEquals(3L, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void searchesAreKeyedByParameters() {
+        EntryCache cache = new EntryCache(10, 60000L);
+        cache.putSearch(new Search("dc=example,dc=com", SearchScope.ONE, "(cn=a)"), Collections.emptyList());
+        assertNotNull(cache.getSearch(new Search("dc=example,dc=com", SearchScope.ONE, "(cn=a)")));
+        assertNull(cache.getSearch(new Search("dc=example,dc=com", SearchScope.SUB, "(cn=a)")));
+        assertNull(cache.getSearch(new Search("dc=example,dc=com", SearchScope.ONE, "(cn=b)")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void cachedEntriesAreReadOnly() throws Exception {
+        Attributes attributes = new BasicAttributes(true);
+        attributes.put("cn", "Joe Doe");
+        Attribute mail = new BasicAttribute("mail");
+        mail.add("a@example.com");
+        mail.add("b@example.com");
+        attributes.put(mail);
+        for (EntryMapper mapper : List.of(EntryMapper.DEFAULT, EntryMapper.CASE_INSENSITIVE, EntryMapper.FLYWEIGHT)) {
+            Map<String, Object> entry = LDAP.readOnly(mapper.map("cn=Joe Doe,dc=example,dc=com", attributes));
+            assertEquals(List.of("a@example.com", "b@example.com"), entry.get("mail"));
+            try {
+                ((List<Object>) entry.get("mail")).add("c@example.com");
+                fail();
+            } catch (UnsupportedOperationException e) {
+                assertEquals(2, ((List<?>) entry.get("mail")).size());
+            }
+            try {
+                entry.put("cn", "John Doe");
+                fail();
+            } catch (UnsupportedOperationException e) {
+                assertEquals("Joe Doe", entry.get("cn"));
+            }
+        }
+    }
+}
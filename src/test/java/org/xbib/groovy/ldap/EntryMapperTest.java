@@ -0,0 +1,61 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class EntryMapperTest extends Assert {
+
+    private static final String DN = "cn=Joe Doe,dc=example,dc=com";
+
+    private static BasicAttributes attributes() {
+        BasicAttributes attrs = new BasicAttributes(true);
+        attrs.put("cn", "Joe Doe");
+        BasicAttribute mail = new BasicAttribute("mail");
+        mail.add("joe@example.com");
+        mail.add("doe@example.com");
+        attrs.put(mail);
+        attrs.put("jpegPhoto", new byte[] { 1, 2, 3 });
+        return attrs;
+    }
+
+    @Test
+    public void multipleValuesAreLists() throws Exception {
+        for (EntryMapper mapper : Arrays.asList(EntryMapper.DEFAULT, EntryMapper.CASE_INSENSITIVE,
+                EntryMapper.FLYWEIGHT)) {
+            Map<String, Object> entry = mapper.map(DN, attributes());
+            assertEquals(4, entry.size());
+            assertEquals(DN, entry.get("dn"));
+            assertEquals("Joe Doe", entry.get("cn"));
+            assertEquals(Arrays.asList("joe@example.com", "doe@example.com"), entry.get("mail"));
+            assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) entry.get("jpegPhoto"));
+        }
+    }
+
+    @Test
+    public void caseInsensitiveKeys() throws Exception {
+        assertNull(EntryMapper.DEFAULT.map(DN, attributes()).get("CN"));
+        assertEquals("Joe Doe", EntryMapper.CASE_INSENSITIVE.map(DN, attributes()).get("CN"));
+        assertEquals("Joe Doe", EntryMapper.FLYWEIGHT.map(DN, attributes()).get("CN"));
+    }
+
+    @Test
+    public void flyweightEqualsCopy() throws Exception {
+        Map<String, Object> copy = EntryMapper.DEFAULT.map(DN, attributes());
+        Map<String, Object> view = new LinkedHashMap<>(EntryMapper.FLYWEIGHT.map(DN, attributes()));
+        assertEquals(copy.keySet(), view.keySet());
+        assertEquals(copy.get("mail"), view.get("mail"));
+    }
+
+    @Test
+    public void mapperByName() {
+        assertSame(EntryMapper.FLYWEIGHT, new Search(java.util.Collections.singletonMap("mapper", "FLYWEIGHT"))
+                .getMapper());
+        assertSame(EntryMapper.DEFAULT, new Search().getMapper());
+    }
+}
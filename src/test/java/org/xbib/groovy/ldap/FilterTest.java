@@ -0,0 +1,62 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FilterTest extends Assert {
+
+    @Test
+    public void escapeReturnsInputIfNothingToEscape() {
+        String value = "jdoe@example.com";
+        assertSame(value, Filter.escape(value));
+        assertSame(value, LDAP.escapeValue(value));
+    }
+
+    @Test
+    public void escapeSpecialCharacters() {
+        assertEquals("Doe \\28Sales\\29 \\2a\\5c", Filter.escape("Doe (Sales) *\\"));
+        assertEquals("a\\21\\26\\3a\\7c\\7e\\00b", Filter.escape("a!&:|~\u0000b"));
+    }
+
+    @Test
+    public void escapeBraces() {
+        assertEquals("(cn=a\\7bb)", Filter.eq("cn", "a{b").render());
+        assertEquals("(uid=\\7b0\\7d)", Filter.eq("uid", Filter.arg(0)).render("{0}"));
+    }
+
+    @Test
+    public void compiledFilterRendersArguments() {
+        Filter filter = Filter.and(Filter.eq("objectClass", "person"), Filter.eq("uid", Filter.arg(0)),
+                Filter.not(Filter.present("nsAccountLock")));
+        assertEquals(1, filter.getArgCount());
+        assertEquals("(&(objectClass=person)(uid={0})(!(nsAccountLock=*)))", filter.toString());
+        assertEquals("(&(objectClass=person)(uid=j\\2a)(!(nsAccountLock=*)))", filter.render("j*"));
+        assertEquals("(&(objectClass=person)(uid=jdoe)(!(nsAccountLock=*)))", filter.render("jdoe"));
+    }
+
+    @Test
+    public void itemFilters() {
+        assertEquals("(|(age>=18)(age<=65)(cn~=jon))",
+                Filter.or(Filter.ge("age", 18), Filter.le("age", 65), Filter.approx("cn", "jon")).render());
+        assertEquals("(cn=J*o*h\\28*n)", Filter.substring("cn", "J", "n", "o", "h(").render());
+        assertEquals("(cn=*{0})", Filter.substring("cn", null, Filter.arg(0)).toString());
+        assertEquals("(objectGUID=\\01\\ff)", Filter.eq("objectGUID", new byte[] { 1, -1 }).render());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidAttribute() {
+        Filter.eq("cn=x)(uid", "y");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingArgument() {
+        Filter.eq("uid", Filter.arg(1)).render("jdoe");
+    }
+
+    @Test
+    public void searchWithCompiledFilter() {
+        Search search = new Search("dc=example,dc=com", SearchScope.SUB, Filter.eq("uid", Filter.arg(0)), "jdoe");
+        assertEquals("(uid=jdoe)", search.getFilter());
+        assertNull(search.getFilterArgs());
+    }
+}
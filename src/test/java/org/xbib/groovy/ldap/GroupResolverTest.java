@@ -0,0 +1,49 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class GroupResolverTest extends Assert {
+
+    @Test
+    public void inChainFilter() {
+        assertEquals("(member:1.2.840.113556.1.4.1941:=cn=Admins\\5c2c x,dc=example)",
+                GroupResolver.inChainFilter("member", "cn=Admins\\2c x,dc=example").render());
+    }
+
+    @Test
+    public void dnSetComparesNormalizedDns() {
+        DnSet set = DnSet.of(Arrays.asList("cn=Admins,dc=example,dc=com", "CN=admins, DC=example,DC=com",
+                "cn=Users,dc=example,dc=com"));
+        assertEquals(2, set.size());
+        assertTrue(set.contains("cn=ADMINS,dc=Example,dc=com"));
+        assertTrue(set.contains("cn=users,  dc=example,dc=com"));
+        assertFalse(set.contains("cn=Guests,dc=example,dc=com"));
+        assertFalse(set.contains(null));
+        assertEquals("cn=Admins,dc=example,dc=com", set.iterator().next());
+    }
+
+    @Test
+    public void namesRelativeToUrlBase() {
+        LDAP ldap = LDAP.newInstance("ldap://127.0.0.1:1/dc=example,dc=com");
+        assertEquals("cn=inner,ou=groups,dc=example,dc=com", ldap.absolutize("cn=inner,ou=groups"));
+        assertEquals("cn=inner,ou=groups,DC=Example,dc=com", ldap.absolutize("cn=inner,ou=groups,DC=Example,dc=com"));
+        assertEquals("dc=example,dc=com", ldap.absolutize(""));
+        assertEquals("cn=inner,ou=groups", ldap.relativize(ldap.absolutize("cn=inner,ou=groups")));
+        assertEquals("ldap://127.0.0.1:1/", DistinguishedNames.withoutBase("ldap://127.0.0.1:1/dc=example,dc=com"));
+        assertEquals("ldaps://[::1]:636/", DistinguishedNames.withoutBase("ldaps://[::1]:636/dc=example,dc=com"));
+        LDAP noBase = LDAP.newInstance("ldap://127.0.0.1:1/");
+        assertEquals("cn=inner,ou=groups", noBase.absolutize("cn=inner,ou=groups"));
+        ldap.close();
+        noBase.close();
+    }
+
+    @Test
+    public void emptyDnSet() {
+        assertSame(DnSet.EMPTY, DnSet.of(Collections.emptyList()));
+        assertFalse(DnSet.EMPTY.contains("cn=x"));
+    }
+}
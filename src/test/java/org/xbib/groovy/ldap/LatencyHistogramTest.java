@@ -0,0 +1,33 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest extends Assert {
+
+    @Test
+    public void quantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000L, histogram.getCount());
+        assertEquals(1000000L, histogram.getMaxNanos());
+        assertEquals(500500.0d, histogram.getMeanNanos(), 0.001d);
+        long p50 = histogram.getQuantileNanos(0.5d);
+        assertTrue("p50 " + p50, p50 >= 500000L && p50 <= 500000L * 9 / 8);
+        long p99 = histogram.getQuantileNanos(0.99d);
+        assertTrue("p99 " + p99, p99 >= 990000L && p99 <= 1000000L);
+    }
+
+    @Test
+    public void bucketsCoverAllValues() {
+        for (long value : new long[] { 0L, 1L, 15L, 16L, 17L, 1023L, 1024L, Long.MAX_VALUE }) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(value + " above bucket", value <= LatencyHistogram.upperBound(index));
+            if (index > 0) {
+                assertTrue(value + " below bucket", value > LatencyHistogram.upperBound(index - 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class LdifTest extends Assert {
+
+    @Test
+    public void entriesRoundTrip() throws Exception {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("dn", "cn=J\u00f6rg Doe,dc=example,dc=com");
+        entry.put("objectClass", Arrays.asList("top", "person"));
+        entry.put("cn", "J\u00f6rg Doe");
+        entry.put("description", String.join(" ", java.util.Collections.nCopies(30, "long")));
+        entry.put("jpegPhoto", new byte[] { (byte) 0xff, (byte) 0xd8, 0, 1 });
+        entry.put("sn", " leading space");
+        StringWriter sw = new StringWriter();
+        try (LdifWriter writer = new LdifWriter(sw)) {
+            writer.writeEntry(entry);
+            writer.writeEntry(entry);
+        }
+        String ldif = sw.toString();
+        assertTrue(ldif.startsWith("version: 1\n\ndn:: "));
+        for (String line : ldif.split("\n")) {
+            assertTrue(line, line.length() <= 76);
+        }
+        try (LdifReader reader = new LdifReader(new StringReader(ldif))) {
+            for (int i = 0; i < 2; i++) {
+                LdifRecord record = reader.read();
+                assertEquals(LdifRecord.ChangeType.CONTENT, record.getChangeType());
+                assertEquals(entry.get("dn"), record.getDn());
+                Map<String, Object> attributes = record.getAttributes();
+                assertEquals(entry.get("objectClass"), attributes.get("objectClass"));
+                assertEquals(entry.get("cn"), attributes.get("cn"));
+                assertEquals(entry.get("description"), attributes.get("description"));
+                assertEquals(entry.get("sn"), attributes.get("sn"));
+                assertArrayEquals((byte[]) entry.get("jpegPhoto"), (byte[]) attributes.get("jpegPhoto"));
+            }
+            assertNull(reader.read());
+            assertEquals(2L, reader.getCount());
+        }
+    }
+
+    @Test
+    public void changeRecords() throws Exception {
+        String ldif = "version: 1\n"
+                + "# a comment\n"
+                + "#  continued\n"
+                + "\n"
+                + "dn: cn=a,dc=exam\n"
+                + " ple,dc=com\n"
+                + "control: 1.2.840.113556.1.4.805 true\n"
+                + "changetype: delete\n"
+                + "\n"
+                + "dn: cn=b,dc=example,dc=com\n"
+                + "changetype: modify\n"
+                + "add: mail\n"
+                + "mail: b@example.com\n"
+                + "mail: bee@example.com\n"
+                + "-\n"
+                + "delete: description\n"
+                + "-\n"
+                + "replace: sn\n"
+                + "sn:: QsOk\n"
+                + "-\n"
+                + "\n"
+                + "dn: cn=c,dc=example,dc=com\n"
+                + "changetype: modrdn\n"
+                + "newrdn: cn=d\n"
+                + "deleteoldrdn: 1\n"
+                + "newsuperior: ou=people,dc=example,dc=com\n";
+        try (LdifReader reader = new LdifReader(new StringReader(ldif))) {
+            LdifRecord delete = reader.read();
+            assertEquals(LdifRecord.ChangeType.DELETE, delete.getChangeType());
+            assertEquals("cn=a,dc=example,dc=com", delete.getDn());
+            LdifRecord modify = reader.read();
+            ModificationItem[] items = modify.getModificationItems();
+            assertEquals(3, items.length);
+            assertEquals(DirContext.ADD_ATTRIBUTE, items[0].getModificationOp());
+            assertEquals(2, items[0].getAttribute().size());
+            assertEquals(DirContext.REMOVE_ATTRIBUTE, items[1].getModificationOp());
+            assertEquals(0, items[1].getAttribute().size());
+            assertEquals("B\u00e4", items[2].getAttribute().get());
+            LdifRecord modifyDn = reader.read();
+            assertEquals("cn=d", modifyDn.getNewRDN());
+            assertTrue(modifyDn.isDeleteOldRDN());
+            assertEquals("ou=people,dc=example,dc=com", modifyDn.getNewSuperior());
+            assertEquals(BatchOperation.Type.MODIFY_DN, modifyDn.toOperation().getType());
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void changeRecordsRoundTrip() throws Exception {
+        BasicAttribute mail = new BasicAttribute("mail", "b@example.com");
+        StringWriter sw = new StringWriter();
+        try (LdifWriter writer = new LdifWriter(sw)) {
+            writer.write(LdifRecord.modify("cn=b,dc=example,dc=com",
+                    new ModificationItem[] { new ModificationItem(DirContext.REPLACE_ATTRIBUTE, mail) }));
+            writer.write(LdifRecord.modifyDn("cn=c,dc=example,dc=com", "cn=d", false, null));
+            writer.write(LdifRecord.delete("cn=d,dc=example,dc=com"));
+        }
+        try (LdifReader reader = new LdifReader(new StringReader(sw.toString()))) {
+            assertEquals(3L, reader.stream().count());
+        }
+    }
+
+    @Test
+    public void invalidBase64IsRejected() throws Exception {
+        String ldif = "dn: cn=a,dc=example,dc=com\n"
+                + "description:: aGVs bG8=\n"
+                + "\n"
+                + "dn: cn=b,dc=example,dc=com\n"
+                + "description:: aGVs!bG8=\n";
+        try (LdifReader reader = new LdifReader(new StringReader(ldif))) {
+            assertEquals("hello", reader.read().getAttributes().get("description"));
+            try {
+                reader.read();
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("LDIF line 5:"));
+            }
+        }
+    }
+
+    @Test
+    public void renameAffectsOldAndNewDn() {
+        BatchOperation rename = BatchOperation.modifyDn("cn=c,ou=people,dc=example,dc=com", "cn=d", true, null);
+        assertArrayEquals(new String[] { "cn=c,ou=people,dc=example,dc=com", "cn=d,ou=people,dc=example,dc=com" },
+                rename.getAffectedDns());
+        BatchOperation move = BatchOperation.modifyDn("cn=c,ou=people", "cn=c", true, "ou=staff");
+        assertArrayEquals(new String[] { "cn=c,ou=people", "cn=c,ou=staff" }, move.getAffectedDns());
+        assertArrayEquals(new String[] { "cn=c" }, BatchOperation.delete("cn=c").getAffectedDns());
+    }
+}
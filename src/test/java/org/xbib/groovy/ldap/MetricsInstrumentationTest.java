@@ -0,0 +1,38 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+
+public class MetricsInstrumentationTest extends Assert {
+
+    @Test
+    public void connectFailuresAreCounted() {
+        LDAP ldap = LDAP.newInstance("ldap://localhost:1/");
+        MetricsInstrumentation metrics = new MetricsInstrumentation();
+        ldap.setInstrumentation(metrics);
+        try {
+            ldap.exists("cn=Joe Doe,dc=example,dc=com");
+            fail();
+        } catch (NamingException e) {
+            assertTrue(e instanceof CommunicationException);
+        }
+        assertEquals(1L, metrics.getConnectFailureCount());
+        assertEquals(Long.valueOf(1L), metrics.getFailureCounts().get("CommunicationException"));
+        assertEquals(1L, metrics.getLatency(Operation.EXISTS).getCount());
+        ldap.close();
+    }
+
+    @Test
+    public void completedOperationsAreRecorded() {
+        MetricsInstrumentation metrics = new MetricsInstrumentation();
+        metrics.completed(Operation.SEARCH, 1000L, 3L, 12L);
+        metrics.completed(Operation.SEARCH, 3000L, 1L, 4L);
+        assertEquals(2L, metrics.getLatency(Operation.SEARCH).getCount());
+        assertEquals(0L, metrics.getLatency(Operation.ADD).getCount());
+        assertEquals(4L, metrics.getEntryCount());
+        assertEquals(16L, metrics.getAttributeCount());
+    }
+}
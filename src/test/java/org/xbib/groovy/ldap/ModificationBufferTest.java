@@ -0,0 +1,107 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class ModificationBufferTest extends Assert {
+
+    private static final String UNREACHABLE = "ldap://127.0.0.1:1/";
+
+    private static final String DN = "uid=jdoe,ou=people,dc=example,dc=com";
+
+    @Test
+    public void replaceOverridesEarlierChanges() throws Exception {
+        ModificationBuffer buffer = newBuffer();
+        buffer.modify(DN, ModificationType.ADD, Map.of("mail", "a@example.com"));
+        buffer.modify(DN, ModificationType.DELETE, Map.of("mail", "b@example.com"));
+        buffer.modify(DN, ModificationType.REPLACE, Map.of("mail", "c@example.com"));
+        buffer.modify(DN, ModificationType.ADD, Map.of("mail", "d@example.com"));
+        ModificationItem[] items = buffer.getPending(DN);
+        assertEquals(1, items.length);
+        assertEquals(DirContext.REPLACE_ATTRIBUTE, items[0].getModificationOp());
+        assertEquals(Arrays.asList("c@example.com", "d@example.com"), values(items[0]));
+        buffer.discard();
+    }
+
+    @Test
+    public void addAndRemoveOfSameValueCancel() throws Exception {
+        ModificationBuffer buffer = newBuffer();
+        buffer.modify(DN, ModificationType.ADD, Map.of("telephoneNumber", List.of("1", "2")));
+        buffer.modify(DN, ModificationType.DELETE, Map.of("telephoneNumber", "1"));
+        buffer.modify(DN, ModificationType.DELETE, Map.of("telephoneNumber", "3"));
+        ModificationItem[] items = buffer.getPending(DN);
+        assertEquals(2, items.length);
+        assertEquals(DirContext.REMOVE_ATTRIBUTE, items[0].getModificationOp());
+        assertEquals(Collections.singletonList("3"), values(items[0]));
+        assertEquals(DirContext.ADD_ATTRIBUTE, items[1].getModificationOp());
+        assertEquals(Collections.singletonList("2"), values(items[1]));
+        buffer.modify(DN, ModificationType.ADD, Map.of("telephoneNumber", "3"));
+        buffer.modify(DN, ModificationType.DELETE, Map.of("telephoneNumber", "2"));
+        assertEquals(0, buffer.getPending(DN).length);
+        buffer.discard();
+    }
+
+    @Test
+    public void removeAllThenAddIsReplace() throws Exception {
+        ModificationBuffer buffer = newBuffer();
+        buffer.modify(DN, Arrays.asList(Arrays.asList("DELETE", Map.of("description", Collections.emptyList())),
+                Arrays.asList("ADD", Map.of("description", "new"))));
+        ModificationItem[] items = buffer.getPending(DN);
+        assertEquals(1, items.length);
+        assertEquals(DirContext.REPLACE_ATTRIBUTE, items[0].getModificationOp());
+        assertEquals(Collections.singletonList("new"), values(items[0]));
+        buffer.discard();
+    }
+
+    @Test
+    public void changesAreGroupedByNormalizedDn() throws Exception {
+        ModificationBuffer buffer = newBuffer();
+        buffer.modify(DN, ModificationType.REPLACE, Map.of("cn", "John"));
+        buffer.modify("UID=jdoe, ou=People, dc=example, dc=com", ModificationType.REPLACE, Map.of("sn", "Doe"));
+        buffer.modify("uid=other,ou=people,dc=example,dc=com", ModificationType.REPLACE, Map.of("cn", "Other"));
+        assertEquals(2, buffer.getPendingCount());
+        assertEquals(2, buffer.getPending(DN).length);
+        assertEquals(2, buffer.discard());
+        assertEquals(0, buffer.getPendingCount());
+    }
+
+    @Test
+    public void commitWritesOneOperationPerDn() throws Exception {
+        ModificationBuffer buffer = newBuffer();
+        buffer.modify(DN, ModificationType.REPLACE, Map.of("cn", "John"));
+        buffer.modify(DN, ModificationType.REPLACE, Map.of("sn", "Doe"));
+        BatchResult result = buffer.commit();
+        assertEquals(1, result.getCount());
+        assertEquals(1, result.getFailureCount());
+        assertEquals(0, buffer.getPendingCount());
+        assertEquals(0, buffer.commit().getCount());
+        buffer.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedBufferRejectsChanges() throws Exception {
+        ModificationBuffer buffer = newBuffer();
+        buffer.close();
+        buffer.modify(DN, ModificationType.REPLACE, Map.of("cn", "John"));
+    }
+
+    private static ModificationBuffer newBuffer() {
+        return LDAP.newInstance(UNREACHABLE).modificationBuffer(100, 0L);
+    }
+
+    private static List<Object> values(ModificationItem item) throws Exception {
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < item.getAttribute().size(); i++) {
+            values.add(item.getAttribute().get(i));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,39 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.ldap.LdapName;
+import java.util.Arrays;
+import java.util.Map;
+
+public class MultiReadTest extends Assert {
+
+    @Test
+    public void orFilterOfRdns() throws Exception {
+        String filter = MultiRead.orFilter(Arrays.asList(
+                new LdapName("uid=jdoe,ou=people,dc=example,dc=com"),
+                new LdapName("uid=a\\2b*,ou=people,dc=example,dc=com"),
+                new LdapName("cn=John+sn=Doe,ou=people,dc=example,dc=com")));
+        assertEquals("(|(uid=jdoe)(uid=a+\\2a)(&(cn=John)(sn=Doe)))", filter);
+    }
+
+    @Test
+    public void rdnKeyIgnoresParentAndCase() throws Exception {
+        assertEquals(MultiRead.rdnKey(new LdapName("uid=jdoe,ou=people")),
+                MultiRead.rdnKey(new LdapName("UID=JDoe, ou=People, dc=example, dc=com")));
+        assertEquals(MultiRead.rdnKey(new LdapName("cn=John+sn=Doe,ou=people")),
+                MultiRead.rdnKey(new LdapName("sn=doe+cn=john,ou=people,dc=example,dc=com")));
+        assertEquals("", MultiRead.rdnKey(new LdapName("")));
+    }
+
+    @Test
+    public void missingEntriesWithoutServer() throws Exception {
+        LDAP ldap = LDAP.newInstance(null);
+        Map<String, Map<String, Object>> entries = ldap.readAll(Arrays.asList("uid=a,dc=example", "uid=b,dc=example"));
+        assertEquals(2, entries.size());
+        assertTrue(entries.containsKey("uid=a,dc=example"));
+        assertNull(entries.get("uid=b,dc=example"));
+        ldap.close();
+    }
+}
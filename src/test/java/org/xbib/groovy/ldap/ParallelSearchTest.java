@@ -0,0 +1,39 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class ParallelSearchTest extends Assert {
+
+    @Test
+    public void entriesAreSortedHierarchically() {
+        List<String> dns = Arrays.asList(
+                "cn=b,ou=people,dc=example,dc=com",
+                "ou=people\\+,dc=example,dc=com",
+                "dc=example,dc=com",
+                "cn=a,ou=People,dc=example,dc=com",
+                "ou=people,dc=example,dc=com",
+                "ou=groups,dc=example,dc=com");
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (String dn : dns) {
+            entries.add(Collections.singletonMap("dn", dn));
+        }
+        List<String> sorted = new ArrayList<>();
+        for (Map<String, Object> entry : ParallelSearch.sortByDn(entries)) {
+            sorted.add((String) entry.get("dn"));
+        }
+        assertEquals(Arrays.asList(
+                "dc=example,dc=com",
+                "ou=groups,dc=example,dc=com",
+                "ou=people,dc=example,dc=com",
+                "cn=a,ou=People,dc=example,dc=com",
+                "cn=b,ou=people,dc=example,dc=com",
+                "ou=people\\+,dc=example,dc=com"), sorted);
+    }
+}
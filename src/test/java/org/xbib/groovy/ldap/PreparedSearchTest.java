@@ -0,0 +1,71 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PreparedSearchTest extends Assert {
+
+    @Test
+    public void bindRendersFilterAndSharesControls() {
+        Search template = new Search("ou=people,dc=example,dc=com", SearchScope.ONE, "(objectClass=*)");
+        template.setSortKeys("cn");
+        PreparedSearch prepared = new PreparedSearch(template, Filter.eq("uid", Filter.arg(0)));
+        Search first = prepared.bind("jdoe");
+        Search second = prepared.bind("a*b");
+        assertEquals("(uid=jdoe)", first.getFilter());
+        assertEquals("(uid=a\\2ab)", second.getFilter());
+        assertEquals("(uid=\\7b0\\7d)", prepared.bind("{0}").getFilter());
+        assertNull(first.getFilterArgs());
+        assertEquals("ou=people,dc=example,dc=com", first.getBase());
+        assertEquals(SearchScope.ONE, first.getScope());
+        assertSame(first.getSearchControls(), second.getSearchControls());
+        assertSame(first.getRequestControls(), second.getRequestControls());
+        assertSame(first.getPagedSearchControls(), second.getPagedSearchControls());
+    }
+
+    @Test
+    public void bindWithFilterExpression() {
+        PreparedSearch prepared = new PreparedSearch(new Search("", SearchScope.SUB, "(&(uid={0})(mail={1}))"));
+        Object[] args = { "jdoe", "jdoe@example.com" };
+        Search search = prepared.bind(args);
+        assertEquals("(&(uid={0})(mail={1}))", search.getFilter());
+        assertArrayEquals(args, search.getFilterArgs());
+        assertNotSame(args, search.getFilterArgs());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void boundSearchIsImmutable() {
+        new PreparedSearch(new Search()).bind().setPageSize(10);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void templateIsImmutable() {
+        new PreparedSearch(new Search()).getTemplate().setSortKeys("cn");
+    }
+
+    @Test
+    public void pagedSearchHasNoCountLimit() {
+        Search search = new Search("", SearchScope.SUB, "(objectClass=*)", 1000, 10);
+        assertEquals(10L, search.getSearchControls().getCountLimit());
+        assertEquals(0L, search.getPagedSearchControls().getCountLimit());
+        assertEquals(1000, search.getPagedSearchControls().getTimeLimit());
+    }
+
+    @Test
+    public void mapAcceptsNumbersAndLists() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("timeLimit", 100);
+        params.put("countLimit", "7");
+        params.put("attrs", Arrays.asList("cn", "mail"));
+        params.put("sort", "-cn");
+        Search search = new Search(params);
+        assertEquals(100, search.getSearchControls().getTimeLimit());
+        assertEquals(7L, search.getSearchControls().getCountLimit());
+        assertArrayEquals(new String[] { "cn", "mail" }, search.getAttrs());
+        assertArrayEquals(new String[] { "-cn" }, search.getSortKeys());
+    }
+}
@@ -0,0 +1,90 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.SizeLimitExceededException;
+import javax.naming.directory.BasicAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ProjectionTest extends Assert {
+
+    @Test
+    public void allUserAttributesAndNoObjectsByDefault() {
+        Search search = new Search("dc=example,dc=com", SearchScope.SUB, "(uid=jdoe)");
+        assertNull(search.getAttrs());
+        assertNull(search.getSearchControls().getReturningAttributes());
+        assertFalse(search.getSearchControls().getReturningObjFlag());
+        assertFalse(search.getPagedSearchControls().getReturningObjFlag());
+        assertFalse(search.isDnOnly());
+    }
+
+    @Test
+    public void attributesOfConstructor() {
+        Search search = new Search("dc=example,dc=com", SearchScope.SUB, "(uid=jdoe)", "cn", "mail");
+        assertArrayEquals(new String[] { "cn", "mail" }, search.getSearchControls().getReturningAttributes());
+        assertArrayEquals(new String[] { "cn", "mail" }, search.getPagedSearchControls().getReturningAttributes());
+    }
+
+    @Test
+    public void dnOnly() {
+        Search search = new Search("dc=example,dc=com", SearchScope.ONE, "(objectClass=*)");
+        search.setAttrs(Search.DN_ONLY);
+        assertTrue(search.isDnOnly());
+        assertArrayEquals(new String[] { "1.1" }, search.getSearchControls().getReturningAttributes());
+        search.setAttrs();
+        assertNull(search.getSearchControls().getReturningAttributes());
+    }
+
+    @Test
+    public void dnOnlyFromMap() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("attrs", Search.DN_ONLY);
+        params.put("maxBytes", 1024);
+        params.put("abortOnMaxBytes", true);
+        Search search = new Search(params);
+        assertTrue(search.isDnOnly());
+        assertEquals(1024L, search.getMaxBytes());
+        assertTrue(search.isAbortOnMaxBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void preparedSearchKeepsItsAttributes() {
+        new PreparedSearch(new Search("dc=example,dc=com", SearchScope.SUB, "(uid={0})")).bind("jdoe").setAttrs("cn");
+    }
+
+    @Test
+    public void estimatedSize() throws Exception {
+        BasicAttributes attrs = new BasicAttributes(true);
+        attrs.put("cn", "John Doe");
+        attrs.put("jpegPhoto", new byte[1000]);
+        assertEquals(2 + 8 + 9 + 1000, Tally.estimateSize(attrs));
+    }
+
+    @Test
+    public void oversizedResultIsLogged() throws Exception {
+        Search search = new Search("dc=example,dc=com", SearchScope.SUB, "(objectClass=*)");
+        search.setMaxBytes(100L);
+        Tally tally = new Tally(search);
+        BasicAttributes attrs = new BasicAttributes(true);
+        attrs.put("description", new byte[60]);
+        tally.count(attrs);
+        tally.count(attrs);
+        tally.count(attrs);
+        assertEquals(3, tally.entries);
+        assertEquals(3 * 71, tally.bytes);
+    }
+
+    @Test(expected = SizeLimitExceededException.class)
+    public void oversizedResultIsAborted() throws Exception {
+        Search search = new Search("dc=example,dc=com", SearchScope.SUB, "(objectClass=*)");
+        search.setMaxBytes(100L);
+        search.setAbortOnMaxBytes(true);
+        Tally tally = new Tally(search);
+        BasicAttributes attrs = new BasicAttributes(true);
+        attrs.put("description", new byte[60]);
+        tally.count(attrs);
+        tally.count(attrs);
+    }
+}
@@ -0,0 +1,106 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.CommunicationException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+public class SearchPublisherTest extends Assert {
+
+    @Test
+    public void noSearchBeforeRequest() throws Exception {
+        LDAP ldap = LDAP.newInstance("ldap://127.0.0.1:1/");
+        Recorder recorder = new Recorder();
+        ldap.publisher(new Search("", SearchScope.SUB, "(objectClass=*)"), Runnable::run).subscribe(recorder);
+        assertNotNull(recorder.subscription);
+        assertFalse(recorder.result.isDone());
+        assertEquals(0L, ldap.getServers().get(0).getFailureCount());
+        recorder.subscription.request(1L);
+        assertTrue(recorder.result.get(5, TimeUnit.SECONDS) instanceof CommunicationException);
+        ldap.close();
+    }
+
+    @Test
+    public void nonPositiveRequestFails() throws Exception {
+        LDAP ldap = LDAP.newInstance("ldap://127.0.0.1:1/");
+        Recorder recorder = new Recorder();
+        ldap.publisher(new Search("", SearchScope.SUB, "(objectClass=*)"), Runnable::run).subscribe(recorder);
+        recorder.subscription.request(0L);
+        assertTrue(recorder.result.get(5, TimeUnit.SECONDS) instanceof IllegalArgumentException);
+        ldap.close();
+    }
+
+    @Test
+    public void cancelledSubscriptionIsSilent() throws Exception {
+        LDAP ldap = LDAP.newInstance("ldap://127.0.0.1:1/");
+        Recorder recorder = new Recorder();
+        ldap.publisher(new Search("", SearchScope.SUB, "(objectClass=*)"), Runnable::run).subscribe(recorder);
+        recorder.subscription.cancel();
+        recorder.subscription.request(1L);
+        assertFalse(recorder.result.isDone());
+        assertEquals(0L, ldap.getServers().get(0).getFailureCount());
+        ldap.close();
+    }
+
+    @Test
+    public void completesWithoutServers() throws Exception {
+        LDAP ldap = LDAP.newInstance(null);
+        Recorder recorder = new Recorder();
+        ldap.publisher(new Search("", SearchScope.SUB, "(objectClass=*)"), Runnable::run).subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        assertNull(recorder.result.get(5, TimeUnit.SECONDS));
+        assertEquals(0, recorder.count);
+        ldap.close();
+    }
+
+    @Test
+    public void searchFailureIsSignalled() throws Exception {
+        LDAP ldap = LDAP.newInstance("ldap://127.0.0.1:1/");
+        Search search = new Search("", SearchScope.SUB, "(objectClass=*)");
+        Recorder recorder = new Recorder();
+        new SearchPublisher(ldap, search, Runnable::run, s -> new PagedSearchIterator(ldap, s) {
+            @Override
+            public boolean hasNext() {
+                throw new IllegalStateException("mapping failed");
+            }
+        }).subscribe(recorder);
+        recorder.subscription.request(1L);
+        Throwable error = recorder.result.get(5, TimeUnit.SECONDS);
+        assertTrue(error instanceof IllegalStateException);
+        assertEquals("mapping failed", error.getMessage());
+        ldap.close();
+    }
+
+    private static class Recorder implements Flow.Subscriber<Map<String, Object>> {
+
+        private final CompletableFuture<Throwable> result = new CompletableFuture<>();
+
+        private Flow.Subscription subscription;
+
+        private int count;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Map<String, Object> item) {
+            count++;
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.complete(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            result.complete(null);
+        }
+    }
+}
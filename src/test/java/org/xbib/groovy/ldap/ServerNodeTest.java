@@ -0,0 +1,125 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.CommunicationException;
+import javax.naming.ServiceUnavailableException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class ServerNodeTest extends Assert {
+
+    private static final String UNREACHABLE = "ldap://127.0.0.1:1/";
+
+    @Test
+    public void readsGoToReplicasInTurn() throws Exception {
+        LDAP ldap = newCluster();
+        Set<ServerNode> selected = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            ServerNode server = ldap.select(false, 0L);
+            assertEquals(ServerNode.Role.REPLICA, server.getRole());
+            selected.add(server);
+        }
+        assertEquals(2, selected.size());
+        ldap.close();
+    }
+
+    @Test
+    public void writesGoToPrimary() throws Exception {
+        LDAP ldap = newCluster();
+        for (int i = 0; i < 3; i++) {
+            assertSame(ldap.getServers().get(0), ldap.select(true, 0L));
+        }
+        ldap.close();
+    }
+
+    @Test
+    public void readsFallBackToPrimary() throws Exception {
+        LDAP ldap = newCluster();
+        ServerNode primary = ldap.getServers().get(0);
+        assertSame(primary, ldap.select(false, 0b110L));
+        ldap.close();
+    }
+
+    @Test
+    public void breakerOpensAfterConsecutiveFailures() throws Exception {
+        LDAP ldap = newCluster();
+        ServerNode replica = ldap.getServers().get(1);
+        for (int i = 0; i < ServerNode.FAILURE_THRESHOLD - 1; i++) {
+            replica.markFailure();
+        }
+        assertEquals(ServerNode.State.UP, replica.getState());
+        replica.markFailure();
+        assertEquals(ServerNode.State.DOWN, replica.getState());
+        for (int i = 0; i < 4; i++) {
+            assertSame(ldap.getServers().get(2), ldap.select(false, 0L));
+        }
+        replica.markSuccess();
+        assertEquals(ServerNode.State.UP, replica.getState());
+        ldap.close();
+    }
+
+    @Test
+    public void onlyOneProbeOfDownServer() throws Exception {
+        LDAP ldap = newCluster();
+        ServerNode replica = ldap.getServers().get(1);
+        for (int i = 0; i < ServerNode.FAILURE_THRESHOLD; i++) {
+            replica.markFailure();
+        }
+        long due = replica.getOpenUntil();
+        assertFalse(replica.claimProbe(due - 1L));
+        assertTrue(replica.claimProbe(due));
+        assertFalse(replica.claimProbe(due));
+        ldap.close();
+    }
+
+    @Test
+    public void busyRepliesDoNotOpenBreaker() throws Exception {
+        LDAP ldap = newCluster();
+        ServerNode replica = ldap.getServers().get(1);
+        for (int i = 0; i < ServerNode.FAILURE_THRESHOLD * 2; i++) {
+            replica.failed(1000L, new ServiceUnavailableException("busy"));
+        }
+        assertEquals(ServerNode.State.UP, replica.getState());
+        assertFalse(ContextPool.isConnectionFailure(new ServiceUnavailableException("busy")));
+        assertTrue(ContextPool.isConnectionFailure(new CommunicationException("reset")));
+        ldap.close();
+    }
+
+    @Test
+    public void downServerIsUsedIfNoOtherIsLeft() throws Exception {
+        LDAP ldap = LDAP.newInstance(UNREACHABLE);
+        ServerNode primary = ldap.getServers().get(0);
+        for (int i = 0; i < ServerNode.FAILURE_THRESHOLD; i++) {
+            primary.markFailure();
+        }
+        assertSame(primary, ldap.select(true, 0L));
+        ldap.close();
+    }
+
+    @Test
+    public void readFailsOverToAllServers() throws Exception {
+        LDAP ldap = newCluster();
+        try {
+            ldap.read("cn=test");
+            fail();
+        } catch (CommunicationException e) {
+            // expected
+        }
+        for (ServerNode server : ldap.getServers()) {
+            assertEquals(1L, server.getFailureCount());
+        }
+        ldap.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void primaryIsRequired() {
+        LDAP.newInstance(null, Arrays.asList(UNREACHABLE), null, null, new PoolSettings());
+    }
+
+    private static LDAP newCluster() {
+        return LDAP.newInstance(UNREACHABLE, Arrays.asList(UNREACHABLE, UNREACHABLE), null, null, new PoolSettings());
+    }
+}
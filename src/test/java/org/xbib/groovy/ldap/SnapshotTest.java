@@ -0,0 +1,124 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.ConfigurationException;
+import javax.naming.ldap.LdapName;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class SnapshotTest extends Assert {
+
+    @Test
+    public void writeAndLookup() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        Path file = dir.resolve("test.snapshot");
+        try (SnapshotWriter writer = new SnapshotWriter(file, 7)) {
+            for (int i = 99; i >= 0; i--) {
+                String dn = "uid=user" + i + ",ou=People,dc=example,dc=com";
+                writer.add(DistinguishedNames.normalize(dn), dn, hash(i));
+            }
+            writer.add(DistinguishedNames.normalize("uid=user5,ou=people,dc=example,dc=com"), "duplicate", hash(-1));
+            assertEquals(100L, writer.finish("20240131235959Z"));
+        }
+        try (Snapshot snapshot = Snapshot.open(file)) {
+            assertEquals(100, snapshot.size());
+            assertEquals("20240131235959Z", snapshot.getTimestamp());
+            assertTrue(snapshot.contains("UID=user42, ou=people, dc=example, dc=com"));
+            assertFalse(snapshot.contains("uid=user100,ou=people,dc=example,dc=com"));
+            assertArrayEquals(hash(5), snapshot.getHash("uid=user5,ou=People,dc=example,dc=com"));
+            assertNull(snapshot.getHash("uid=nobody,ou=people,dc=example,dc=com"));
+            Snapshot.Cursor cursor = snapshot.cursor();
+            List<String> keys = new ArrayList<>();
+            while (cursor.next()) {
+                keys.add(cursor.key());
+                assertTrue(cursor.dn().contains("People"));
+            }
+            List<String> sorted = new ArrayList<>(keys);
+            sorted.sort(null);
+            assertEquals(sorted, keys);
+            assertEquals(100, keys.size());
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1L, files.count());
+        }
+    }
+
+    @Test
+    public void emptySnapshot() throws Exception {
+        Path file = Files.createTempDirectory("snapshot").resolve("empty.snapshot");
+        try (SnapshotWriter writer = new SnapshotWriter(file)) {
+            assertEquals(0L, writer.finish(null));
+        }
+        try (Snapshot snapshot = Snapshot.open(file)) {
+            assertEquals(0, snapshot.size());
+            assertNull(snapshot.getTimestamp());
+            assertFalse(snapshot.contains("dc=example,dc=com"));
+            assertFalse(snapshot.cursor().next());
+        }
+    }
+
+    @Test
+    public void hashIgnoresOrderCaseAndTimestamp() {
+        Map<String, Object> a = new HashMap<>();
+        a.put("dn", "uid=jdoe,dc=example,dc=com");
+        a.put("cn", "John Doe");
+        a.put("mail", Arrays.asList("a@example.com", "b@example.com"));
+        a.put("modifyTimestamp", "20240101000000Z");
+        Map<String, Object> b = new HashMap<>();
+        b.put("dn", "UID=jdoe,dc=example,dc=com");
+        b.put("MAIL", Arrays.asList("b@example.com", "a@example.com"));
+        b.put("CN", "John Doe");
+        b.put("modifytimestamp", "20240202000000Z");
+        assertArrayEquals(SnapshotSync.hash(a, "modifyTimestamp"), SnapshotSync.hash(b, "modifyTimestamp"));
+        b.put("cn", "Jane Doe");
+        b.remove("CN");
+        assertFalse(Arrays.equals(SnapshotSync.hash(a, "modifyTimestamp"), SnapshotSync.hash(b, "modifyTimestamp")));
+        assertEquals(Snapshot.HASH_LENGTH, SnapshotSync.hash(a, "modifyTimestamp").length);
+    }
+
+    @Test
+    public void generalizedTime() {
+        assertEquals(Instant.parse("2024-01-31T23:59:59Z"), SnapshotSync.parseTime("20240131235959Z"));
+        assertEquals(Instant.parse("2024-01-31T23:59:59Z"), SnapshotSync.parseTime("20240131235959.123Z"));
+        assertEquals(Instant.parse("2024-01-31T22:59:59Z"), SnapshotSync.parseTime("20240131235959+0100"));
+        assertEquals(Instant.parse("2024-01-31T23:59:59Z"),
+                SnapshotSync.parseTime("20240131235959.123456Z#000000#000#000000"));
+        assertNull(SnapshotSync.parseTime("yesterday"));
+        assertEquals("20240131235959Z", SnapshotSync.formatTime(Instant.parse("2024-01-31T23:59:59.5Z")));
+    }
+
+    @Test
+    public void namesRelativeToUrlBase() {
+        LdapName base = DistinguishedNames.baseName("ldap://localhost:10389/dc=example,dc=com");
+        assertEquals("uid=jdoe,ou=people",
+                DistinguishedNames.relativize(base, "uid=jdoe,ou=people,DC=Example,dc=com"));
+        assertEquals("", DistinguishedNames.relativize(base, "dc=example,dc=com"));
+        assertEquals("uid=jdoe,dc=other", DistinguishedNames.relativize(base, "uid=jdoe,dc=other"));
+        LdapName none = DistinguishedNames.baseName("ldap://localhost:10389");
+        assertTrue(none.isEmpty());
+        assertEquals("uid=jdoe,dc=example,dc=com", DistinguishedNames.relativize(none, "uid=jdoe,dc=example,dc=com"));
+        assertEquals("uid=a b,ou=people", DistinguishedNames.relativize(
+                DistinguishedNames.baseName("ldap://localhost/dc=example%2Cdc=com"), "uid=a b,ou=people,dc=example,dc=com"));
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void syncRequiresServer() throws Exception {
+        LDAP ldap = LDAP.newInstance(null);
+        new SnapshotSync(ldap, new Search(), Files.createTempDirectory("snapshot").resolve("s")).sync(event -> { });
+    }
+
+    private static byte[] hash(int i) {
+        byte[] hash = new byte[Snapshot.HASH_LENGTH];
+        Arrays.fill(hash, (byte) i);
+        return hash;
+    }
+}
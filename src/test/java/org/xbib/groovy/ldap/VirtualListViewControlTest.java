@@ -0,0 +1,66 @@
+package org.xbib.groovy.ldap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.SortControl;
+
+public class VirtualListViewControlTest extends Assert {
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    @Test
+    public void encodeByOffset() {
+        VirtualListViewControl control = VirtualListViewControl.byOffset(1, 0, 0, 9);
+        assertEquals(VirtualListViewControl.OID, control.getID());
+        assertTrue(control.isCritical());
+        assertArrayEquals(bytes(0x30, 0x0e, 0x02, 0x01, 0x00, 0x02, 0x01, 0x09,
+                0xa0, 0x06, 0x02, 0x01, 0x01, 0x02, 0x01, 0x00), control.getEncodedValue());
+        assertEquals(control, VirtualListViewControl.byOffset(1, 0, 0, 9));
+    }
+
+    @Test
+    public void encodeByValue() {
+        VirtualListViewControl control = VirtualListViewControl.byValue("Jo", 2, 200);
+        assertArrayEquals(bytes(0x30, 0x0b, 0x02, 0x01, 0x02, 0x02, 0x02, 0x00, 0xc8,
+                0x81, 0x02, 'J', 'o'), control.getEncodedValue());
+    }
+
+    @Test
+    public void decodeResponse() throws Exception {
+        byte[] value = bytes(0x30, 0x0e, 0x02, 0x01, 0x05, 0x02, 0x02, 0x01, 0x00, 0x0a, 0x01, 0x00,
+                0x04, 0x02, 0xab, 0xcd);
+        VirtualListViewResponseControl response = VirtualListViewResponseControl.find(new Control[] {
+                new BasicControl(VirtualListViewResponseControl.OID, false, value)
+        });
+        assertEquals(5, response.getTargetPosition());
+        assertEquals(256, response.getContentCount());
+        assertEquals(0, response.getResultCode());
+        assertArrayEquals(bytes(0xab, 0xcd), response.getContextId());
+    }
+
+    @Test
+    public void searchControls() {
+        Search search = new Search("dc=example,dc=com", SearchScope.SUB, "(objectClass=person)");
+        assertNull(search.getRequestControls());
+        search.setSortKeys("sn", "-cn:2.5.13.3");
+        assertTrue(search.getRequestControls()[0] instanceof SortControl);
+        search.setWindow(1, 0, 19);
+        assertEquals(2, search.getRequestControls().length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void windowRequiresSortKeys() {
+        Search search = new Search("dc=example,dc=com", SearchScope.SUB, "(objectClass=person)");
+        search.setWindow("Jo", 0, 19);
+        search.getRequestControls();
+    }
+}